@@ -0,0 +1,169 @@
+package MachinaEar.devices.boundaries;
+
+import java.time.Instant;
+import java.util.List;
+
+import org.eclipse.microprofile.openapi.annotations.Operation;
+import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
+import org.eclipse.microprofile.openapi.annotations.responses.APIResponses;
+import org.eclipse.microprofile.openapi.annotations.tags.Tag;
+
+import MachinaEar.devices.controllers.managers.AlertManager;
+import MachinaEar.devices.entities.Alert;
+import MachinaEar.devices.entities.AlertRule;
+import MachinaEar.iam.controllers.repositories.IdentityRepository;
+import MachinaEar.iam.entities.Identity;
+import MachinaEar.iam.security.Secured;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.DELETE;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.SecurityContext;
+
+@Path("/alerts")
+@Consumes(MediaType.APPLICATION_JSON)
+@Produces(MediaType.APPLICATION_JSON)
+@Tag(name = "Alerts", description = "Alert rules and fired alerts")
+@Secured({"USER", "ADMIN"})
+public class AlertEndpoint {
+
+    static final int DEFAULT_ALERT_LIMIT = 50;
+    static final int MAX_ALERT_LIMIT = 500;
+
+    @Inject
+    AlertManager manager;
+
+    @Inject
+    IdentityRepository identities;
+
+    public static class AlertRuleRequest {
+
+        public String name;
+        public String type; // SCORE_ABOVE, P95_ABOVE or OFFLINE
+        public String deviceId; // optional, all devices when absent
+        public Double threshold;
+        public Integer count;
+        public Integer minutes;
+    }
+
+    public static class AlertRuleResponse {
+
+        public String id;
+        public String name;
+        public String type;
+        public String deviceId;
+        public Double threshold;
+        public Integer count;
+        public Integer minutes;
+
+        public AlertRuleResponse(AlertRule rule) {
+            this.id = rule.getId().toHexString();
+            this.name = rule.getName();
+            this.type = rule.getType().name();
+            this.deviceId = rule.getDeviceId() == null ? null : rule.getDeviceId().toHexString();
+            this.threshold = rule.getThreshold();
+            this.count = rule.getCount();
+            this.minutes = rule.getMinutes();
+        }
+    }
+
+    public static class AlertResponse {
+
+        public String ruleId;
+        public String ruleName;
+        public String type;
+        public String deviceId;
+        public String deviceName;
+        public Double value;
+        public Double threshold;
+        public String message;
+        public Instant firedAt;
+
+        public AlertResponse(Alert alert) {
+            this.ruleId = alert.getRuleId().toHexString();
+            this.ruleName = alert.getRuleName();
+            this.type = alert.getType().name();
+            this.deviceId = alert.getDeviceId().toHexString();
+            this.deviceName = alert.getDeviceName();
+            this.value = alert.getValue();
+            this.threshold = alert.getThreshold();
+            this.message = alert.getMessage();
+            this.firedAt = alert.getFiredAt();
+        }
+    }
+
+    private Identity getCurrentUser(SecurityContext securityContext) {
+        String email = securityContext.getUserPrincipal().getName();
+        return identities.findByEmail(email)
+                .orElseThrow(() -> new WebApplicationException("User not found", Response.Status.UNAUTHORIZED));
+    }
+
+    @GET
+    @Path("/rules")
+    @Operation(summary = "List alert rules", description = "Alert rules of the current user")
+    public Response getRules(@Context SecurityContext securityContext) {
+        Identity user = getCurrentUser(securityContext);
+        List<AlertRuleResponse> rules = manager.getRules(user.getId()).stream()
+                .map(AlertRuleResponse::new)
+                .toList();
+        return Response.ok(rules).build();
+    }
+
+    @POST
+    @Path("/rules")
+    @Operation(summary = "Create alert rule", description = "SCORE_ABOVE needs threshold and count (consecutive "
+            + "readings), P95_ABOVE threshold and minutes (window), OFFLINE minutes. Rules apply to all the "
+            + "user's devices unless deviceId is set")
+    @APIResponses({
+        @APIResponse(responseCode = "200", description = "Rule created"),
+        @APIResponse(responseCode = "400", description = "Rule limit reached or invalid input"),
+        @APIResponse(responseCode = "403", description = "Device belongs to another user")
+    })
+    public Response createRule(@Context SecurityContext securityContext, AlertRuleRequest req) {
+        Identity user = getCurrentUser(securityContext);
+        try {
+            AlertRule rule = manager.createRule(user.getId(), req.name, req.type, req.deviceId,
+                    req.threshold, req.count, req.minutes);
+            return Response.ok(new AlertRuleResponse(rule)).build();
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+        } catch (SecurityException e) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+    }
+
+    @DELETE
+    @Path("/rules/{id}")
+    @Operation(summary = "Delete alert rule")
+    public Response deleteRule(@Context SecurityContext securityContext, @PathParam("id") String id) {
+        Identity user = getCurrentUser(securityContext);
+        try {
+            manager.deleteRule(user.getId(), id);
+            return Response.noContent().build();
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        } catch (SecurityException e) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+    }
+
+    @GET
+    @Operation(summary = "Recent alerts", description = "Alerts fired for the current user, newest first")
+    public Response getAlerts(@Context SecurityContext securityContext, @QueryParam("limit") Integer limit) {
+        Identity user = getCurrentUser(securityContext);
+        int n = limit == null || limit < 1 ? DEFAULT_ALERT_LIMIT : Math.min(limit, MAX_ALERT_LIMIT);
+        List<AlertResponse> alerts = manager.getRecentAlerts(user.getId(), n).stream()
+                .map(AlertResponse::new)
+                .toList();
+        return Response.ok(alerts).build();
+    }
+}
@@ -1,15 +1,32 @@
 package MachinaEar.devices.boundaries;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import org.bson.types.ObjectId;
 import org.eclipse.microprofile.openapi.annotations.Operation;
 import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
 import org.eclipse.microprofile.openapi.annotations.responses.APIResponses;
 import org.eclipse.microprofile.openapi.annotations.tags.Tag;
 
 import MachinaEar.devices.controllers.managers.DeviceManager;
+import MachinaEar.devices.controllers.repositories.TelemetryRepository;
+import MachinaEar.devices.controllers.services.AnomalyRankingService;
+import MachinaEar.devices.controllers.services.DeviceEtags;
+import MachinaEar.devices.controllers.services.Downsampler;
+import MachinaEar.devices.controllers.services.FleetSummaryService;
+import MachinaEar.devices.controllers.services.HistoryService;
+import MachinaEar.devices.controllers.services.RecentScoreService;
 import MachinaEar.devices.entities.Device;
+import MachinaEar.devices.entities.DeviceEvent;
+import MachinaEar.devices.entities.Incident;
 import MachinaEar.iam.controllers.repositories.IdentityRepository;
 import MachinaEar.iam.entities.Identity;
 import MachinaEar.iam.security.Secured;
@@ -17,15 +34,21 @@ import jakarta.inject.Inject;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.DELETE;
 import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HeaderParam;
 import jakarta.ws.rs.PATCH;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.PUT;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.CacheControl;
 import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.EntityTag;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.SecurityContext;
 
@@ -36,12 +59,38 @@ import jakarta.ws.rs.core.SecurityContext;
 @Secured({"USER", "ADMIN"})
 public class DeviceEndpoint {
 
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
     @Inject
     DeviceManager manager;
 
     @Inject
     IdentityRepository identities;
 
+    @Inject
+    DeviceEtags etags;
+
+    @Inject
+    FleetSummaryService fleetSummary;
+
+    @Inject
+    AnomalyRankingService anomalyRanking;
+
+    @Inject
+    RecentScoreService recentScores;
+
+    @Inject
+    HistoryService history;
+
+    static final int DEFAULT_HISTORY_POINTS = 500;
+    static final int MAX_HISTORY_POINTS = 5000;
+
+    static final int DEFAULT_EVENT_LIMIT = 100;
+    static final int MAX_EVENT_LIMIT = 1000;
+
+    static final int DEFAULT_TOP_K = 10;
+    static final int MAX_TOP_K = 100;
+
     public static class DeviceRequest {
 
         public String name;
@@ -70,21 +119,299 @@ public class DeviceEndpoint {
         public String name;
     }
 
+    public static class FleetSummaryResponse {
+
+        public long total;
+        public long online;
+        public long offline;
+        public Map<String, Long> byStatus;
+        public Map<String, Long> byType;
+
+        public FleetSummaryResponse(FleetSummaryService.FleetSummary summary) {
+            this.total = summary.total();
+            this.online = summary.online();
+            this.offline = summary.offline();
+            this.byStatus = summary.byStatus();
+            this.byType = summary.byType();
+        }
+    }
+
+    public static class RankedDeviceResponse {
+
+        public String id;
+        public String name;
+        public double score;
+        public Instant detectedAt;
+        public boolean online;
+
+        public RankedDeviceResponse(AnomalyRankingService.RankedDevice ranked) {
+            this.id = ranked.id();
+            this.name = ranked.name();
+            this.score = ranked.score();
+            this.detectedAt = ranked.detectedAt();
+            this.online = ranked.online();
+        }
+    }
+
+    public static class RecentScoresResponse {
+
+        public String deviceId;
+        public long[] timestamps; // epoch millis
+        public double[] scores;
+
+        public RecentScoresResponse(String deviceId, long[] timestamps, double[] scores) {
+            this.deviceId = deviceId;
+            this.timestamps = timestamps;
+            this.scores = scores;
+        }
+    }
+
+    public static class HistoryResponse {
+
+        public String deviceId;
+        public Instant from;
+        public Instant to;
+        public String mode;
+        public String resolution; // "raw" or the rollup used, e.g. "1h"
+        public long[] timestamps; // epoch millis
+        public double[] scores;
+
+        public HistoryResponse(String deviceId, Instant from, Instant to, String mode,
+                HistoryService.History history) {
+            this.deviceId = deviceId;
+            this.from = from;
+            this.to = to;
+            this.mode = mode;
+            this.resolution = history.resolution() == null ? "raw" : history.resolution().suffix();
+            this.timestamps = history.series().timestamps();
+            this.scores = history.series().values();
+        }
+    }
+
+    public static class DeviceEventResponse {
+
+        public String type;
+        public String fromStatus;
+        public String toStatus;
+        public Instant timestamp;
+        public Instant until;
+
+        public DeviceEventResponse(DeviceEvent event, Instant until) {
+            this.type = event.getType().name();
+            this.fromStatus = event.getFromStatus();
+            this.toStatus = event.getToStatus();
+            this.timestamp = event.getTimestamp();
+            this.until = until;
+        }
+
+        static List<DeviceEventResponse> of(List<DeviceEvent> events, List<Instant> until) {
+            List<DeviceEventResponse> out = new ArrayList<>(events.size());
+            for (int i = 0; i < events.size(); i++) {
+                out.add(new DeviceEventResponse(events.get(i), until.get(i)));
+            }
+            return out;
+        }
+    }
+
+    public static class IncidentResponse {
+
+        public String id;
+        public String deviceId;
+        public String deviceName;
+        public String status;
+        public Instant openedAt;
+        public Instant lastAbnormalAt;
+        public Instant closedAt;
+        public long abnormalReadings;
+        public long totalReadings;
+        public double meanScore;
+        public double peakScore;
+        public Instant peakAt;
+
+        public IncidentResponse(Incident incident) {
+            this.id = incident.getId() == null ? null : incident.getId().toHexString();
+            this.deviceId = incident.getDeviceId().toHexString();
+            this.deviceName = incident.getDeviceName();
+            this.status = incident.getStatus().name().toLowerCase();
+            this.openedAt = incident.getOpenedAt();
+            this.lastAbnormalAt = incident.getLastAbnormalAt();
+            this.closedAt = incident.getClosedAt();
+            this.abnormalReadings = incident.getAbnormalReadings();
+            this.totalReadings = incident.getTotalReadings();
+            this.meanScore = incident.getAbnormalReadings() == 0 ? 0
+                    : incident.getScoreSum() / incident.getAbnormalReadings();
+            this.peakScore = incident.getPeakScore();
+            this.peakAt = incident.getPeakAt();
+        }
+    }
+
+    public static class VitalsHistoryResponse {
+
+        public String deviceId;
+        public String metric;
+        public Instant from;
+        public Instant to;
+        public String mode;
+        public String resolution; // "raw" or the rollup used, e.g. "1h"
+        public long[] timestamps; // epoch millis
+        public double[] values;
+
+        public VitalsHistoryResponse(String deviceId, String metric, Instant from, Instant to, String mode,
+                HistoryService.History history) {
+            this.deviceId = deviceId;
+            this.metric = metric;
+            this.from = from;
+            this.to = to;
+            this.mode = mode;
+            this.resolution = history.resolution() == null ? "raw" : history.resolution().suffix();
+            this.timestamps = history.series().timestamps();
+            this.values = history.series().values();
+        }
+    }
+
     private Identity getCurrentUser(SecurityContext securityContext) {
         String email = securityContext.getUserPrincipal().getName();
         return identities.findByEmail(email)
                 .orElseThrow(() -> new WebApplicationException("User not found", Response.Status.UNAUTHORIZED));
     }
 
+    private static Response.ResponseBuilder pageResponse(List<?> items, String nextCursor) {
+        Response.ResponseBuilder builder = Response.ok(items);
+        if (nextCursor != null) {
+            builder.header(NEXT_CURSOR_HEADER, nextCursor);
+        }
+        return builder;
+    }
+
+    // Clients may keep the representation but must revalidate it on every use
+    private static CacheControl revalidate() {
+        CacheControl cc = new CacheControl();
+        cc.setPrivate(true);
+        cc.setNoCache(true);
+        return cc;
+    }
+
+    @GET
+    @Operation(summary = "List devices", description = "List the current user's devices, one keyset page at a time. "
+            + "The next page cursor is returned in the X-Next-Cursor header; view=full returns complete devices")
+    @APIResponses({
+        @APIResponse(responseCode = "200", description = "Page of devices"),
+        @APIResponse(responseCode = "400", description = "Invalid cursor or limit")
+    })
+    public Response getDevices(@Context SecurityContext securityContext, @Context Request request,
+            @QueryParam("cursor") String cursor,
+            @QueryParam("limit") Integer limit,
+            @QueryParam("view") String view) {
+        Identity user = getCurrentUser(securityContext);
+        boolean full = "full".equals(view);
+        // Tag is taken before reading so a concurrent write can only make it stale, never wrong
+        EntityTag etag = etags.etag(user.getId(), "list", full ? "full" : "summary", cursor, limit);
+        Response.ResponseBuilder notModified = request.evaluatePreconditions(etag);
+        if (notModified != null) {
+            return notModified.cacheControl(revalidate()).build();
+        }
+        try {
+            DeviceManager.DevicePage page = manager.getDevicePage(user.getId(), cursor, limit, !full);
+            List<?> dtos = full
+                    ? page.devices().stream().map(DeviceDTO::new).collect(Collectors.toList())
+                    : page.devices().stream().map(DeviceSummaryDTO::new).collect(Collectors.toList());
+            return pageResponse(dtos, page.nextCursor()).tag(etag).cacheControl(revalidate()).build();
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+        }
+    }
+
+    @GET
+    @Path("/summary")
+    @Operation(summary = "Fleet summary", description = "Device counts by status, type and online state "
+            + "for the current user, served from in-memory counters")
+    public Response getSummary(@Context SecurityContext securityContext) {
+        Identity user = getCurrentUser(securityContext);
+        return Response.ok(new FleetSummaryResponse(fleetSummary.ownerSummary(user.getId()))).build();
+    }
+
+    @GET
+    @Path("/summary/global")
+    @Secured({"ADMIN"})
+    @Operation(summary = "Global fleet summary", description = "Device counts across all owners")
+    public Response getGlobalSummary() {
+        return Response.ok(new FleetSummaryResponse(fleetSummary.globalSummary())).build();
+    }
+
+    @GET
+    @Path("/incidents")
+    @Operation(summary = "Incidents", description = "Incidents of all the user's devices, most recent first. "
+            + "Filter with status=open or status=closed")
+    public Response getIncidents(@Context SecurityContext securityContext, @QueryParam("status") String status,
+            @QueryParam("limit") Integer limit) {
+        Identity user = getCurrentUser(securityContext);
+        Incident.Status filter;
+        try {
+            filter = status == null ? null : Incident.Status.valueOf(status.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("status must be open or closed").build();
+        }
+        int n = limit == null || limit < 1 ? DEFAULT_EVENT_LIMIT : Math.min(limit, MAX_EVENT_LIMIT);
+        List<IncidentResponse> body = manager.getIncidents(user.getId(), filter, n).stream()
+                .map(IncidentResponse::new)
+                .toList();
+        return Response.ok(body).build();
+    }
+
+    @GET
+    @Path("/top-anomalous")
+    @Operation(summary = "Most anomalous devices", description = "The current user's devices with the highest "
+            + "latest anomaly score, highest first")
+    public Response getTopAnomalous(@Context SecurityContext securityContext, @QueryParam("k") Integer k) {
+        Identity user = getCurrentUser(securityContext);
+        return Response.ok(ranked(anomalyRanking.topForOwner(user.getId(), topK(k)))).build();
+    }
+
+    @GET
+    @Path("/top-anomalous/global")
+    @Secured({"ADMIN"})
+    @Operation(summary = "Most anomalous devices fleet-wide", description = "Devices of all owners with the highest "
+            + "latest anomaly score, highest first")
+    public Response getTopAnomalousGlobal(@QueryParam("k") Integer k) {
+        return Response.ok(ranked(anomalyRanking.topGlobal(topK(k)))).build();
+    }
+
+    private static List<RankedDeviceResponse> ranked(List<AnomalyRankingService.RankedDevice> devices) {
+        return devices.stream().map(RankedDeviceResponse::new).collect(Collectors.toList());
+    }
+
+    private static int topK(Integer k) {
+        if (k == null || k < 1) {
+            return DEFAULT_TOP_K;
+        }
+        return Math.min(k, MAX_TOP_K);
+    }
+
     @GET
-    @Operation(summary = "List devices", description = "List all devices for the current user")
-    public Response getDevices(@Context SecurityContext securityContext) {
+    @Path("/{id}")
+    @Operation(summary = "Get device", description = "Get one of the current user's devices. "
+            + "Supports If-None-Match with the returned ETag")
+    @APIResponses({
+        @APIResponse(responseCode = "200", description = "Device found"),
+        @APIResponse(responseCode = "304", description = "Device unchanged since the given ETag"),
+        @APIResponse(responseCode = "404", description = "Device not found")
+    })
+    public Response getDevice(@Context SecurityContext securityContext, @Context Request request,
+            @PathParam("id") String id) {
         Identity user = getCurrentUser(securityContext);
-        List<Device> devices = manager.getDevices(user.getId());
-        List<DeviceDTO> deviceDTOs = devices.stream()
-                .map(DeviceDTO::new)
-                .collect(Collectors.toList());
-        return Response.ok(deviceDTOs).build();
+        EntityTag etag = etags.etag(user.getId(), "device", id);
+        Response.ResponseBuilder notModified = request.evaluatePreconditions(etag);
+        if (notModified != null) {
+            return notModified.cacheControl(revalidate()).build();
+        }
+        try {
+            Device device = manager.getDevice(user.getId(), id);
+            return Response.ok(new DeviceDTO(device)).tag(etag).cacheControl(revalidate()).build();
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        } catch (SecurityException e) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
     }
 
     @POST
@@ -103,6 +430,216 @@ public class DeviceEndpoint {
         }
     }
 
+    @GET
+    @Path("/{id}/recent")
+    @Operation(summary = "Recent anomaly scores", description = "Scores of the last few minutes, served from memory. "
+            + "Devices that have not reported since startup return empty series")
+    public Response getRecentScores(@Context SecurityContext securityContext, @PathParam("id") String id,
+            @QueryParam("minutes") Integer minutes) {
+        Identity user = getCurrentUser(securityContext);
+        if (!ObjectId.isValid(id)) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        long window = recentScores.windowMillis();
+        long span = minutes == null || minutes < 1 ? window : Math.min(window, minutes * 60_000L);
+        Instant from = Instant.now().minusMillis(span);
+        RecentScoresResponse body = recentScores.recent(new ObjectId(id), user.getId(), from)
+                .map(r -> new RecentScoresResponse(id, r.timestamps(), r.scores()))
+                .orElseGet(() -> new RecentScoresResponse(id, new long[0], new double[0]));
+        return Response.ok(body).build();
+    }
+
+    @GET
+    @Path("/{id}/history")
+    @Operation(summary = "Anomaly score history", description = "Scores between from and to (ISO-8601, default "
+            + "last 24h) downsampled on the server to at most 'points' samples with LTTB, or min/max envelopes "
+            + "with mode=minmax. Long ranges are read from the coarsest rollup that fits")
+    @APIResponses({
+        @APIResponse(responseCode = "200", description = "Downsampled history"),
+        @APIResponse(responseCode = "400", description = "Invalid range or parameters"),
+        @APIResponse(responseCode = "404", description = "Device not found")
+    })
+    public Response getHistory(@Context SecurityContext securityContext, @PathParam("id") String id,
+            @QueryParam("from") String from, @QueryParam("to") String to,
+            @QueryParam("points") Integer points, @QueryParam("mode") String mode) {
+        HistoryRequest req = historyRequest(from, to, points, mode);
+        HistoryService.History result = readHistory(securityContext, id,
+                device -> history.scores(device.getId(), req.from(), req.to(), req.points(), req.mode()));
+        return Response.ok(new HistoryResponse(id, req.from(), req.to(), req.modeName(), result)).build();
+    }
+
+    @GET
+    @Path("/{id}/vitals")
+    @Operation(summary = "Vitals history", description = "Temperature, cpuUsage or memoryUsage between from and to "
+            + "(ISO-8601, default last 24h), downsampled like the anomaly score history")
+    @APIResponses({
+        @APIResponse(responseCode = "200", description = "Downsampled history"),
+        @APIResponse(responseCode = "400", description = "Invalid range, metric or parameters"),
+        @APIResponse(responseCode = "404", description = "Device not found")
+    })
+    public Response getVitalsHistory(@Context SecurityContext securityContext, @PathParam("id") String id,
+            @QueryParam("metric") String metric, @QueryParam("from") String from, @QueryParam("to") String to,
+            @QueryParam("points") Integer points, @QueryParam("mode") String mode) {
+        if (metric == null || TelemetryRepository.SCORE.equals(metric)
+                || !TelemetryRepository.METRIC_SERIES.containsKey(metric)) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity("metric must be temperature, cpuUsage or memoryUsage").build();
+        }
+        HistoryRequest req = historyRequest(from, to, points, mode);
+        HistoryService.History result = readHistory(securityContext, id,
+                device -> history.metric(metric, device.getId(), req.from(), req.to(), req.points(), req.mode()));
+        return Response.ok(new VitalsHistoryResponse(id, metric, req.from(), req.to(), req.modeName(), result))
+                .build();
+    }
+
+    private record HistoryRequest(Instant from, Instant to, int points, Downsampler.Mode mode) {
+
+        String modeName() {
+            return mode.name().toLowerCase();
+        }
+    }
+
+    private static HistoryRequest historyRequest(String from, String to, Integer points, String mode) {
+        Instant end;
+        Instant start;
+        Downsampler.Mode sampling;
+        try {
+            end = to == null ? Instant.now() : Instant.parse(to);
+            start = from == null ? end.minus(Duration.ofDays(1)) : Instant.parse(from);
+            sampling = mode == null ? Downsampler.Mode.LTTB : Downsampler.Mode.valueOf(mode.toUpperCase());
+        } catch (DateTimeParseException | IllegalArgumentException e) {
+            throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Invalid from, to or mode").build());
+        }
+        if (!start.isBefore(end)) {
+            throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("from must be before to").build());
+        }
+        int n = points == null || points < 3 ? DEFAULT_HISTORY_POINTS : Math.min(points, MAX_HISTORY_POINTS);
+        return new HistoryRequest(start, end, n, sampling);
+    }
+
+    private HistoryService.History readHistory(SecurityContext securityContext, String id,
+            Function<Device, HistoryService.History> read) {
+        Identity user = getCurrentUser(securityContext);
+        Device device;
+        try {
+            device = manager.getDevice(user.getId(), id);
+        } catch (IllegalArgumentException e) {
+            throw new WebApplicationException(Response.Status.NOT_FOUND);
+        } catch (SecurityException e) {
+            throw new WebApplicationException(Response.Status.FORBIDDEN);
+        }
+        return read.apply(device);
+    }
+
+    @GET
+    @Path("/{id}/incidents")
+    @Operation(summary = "Device incidents", description = "Incidents of a device, most recent first. An incident "
+            + "groups abnormal readings until a quiet period without any")
+    public Response getDeviceIncidents(@Context SecurityContext securityContext, @PathParam("id") String id,
+            @QueryParam("limit") Integer limit) {
+        Identity user = getCurrentUser(securityContext);
+        int n = limit == null || limit < 1 ? DEFAULT_EVENT_LIMIT : Math.min(limit, MAX_EVENT_LIMIT);
+        try {
+            List<IncidentResponse> body = manager.getDeviceIncidents(user.getId(), id, n).stream()
+                    .map(IncidentResponse::new)
+                    .toList();
+            return Response.ok(body).build();
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        } catch (SecurityException e) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+    }
+
+    @GET
+    @Path("/{id}/events")
+    @Operation(summary = "Device state transitions", description = "Status, online and pairing transitions between "
+            + "from and to (ISO-8601, default all), newest first. Filter with one or more 'type' parameters. "
+            + "'until' is when the state entered by an event was left, null while it still holds")
+    @APIResponses({
+        @APIResponse(responseCode = "200", description = "Transitions"),
+        @APIResponse(responseCode = "400", description = "Invalid range, type or limit"),
+        @APIResponse(responseCode = "404", description = "Device not found")
+    })
+    public Response getEvents(@Context SecurityContext securityContext, @PathParam("id") String id,
+            @QueryParam("from") String from, @QueryParam("to") String to,
+            @QueryParam("type") List<String> types, @QueryParam("limit") Integer limit) {
+        Identity user = getCurrentUser(securityContext);
+        Instant start;
+        Instant end;
+        List<DeviceEvent.Type> filter;
+        try {
+            start = from == null ? Instant.EPOCH : Instant.parse(from);
+            end = to == null ? Instant.now().plusSeconds(1) : Instant.parse(to);
+            filter = types.stream().map(t -> DeviceEvent.Type.valueOf(t.toUpperCase())).toList();
+        } catch (DateTimeParseException | IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("Invalid from, to or type").build();
+        }
+        int n = limit == null || limit < 1 ? DEFAULT_EVENT_LIMIT : Math.min(limit, MAX_EVENT_LIMIT);
+        try {
+            List<DeviceEvent> events = manager.getDeviceEvents(user.getId(), id, start, end, filter, n);
+            return Response.ok(DeviceEventResponse.of(events, manager.getStateEnds(events, filter))).build();
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        } catch (SecurityException e) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+    }
+
+    @GET
+    @Path("/{id}/history/export")
+    @Produces({"text/csv", "application/x-ndjson"})
+    @Operation(summary = "Export anomaly score history", description = "Streams every raw score between from and "
+            + "to (ISO-8601, default whole history) as CSV or NDJSON, gzip-encoded when accepted. To resume an "
+            + "interrupted export pass the last received timestamp as 'after' and the number of rows received "
+            + "with that timestamp as 'skip'; without 'skip', 'after' excludes its whole millisecond")
+    @APIResponses({
+        @APIResponse(responseCode = "200", description = "Export stream"),
+        @APIResponse(responseCode = "400", description = "Invalid range or format"),
+        @APIResponse(responseCode = "404", description = "Device not found")
+    })
+    public Response exportHistory(@Context SecurityContext securityContext, @PathParam("id") String id,
+            @QueryParam("from") String from, @QueryParam("to") String to, @QueryParam("after") String after,
+            @QueryParam("skip") Integer skip, @QueryParam("format") String format, @HeaderParam(HttpHeaders.ACCEPT_ENCODING) String acceptEncoding) {
+        Identity user = getCurrentUser(securityContext);
+        Instant start;
+        Instant end;
+        HistoryExport.Format exportFormat;
+        try {
+            end = to == null ? Instant.now() : Instant.parse(to);
+            if (skip != null && (skip < 0 || after == null)) {
+                throw new IllegalArgumentException("skip needs after");
+            }
+            // Stored timestamps have millisecond precision
+            start = after == null ? (from != null ? Instant.parse(from) : Instant.EPOCH)
+                    : skip != null ? Instant.parse(after).truncatedTo(ChronoUnit.MILLIS)
+                    : Instant.parse(after).truncatedTo(ChronoUnit.MILLIS).plusMillis(1);
+            exportFormat = format == null ? HistoryExport.Format.CSV : HistoryExport.Format.valueOf(format.toUpperCase());
+        } catch (DateTimeParseException | IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).type(MediaType.TEXT_PLAIN)
+                    .entity("Invalid from, to, after, skip or format").build();
+        }
+        try {
+            Device device = manager.getDevice(user.getId(), id);
+            // Encoded here rather than by a container filter, which this deployment does not configure
+            boolean gzip = HistoryExport.acceptsGzip(acceptEncoding);
+            Response.ResponseBuilder builder = Response.ok(new HistoryExport(history, device.getId(), start,
+                    skip == null ? 0 : skip, end, exportFormat, gzip), exportFormat.mediaType)
+                    .header("Content-Disposition", "attachment; filename=\"" + id + "-scores." + exportFormat.extension + "\"")
+                    .header("Vary", HttpHeaders.ACCEPT_ENCODING);
+            if (gzip) {
+                builder.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+            }
+            return builder.build();
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        } catch (SecurityException e) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+    }
+
     @PUT
     @Path("/{id}")
     @Operation(summary = "Update device", description = "Update an existing device")
@@ -162,13 +699,20 @@ public class DeviceEndpoint {
 
     @GET
     @Path("/available")
-    @Operation(summary = "List available devices for pairing", description = "List devices waiting to be paired")
-    public Response getAvailableDevices(@Context SecurityContext securityContext) {
-        List<Device> devices = manager.getAvailableDevices();
-        List<DeviceDTO> deviceDTOs = devices.stream()
-                .map(DeviceDTO::new)
-                .collect(Collectors.toList());
-        return Response.ok(deviceDTOs).build();
+    @Operation(summary = "List available devices for pairing", description = "List devices waiting to be paired, "
+            + "one keyset page at a time. The next page cursor is returned in the X-Next-Cursor header")
+    public Response getAvailableDevices(@Context SecurityContext securityContext,
+            @QueryParam("cursor") String cursor,
+            @QueryParam("limit") Integer limit) {
+        try {
+            DeviceManager.DevicePage page = manager.getAvailableDevicePage(cursor, limit);
+            List<PendingDeviceDTO> dtos = page.devices().stream()
+                    .map(PendingDeviceDTO::new)
+                    .collect(Collectors.toList());
+            return pageResponse(dtos, page.nextCursor()).build();
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+        }
     }
 
     @POST
@@ -0,0 +1,119 @@
+package MachinaEar.devices.boundaries;
+
+import java.time.Instant;
+
+import MachinaEar.devices.entities.Device;
+
+/**
+ * Lightweight projection of a Device for list views (no tokens or pairing codes)
+ */
+public class DeviceSummaryDTO {
+
+    private String id;
+    private String name;
+    private String type;
+    private String status;
+    private Boolean isOnline;
+    private Boolean isPaired;
+    private Double anomalyScore;
+    private Instant lastHeartbeat;
+    private String lastError;
+    private Instant updatedAt;
+
+    public DeviceSummaryDTO() {
+    }
+
+    public DeviceSummaryDTO(Device device) {
+        this.id = device.getId() != null ? device.getId().toHexString() : null;
+        this.name = device.getName();
+        this.type = device.getType();
+        this.status = device.getStatus();
+        this.isOnline = device.getIsOnline();
+        this.isPaired = device.getIsPaired();
+        this.anomalyScore = device.getAnomalyScore();
+        this.lastHeartbeat = device.getLastHeartbeat();
+        this.lastError = device.getLastError();
+        this.updatedAt = device.getUpdatedAt();
+    }
+
+    // Getters and setters
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public Boolean getIsOnline() {
+        return isOnline;
+    }
+
+    public void setIsOnline(Boolean isOnline) {
+        this.isOnline = isOnline;
+    }
+
+    public Boolean getIsPaired() {
+        return isPaired;
+    }
+
+    public void setIsPaired(Boolean isPaired) {
+        this.isPaired = isPaired;
+    }
+
+    public Double getAnomalyScore() {
+        return anomalyScore;
+    }
+
+    public void setAnomalyScore(Double anomalyScore) {
+        this.anomalyScore = anomalyScore;
+    }
+
+    public Instant getLastHeartbeat() {
+        return lastHeartbeat;
+    }
+
+    public void setLastHeartbeat(Instant lastHeartbeat) {
+        this.lastHeartbeat = lastHeartbeat;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Instant updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
@@ -0,0 +1,141 @@
+package MachinaEar.devices.boundaries;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.zip.GZIPOutputStream;
+
+import org.bson.types.ObjectId;
+
+import MachinaEar.devices.controllers.services.HistoryService;
+import jakarta.ws.rs.core.StreamingOutput;
+
+/**
+ * Writes raw score history as CSV or NDJSON while the Mongo cursor is read,
+ * so memory use does not depend on the number of rows. Each row carries its
+ * timestamp; a client resumes an interrupted export from the last one it
+ * received and the number of rows it got with that timestamp. Rows sharing a
+ * millisecond come back in (deviceId, t) index order, which is the same on
+ * every request, so skipping that many of them resumes exactly after the last
+ * row received.
+ */
+class HistoryExport implements StreamingOutput {
+
+    enum Format {
+        CSV("text/csv", "csv"),
+        NDJSON("application/x-ndjson", "ndjson");
+
+        final String mediaType;
+        final String extension;
+
+        Format(String mediaType, String extension) {
+            this.mediaType = mediaType;
+            this.extension = extension;
+        }
+    }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final HistoryService history;
+    private final ObjectId deviceId;
+    private final Instant from;
+    private final Instant to;
+    private final int skip;
+    private final Format format;
+    private final boolean gzip;
+    private int skipped;
+
+    /**
+     * @param skip rows to drop at the 'from' timestamp, already received by the client
+     */
+    HistoryExport(HistoryService history, ObjectId deviceId, Instant from, int skip, Instant to, Format format,
+            boolean gzip) {
+        this.history = history;
+        this.deviceId = deviceId;
+        this.from = from;
+        this.skip = skip;
+        this.to = to;
+        this.format = format;
+        this.gzip = gzip;
+    }
+
+    /**
+     * Whether an Accept-Encoding header allows gzip: listed with a non-zero
+     * q-value, or not listed and covered by a non-zero '*'.
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        Double gzipQ = null;
+        Double anyQ = null;
+        for (String element : acceptEncoding.split(",")) {
+            String[] parts = element.split(";");
+            String coding = parts[0].trim().toLowerCase();
+            double q = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim().toLowerCase();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            if (coding.equals("gzip") || coding.equals("x-gzip")) {
+                gzipQ = q;
+            } else if (coding.equals("*")) {
+                anyQ = q;
+            }
+        }
+        return gzipQ != null ? gzipQ > 0 : anyQ != null && anyQ > 0;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+        OutputStream out = gzip ? new GZIPOutputStream(output, BUFFER_SIZE) : output;
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+        if (format == Format.CSV) {
+            writer.write("timestamp,score\n");
+        }
+        long resumeAt = from.toEpochMilli();
+        try {
+            history.scanRaw(deviceId, from, to, (t, score) -> {
+                if (t == resumeAt && skipped < skip) {
+                    skipped++;
+                    return;
+                }
+                try {
+                    String ts = Instant.ofEpochMilli(t).toString();
+                    if (format == Format.CSV) {
+                        writer.write(ts);
+                        writer.write(',');
+                        writer.write(Double.toString(score));
+                        writer.write('\n');
+                    } else {
+                        writer.write("{\"t\":\"");
+                        writer.write(ts);
+                        writer.write("\",\"score\":");
+                        writer.write(Double.isFinite(score) ? Double.toString(score) : "null");
+                        writer.write("}\n");
+                    }
+                } catch (IOException e) {
+                    // Client went away; unwinding closes the Mongo cursor
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        writer.flush();
+        if (gzip) {
+            ((GZIPOutputStream) out).finish();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package MachinaEar.devices.boundaries;
+
+import java.time.Instant;
+
+import MachinaEar.devices.entities.Device;
+
+/**
+ * Projection of a Device waiting to be paired, as shown in the pairing list
+ */
+public class PendingDeviceDTO {
+
+    private String id;
+    private String name;
+    private String mac;
+    private String pairingCode;
+    private Instant expiresAt;
+
+    public PendingDeviceDTO() {
+    }
+
+    public PendingDeviceDTO(Device device) {
+        this.id = device.getId() != null ? device.getId().toHexString() : null;
+        this.name = device.getName();
+        this.mac = device.getMac();
+        this.pairingCode = device.getPairingCode();
+        this.expiresAt = device.getExpiresAt();
+    }
+
+    // Getters and setters
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getMac() {
+        return mac;
+    }
+
+    public void setMac(String mac) {
+        this.mac = mac;
+    }
+
+    public String getPairingCode() {
+        return pairingCode;
+    }
+
+    public void setPairingCode(String pairingCode) {
+        this.pairingCode = pairingCode;
+    }
+
+    public Instant getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(Instant expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+}
@@ -0,0 +1,106 @@
+package MachinaEar.devices.controllers.managers;
+
+import java.util.List;
+
+import org.bson.types.ObjectId;
+
+import MachinaEar.devices.controllers.repositories.AlertRepository;
+import MachinaEar.devices.controllers.repositories.AlertRuleRepository;
+import MachinaEar.devices.controllers.services.AlertEngine;
+import MachinaEar.devices.entities.Alert;
+import MachinaEar.devices.entities.AlertRule;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+@ApplicationScoped
+public class AlertManager {
+
+    public static final int MAX_RULES = 20;
+    public static final int MAX_WINDOW_MINUTES = 24 * 60;
+
+    @Inject
+    AlertRuleRepository rules;
+
+    @Inject
+    AlertRepository alerts;
+
+    @Inject
+    DeviceManager devices;
+
+    @Inject
+    AlertEngine engine;
+
+    public List<AlertRule> getRules(ObjectId identityId) {
+        return rules.findByIdentityId(identityId);
+    }
+
+    public AlertRule createRule(ObjectId identityId, String name, String type, String deviceId,
+            Double threshold, Integer count, Integer minutes) {
+        if (rules.countByIdentityId(identityId) >= MAX_RULES) {
+            throw new IllegalArgumentException("Maximum number of alert rules (" + MAX_RULES + ") reached.");
+        }
+        AlertRule rule = new AlertRule();
+        rule.setIdentityId(identityId);
+        rule.setName(name == null || name.isBlank() ? type : name);
+        try {
+            rule.setType(AlertRule.Type.valueOf(type == null ? "" : type.toUpperCase()));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("type must be SCORE_ABOVE, P95_ABOVE or OFFLINE");
+        }
+        if (deviceId != null) {
+            // Throws if the device is missing or belongs to someone else
+            rule.setDeviceId(devices.getDevice(identityId, deviceId).getId());
+        }
+        switch (rule.getType()) {
+            case SCORE_ABOVE -> {
+                requireThreshold(threshold);
+                if (count == null || count < 1 || count > 10_000) {
+                    throw new IllegalArgumentException("count must be between 1 and 10000");
+                }
+                rule.setThreshold(threshold);
+                rule.setCount(count);
+            }
+            case P95_ABOVE -> {
+                requireThreshold(threshold);
+                requireMinutes(minutes);
+                rule.setThreshold(threshold);
+                rule.setMinutes(minutes);
+            }
+            case OFFLINE -> {
+                requireMinutes(minutes);
+                rule.setMinutes(minutes);
+            }
+        }
+        rules.create(rule);
+        engine.reload(identityId);
+        return rule;
+    }
+
+    public void deleteRule(ObjectId identityId, String ruleId) {
+        AlertRule rule = rules.findById(ruleId)
+                .orElseThrow(() -> new IllegalArgumentException("Alert rule not found"));
+
+        if (!rule.getIdentityId().equals(identityId)) {
+            throw new SecurityException("Unauthorized access to alert rule");
+        }
+
+        rules.delete(rule);
+        engine.reload(identityId);
+    }
+
+    public List<Alert> getRecentAlerts(ObjectId identityId, int limit) {
+        return alerts.findRecent(identityId, limit);
+    }
+
+    private static void requireThreshold(Double threshold) {
+        if (threshold == null || threshold.isNaN() || threshold.isInfinite()) {
+            throw new IllegalArgumentException("threshold is required");
+        }
+    }
+
+    private static void requireMinutes(Integer minutes) {
+        if (minutes == null || minutes < 1 || minutes > MAX_WINDOW_MINUTES) {
+            throw new IllegalArgumentException("minutes must be between 1 and " + MAX_WINDOW_MINUTES);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package MachinaEar.devices.controllers.managers;
+
+import MachinaEar.devices.entities.Device;
+
+/**
+ * Fired synchronously by {@link DeviceManager} after a device was written,
+ * with the state that was stored, or after it was deleted. Services keeping
+ * derived state (counters, rankings, transition log, alert and incident
+ * tracking, caches) observe it instead of being called by the repository.
+ */
+public record DeviceChanged(Device device, boolean deleted) {
+
+    public static DeviceChanged saved(Device device) {
+        return new DeviceChanged(device, false);
+    }
+
+    public static DeviceChanged deleted(Device device) {
+        return new DeviceChanged(device, true);
+    }
+}
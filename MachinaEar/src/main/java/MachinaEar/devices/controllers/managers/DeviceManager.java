@@ -2,8 +2,14 @@ package MachinaEar.devices.controllers.managers;
 
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.UUID;
 
 import org.bson.types.ObjectId;
@@ -16,21 +22,122 @@ import com.nimbusds.jose.crypto.MACSigner;
 import com.nimbusds.jwt.JWTClaimsSet;
 import com.nimbusds.jwt.SignedJWT;
 
+import MachinaEar.devices.controllers.repositories.DeviceEventRepository;
 import MachinaEar.devices.controllers.repositories.DeviceRepository;
+import MachinaEar.devices.controllers.repositories.IncidentRepository;
+import MachinaEar.devices.controllers.services.TelemetryService;
 import MachinaEar.devices.entities.Device;
+import MachinaEar.devices.entities.DeviceEvent;
+import MachinaEar.devices.entities.Incident;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
 import jakarta.inject.Inject;
 
 @ApplicationScoped
 public class DeviceManager {
 
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    public static final int MAX_PAGE_SIZE = 200;
+
     @Inject
     DeviceRepository devices;
 
+    @Inject
+    TelemetryService telemetry;
+
+    @Inject
+    DeviceEventRepository deviceEvents;
+
+    @Inject
+    IncidentRepository incidents;
+
+    @Inject
+    Event<DeviceChanged> changes;
+
     public List<Device> getDevices(ObjectId identityId) {
         return devices.findByIdentityId(identityId);
     }
 
+    /**
+     * Returns one keyset page of the owner's devices. The cursor is the hex id of the
+     * last device of the previous page; summary pages only read the list view fields.
+     */
+    public DevicePage getDevicePage(ObjectId identityId, String cursor, Integer limit, boolean summary) {
+        int size = pageSize(limit);
+        List<Device> rows = devices.findPageByIdentityId(identityId, parseCursor(cursor), size + 1,
+                summary ? DeviceRepository.SUMMARY_PROJECTION : null);
+        return toPage(rows, size);
+    }
+
+    public Device getDevice(ObjectId identityId, String deviceId) {
+        Device device = devices.findById(deviceId)
+                .orElseThrow(() -> new IllegalArgumentException("Device not found"));
+
+        if (!identityId.equals(device.getIdentityId())) {
+            throw new SecurityException("Unauthorized access to device");
+        }
+        return device;
+    }
+
+    /**
+     * State transitions of one of the owner's devices in [from, to), newest first.
+     */
+    public List<DeviceEvent> getDeviceEvents(ObjectId identityId, String deviceId, Instant from, Instant to,
+            List<DeviceEvent.Type> types, int limit) {
+        Device device = getDevice(identityId, deviceId);
+        return deviceEvents.findByDevice(device.getId(), from, to, types, limit);
+    }
+
+    /**
+     * When the state entered by each event of a page was left, or null while
+     * it still holds. The page holds one device's events, newest first, as
+     * returned for the type filter. Transitions inside the page are found in
+     * the page itself, or in one range query for the kinds the filter only
+     * partly covers; the rest takes one lookup per kind past the newest event.
+     */
+    public List<Instant> getStateEnds(List<DeviceEvent> events, List<DeviceEvent.Type> filter) {
+        if (events.isEmpty()) {
+            return List.of();
+        }
+        ObjectId deviceId = events.get(0).getDeviceId();
+        Instant newest = events.get(0).getTimestamp();
+        Instant oldest = events.get(events.size() - 1).getTimestamp();
+        Map<List<DeviceEvent.Type>, TreeSet<Instant>> times = new HashMap<>();
+        Set<DeviceEvent.Type> partial = EnumSet.noneOf(DeviceEvent.Type.class);
+        for (DeviceEvent e : events) {
+            List<DeviceEvent.Type> kind = e.getType().kind();
+            times.computeIfAbsent(kind, k -> new TreeSet<>()).add(e.getTimestamp());
+            if (!filter.isEmpty() && !filter.containsAll(kind)) {
+                partial.addAll(kind);
+            }
+        }
+        if (!partial.isEmpty()) {
+            for (DeviceEvent e : deviceEvents.findBetween(deviceId, oldest, newest, List.copyOf(partial))) {
+                times.get(e.getType().kind()).add(e.getTimestamp());
+            }
+        }
+        times.forEach((kind, t) -> {
+            DeviceEvent next = deviceEvents.findNext(deviceId, newest, kind);
+            if (next != null) {
+                t.add(next.getTimestamp());
+            }
+        });
+        List<Instant> ends = new ArrayList<>(events.size());
+        for (DeviceEvent e : events) {
+            ends.add(times.get(e.getType().kind()).higher(e.getTimestamp()));
+        }
+        return ends;
+    }
+
+    public List<Incident> getDeviceIncidents(ObjectId identityId, String deviceId, int limit) {
+        Device device = getDevice(identityId, deviceId);
+        return incidents.findByDevice(device.getId(), limit);
+    }
+
+    public List<Incident> getIncidents(ObjectId identityId, Incident.Status status, int limit) {
+        return incidents.findByIdentityId(identityId, status, limit);
+    }
+
     public Device addDevice(ObjectId identityId, String name, String type) {
         if (devices.countByIdentityId(identityId) >= 5) {
             throw new IllegalArgumentException("Maximum number of devices (5) reached.");
@@ -46,7 +153,7 @@ public class DeviceManager {
         device.setMemoryUsage(0.0);
         device.setTemperature(0.0);
 
-        return devices.create(device);
+        return create(device);
     }
 
     public Device updateDevice(ObjectId identityId, String deviceId, String name, String type) {
@@ -61,7 +168,7 @@ public class DeviceManager {
         device.setType(type);
         device.touch(); // Update timestamp
 
-        devices.update(device);
+        save(device);
         return device;
     }
 
@@ -73,7 +180,8 @@ public class DeviceManager {
             throw new SecurityException("Unauthorized access to device");
         }
 
-        devices.delete(device.getId());
+        devices.delete(device);
+        changes.fire(DeviceChanged.deleted(device));
     }
 
     public Device updateDeviceStatus(ObjectId identityId, String deviceId, String status,
@@ -100,10 +208,13 @@ public class DeviceManager {
         if (lastError != null) {
             device.setLastError(lastError);
         }
-        device.setLastHeartbeat(java.time.Instant.now());
+        Instant now = Instant.now();
+        device.setLastHeartbeat(now);
         device.touch(); // Update timestamp
 
-        devices.update(device);
+        devices.updateStatus(device);
+        changes.fire(DeviceChanged.saved(device));
+        telemetry.recordVitals(device, now, temperature, cpuUsage, memoryUsage);
         return device;
     }
 
@@ -115,7 +226,7 @@ public class DeviceManager {
             // Update pairing code and expiration
             device.setPairingCode(pairingCode);
             device.setExpiresAt(Instant.now().plus(5, ChronoUnit.MINUTES));
-            devices.update(device);
+            save(device);
             return device;
         }
 
@@ -131,16 +242,47 @@ public class DeviceManager {
         device.setExpiresAt(Instant.now().plus(5, ChronoUnit.MINUTES));
         device.setLastHeartbeat(Instant.now());
 
-        return devices.create(device);
+        return create(device);
     }
 
-    public List<Device> getAvailableDevices() {
-        List<Device> pending = devices.findPendingPairing();
-        // Filter out expired devices
-        Instant now = Instant.now();
-        return pending.stream()
-                .filter(d -> d.getExpiresAt() != null && d.getExpiresAt().isAfter(now))
-                .toList();
+    /**
+     * Keyset page of unexpired pending devices, reading only the pairing fields.
+     * Expired entries are filtered by Mongo instead of in memory.
+     */
+    public DevicePage getAvailableDevicePage(String cursor, Integer limit) {
+        int size = pageSize(limit);
+        List<Device> rows = devices.findPendingPairingPage(Instant.now(), parseCursor(cursor), size + 1,
+                DeviceRepository.PENDING_PROJECTION);
+        return toPage(rows, size);
+    }
+
+    private static int pageSize(Integer limit) {
+        if (limit == null) {
+            return DEFAULT_PAGE_SIZE;
+        }
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        return Math.min(limit, MAX_PAGE_SIZE);
+    }
+
+    private static ObjectId parseCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        if (!ObjectId.isValid(cursor)) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        return new ObjectId(cursor);
+    }
+
+    // One extra row is read to know whether another page follows
+    private static DevicePage toPage(List<Device> rows, int size) {
+        if (rows.size() <= size) {
+            return new DevicePage(rows, null);
+        }
+        List<Device> page = rows.subList(0, size);
+        return new DevicePage(page, page.get(size - 1).getId().toHexString());
     }
 
     public Device pairDevice(ObjectId identityId, String pairingCode, String name) {
@@ -161,6 +303,7 @@ public class DeviceManager {
         String deviceToken = generateDeviceToken(device.getId().toHexString(), device.getMac());
 
         // Update device
+        ObjectId previousOwner = device.getIdentityId();
         device.setIdentityId(identityId);
         device.setName(name);
         device.setDeviceToken(deviceToken);
@@ -170,7 +313,10 @@ public class DeviceManager {
         device.setLastHeartbeat(Instant.now());  // Set initial heartbeat
         device.touch();
 
-        devices.update(device);
+        save(device);
+        if (previousOwner != null && !previousOwner.equals(identityId)) {
+            devices.bumpVersion(previousOwner); // re-paired device left the previous owner's list
+        }
         return device;
     }
 
@@ -191,14 +337,46 @@ public class DeviceManager {
         if (status != null) {
             device.setStatus(status);
         }
+        Instant now = Instant.now();
         if (anomalyScore != null) {
             device.setAnomalyScore(anomalyScore);
         }
         device.setIsOnline(true);  // Mark device as online when it sends status
-        device.setLastHeartbeat(Instant.now());
+        device.setLastHeartbeat(now);
         device.touch();
 
+        save(device);
+        if (anomalyScore != null) {
+            telemetry.recordScore(device, now, anomalyScore);
+        }
+        return device;
+    }
+
+    /**
+     * Stores a device modified by the caller and notifies the observers of
+     * {@link DeviceChanged}.
+     */
+    public void save(Device device) {
         devices.update(device);
+        changes.fire(DeviceChanged.saved(device));
+    }
+
+    /**
+     * Switches a device offline unless a heartbeat arrived since the cutoff.
+     *
+     * @return true if the device went offline
+     */
+    public boolean markOffline(Device device, Instant cutoff) {
+        if (!devices.markOffline(device, cutoff)) {
+            return false;
+        }
+        changes.fire(DeviceChanged.saved(device));
+        return true;
+    }
+
+    private Device create(Device device) {
+        devices.create(device);
+        changes.fire(DeviceChanged.saved(device));
         return device;
     }
 
@@ -232,4 +410,6 @@ public class DeviceManager {
             throw new RuntimeException("Failed to generate device token", e);
         }
     }
+
+    public static record DevicePage(List<Device> devices, String nextCursor) {}
 }
@@ -0,0 +1,214 @@
+package MachinaEar.devices.controllers.repositories;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.PushOptions;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOptions;
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.exists;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Filters.lte;
+import static com.mongodb.client.model.Filters.or;
+import static com.mongodb.client.model.Updates.combine;
+import static com.mongodb.client.model.Updates.pushEach;
+import static com.mongodb.client.model.Updates.set;
+
+import MachinaEar.devices.entities.Alert;
+import MachinaEar.devices.entities.AlertRule;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+/**
+ * Fired alerts, at most one per rule, device and window, plus per-owner
+ * digest state in alert_digests: the times of the owner's recent digests and
+ * a lease so one node builds each digest.
+ * An alert is pending until a digest listing or counting it reached the
+ * outbox, recorded in its notifiedAt. One still pending past the digest
+ * horizon is dropped: notifiedAt and droppedAt are both set.
+ */
+@ApplicationScoped
+public class AlertRepository {
+
+    private MongoCollection<Alert> col;
+    private MongoCollection<Document> digests;
+
+    public AlertRepository() {
+    }
+
+    @Inject
+    public AlertRepository(MongoDatabase db) {
+        this.col = db.getCollection("alerts", Alert.class);
+        this.col.createIndex(Indexes.ascending("identityId", "firedAt"));
+        this.col.createIndex(Indexes.ascending("notifiedAt", "firedAt"));
+        // Alerts stored before windows existed are left out
+        this.col.createIndex(Indexes.ascending("ruleId", "deviceId", "window"),
+                new IndexOptions().unique(true).partialFilterExpression(exists("window")));
+        this.digests = db.getCollection("alert_digests");
+    }
+
+    /**
+     * Stores an alert unless the same rule already fired for the device in
+     * the same window, e.g. on another node.
+     *
+     * @return false if it was a duplicate
+     */
+    public boolean create(Alert alert) {
+        try {
+            col.insertOne(alert);
+            return true;
+        } catch (MongoWriteException e) {
+            if (e.getError().getCategory() == ErrorCategory.DUPLICATE_KEY) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Most recent alerts of an owner, newest first.
+     */
+    public List<Alert> findRecent(ObjectId identityId, int limit) {
+        return col.find(eq("identityId", identityId))
+                .sort(Sorts.descending("firedAt"))
+                .limit(limit)
+                .into(new ArrayList<>());
+    }
+
+    /**
+     * Rules of the given type that fired for a device since 'from'.
+     */
+    public List<ObjectId> findFiredRuleIds(ObjectId identityId, ObjectId deviceId, AlertRule.Type type,
+            Instant from) {
+        return col.distinct("ruleId", and(eq("identityId", identityId), gte("firedAt", from),
+                eq("deviceId", deviceId), eq("type", type.name())), ObjectId.class).into(new ArrayList<>());
+    }
+
+    private static Bson pending(Instant from, Instant to) {
+        return and(eq("notifiedAt", null), gte("firedAt", from), lt("firedAt", to));
+    }
+
+    /**
+     * Owners with alerts pending in [from, to) whose oldest pending alert fired before 'dueBefore'.
+     */
+    public List<ObjectId> findOwnersWithPending(Instant from, Instant to, Instant dueBefore) {
+        List<ObjectId> owners = new ArrayList<>();
+        col.aggregate(List.of(
+                Aggregates.match(pending(from, to)),
+                Aggregates.group("$identityId", Accumulators.min("first", "$firedAt")),
+                Aggregates.match(lte("first", Date.from(dueBefore)))), Document.class)
+                .forEach(d -> owners.add(d.getObjectId("_id")));
+        return owners;
+    }
+
+    /**
+     * Ids of an owner's alerts pending in [from, to), oldest first.
+     */
+    public List<ObjectId> findPendingIds(ObjectId identityId, Instant from, Instant to) {
+        List<ObjectId> ids = new ArrayList<>();
+        col.find(and(eq("identityId", identityId), pending(from, to)), Document.class)
+                .projection(Projections.include("_id"))
+                .sort(Sorts.ascending("firedAt"))
+                .forEach(d -> ids.add(d.getObjectId("_id")));
+        return ids;
+    }
+
+    /**
+     * The given alerts, oldest first.
+     */
+    public List<Alert> findByIds(List<ObjectId> ids) {
+        return col.find(in("_id", ids))
+                .sort(Sorts.ascending("firedAt"))
+                .into(new ArrayList<>());
+    }
+
+    public void markNotified(ObjectId identityId, Instant from, Instant to, Instant at) {
+        col.updateMany(and(eq("identityId", identityId), pending(from, to)), set("notifiedAt", at));
+    }
+
+    /**
+     * Marks exactly the given alerts notified, if still pending.
+     */
+    public void markNotified(List<ObjectId> ids, Instant at) {
+        col.updateMany(and(in("_id", ids), eq("notifiedAt", null)), set("notifiedAt", at));
+    }
+
+    /**
+     * Drops the alerts still pending that fired before 'before'.
+     *
+     * @return how many were dropped
+     */
+    public long dropPendingBefore(Instant before, Instant at) {
+        return col.updateMany(and(eq("notifiedAt", null), lt("firedAt", before)),
+                combine(set("notifiedAt", at), set("droppedAt", at))).getModifiedCount();
+    }
+
+    /**
+     * Takes or extends the lease on an owner's digest.
+     *
+     * @return false if another node holds an unexpired lease
+     */
+    public boolean acquireDigestLease(ObjectId identityId, String owner, Instant until) {
+        Date now = new Date();
+        try {
+            digests.updateOne(and(eq("_id", identityId), or(eq("owner", owner), lt("leaseUntil", now))),
+                    combine(set("owner", owner), set("leaseUntil", Date.from(until))),
+                    new UpdateOptions().upsert(true));
+            return true;
+        } catch (MongoWriteException e) {
+            // The upsert collided with the lease of another node
+            if (e.getError().getCategory() == ErrorCategory.DUPLICATE_KEY) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    public void releaseDigestLease(ObjectId identityId, String owner) {
+        digests.updateOne(and(eq("_id", identityId), eq("owner", owner)), set("leaseUntil", new Date()));
+    }
+
+    /**
+     * Times of the owner's digests since 'from', oldest first.
+     */
+    public List<Instant> findDigestTimes(ObjectId identityId, Instant from) {
+        Document d = digests.find(eq("_id", identityId)).first();
+        List<Instant> times = new ArrayList<>();
+        if (d != null && d.getList("sent", Date.class) != null) {
+            for (Date t : d.getList("sent", Date.class)) {
+                if (!t.toInstant().isBefore(from)) {
+                    times.add(t.toInstant());
+                }
+            }
+        }
+        return times;
+    }
+
+    /**
+     * Records a digest, keeping only the last 'keep' times.
+     */
+    public void recordDigest(ObjectId identityId, Instant at, int keep) {
+        digests.updateOne(eq("_id", identityId),
+                pushEach("sent", List.of(Date.from(at)), new PushOptions().slice(-keep)),
+                new UpdateOptions().upsert(true));
+    }
+}
@@ -0,0 +1,88 @@
+package MachinaEar.devices.controllers.repositories;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.UpdateOptions;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Updates.inc;
+
+import MachinaEar.devices.entities.AlertRule;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+@ApplicationScoped
+public class AlertRuleRepository {
+
+    private MongoCollection<AlertRule> col;
+    private MongoCollection<Document> versions;
+
+    public AlertRuleRepository() {
+    }
+
+    @Inject
+    public AlertRuleRepository(MongoDatabase db) {
+        this.col = db.getCollection("alert_rules", AlertRule.class);
+        this.col.createIndex(Indexes.ascending("identityId"));
+        this.versions = db.getCollection("alert_rule_versions");
+    }
+
+    public List<AlertRule> findByIdentityId(ObjectId identityId) {
+        return col.find(eq("identityId", identityId)).into(new ArrayList<>());
+    }
+
+    public long countByIdentityId(ObjectId identityId) {
+        return col.countDocuments(eq("identityId", identityId));
+    }
+
+    public Optional<AlertRule> findById(String idHex) {
+        if (!ObjectId.isValid(idHex)) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(col.find(eq("_id", new ObjectId(idHex))).first());
+    }
+
+    // Every write bumps the owner's version after it, so a node reading the new version sees the change
+
+    public AlertRule create(AlertRule rule) {
+        col.insertOne(rule);
+        bumpVersion(rule.getIdentityId());
+        return rule;
+    }
+
+    public void delete(AlertRule rule) {
+        col.deleteOne(eq("_id", rule.getId()));
+        bumpVersion(rule.getIdentityId());
+    }
+
+    /**
+     * Change counters of the given owners' rules, shared by all nodes. Owners
+     * whose rules never changed are missing from the result.
+     */
+    public Map<ObjectId, Long> versions(Collection<ObjectId> identityIds) {
+        Map<ObjectId, Long> out = new HashMap<>();
+        for (Document d : versions.find(in("_id", identityIds))) {
+            out.put(d.getObjectId("_id"), d.get("version", Number.class).longValue());
+        }
+        return out;
+    }
+
+    public long version(ObjectId identityId) {
+        return versions(List.of(identityId)).getOrDefault(identityId, 0L);
+    }
+
+    private void bumpVersion(ObjectId identityId) {
+        versions.updateOne(eq("_id", identityId), inc("version", 1L), new UpdateOptions().upsert(true));
+    }
+}
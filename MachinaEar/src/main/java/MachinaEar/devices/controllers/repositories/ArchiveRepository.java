@@ -0,0 +1,236 @@
+package MachinaEar.devices.controllers.repositories;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOptions;
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Filters.lte;
+import static com.mongodb.client.model.Filters.ne;
+import static com.mongodb.client.model.Filters.or;
+import static com.mongodb.client.model.Updates.combine;
+import static com.mongodb.client.model.Updates.max;
+import static com.mongodb.client.model.Updates.set;
+
+import MachinaEar.devices.controllers.services.SampleSink;
+import MachinaEar.devices.controllers.services.SegmentFile;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+/**
+ * Cold tier of the telemetry series: one immutable segment file per series,
+ * device and UTC day under ARCHIVE_DIR, so old readings leave Mongo. With
+ * several nodes, ARCHIVE_DIR must be a volume they all mount (e.g. NFS):
+ * the node holding the archiving lease writes and every node reads.
+ *
+ * archive_segments records the current file of each day. A day rewritten to
+ * take in late readings gets a file of its own, and the one it replaces is
+ * deleted REPLACED_RETENTION later, so no node is reading or still mapping
+ * it by then. Files are memory-mapped; the OPEN_SEGMENTS most recently used
+ * stay mapped.
+ *
+ * The horizon of a series, stored in archive_watermarks, is the end of the
+ * last archived day: readings before it live in segments, except late ones
+ * not merged in yet. The same collection holds the lease that lets a single
+ * node archive at a time.
+ */
+@ApplicationScoped
+public class ArchiveRepository {
+
+    private static final Logger LOGGER = Logger.getLogger(ArchiveRepository.class.getName());
+
+    private static final Path ROOT = Path.of(System.getenv().getOrDefault("ARCHIVE_DIR", "archive"));
+    private static final String SUFFIX = ".seg";
+    private static final String LEASE_ID = "lease";
+    private static final int OPEN_SEGMENTS = 256;
+    private static final Duration REPLACED_RETENTION = Duration.ofDays(1);
+
+    private MongoCollection<Document> watermarks;
+    private MongoCollection<Document> segments;
+
+    // File names are never reused, so a mapped segment is never stale
+    private final LinkedHashMap<String, SegmentFile> open = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SegmentFile> eldest) {
+            return size() > OPEN_SEGMENTS;
+        }
+    };
+
+    public ArchiveRepository() {
+    }
+
+    @Inject
+    public ArchiveRepository(MongoDatabase db) {
+        this.watermarks = db.getCollection("archive_watermarks");
+        this.segments = db.getCollection("archive_segments");
+        this.segments.createIndex(Indexes.ascending("series", "deviceId", "day"));
+        this.segments.createIndex(Indexes.ascending("replacedAt"), new IndexOptions().sparse(true));
+    }
+
+    /**
+     * End of the archived part of a series, or null if nothing is archived.
+     * Read from Mongo on every call, since any node may move it.
+     */
+    public Instant horizon(String series) {
+        Document d = watermarks.find(eq("_id", series)).first();
+        return d == null ? null : d.getDate("upTo").toInstant();
+    }
+
+    public void advanceHorizon(String series, Instant upTo) {
+        watermarks.updateOne(eq("_id", series), max("upTo", Date.from(upTo)), new UpdateOptions().upsert(true));
+    }
+
+    /**
+     * Takes or extends the archiving lease for the given owner.
+     *
+     * @return false if another owner holds an unexpired lease
+     */
+    public boolean acquireLease(String owner, Duration duration) {
+        Instant now = Instant.now();
+        try {
+            watermarks.updateOne(
+                    and(eq("_id", LEASE_ID), or(eq("owner", owner), lt("leaseUntil", Date.from(now)))),
+                    combine(set("owner", owner), set("leaseUntil", Date.from(now.plus(duration)))),
+                    new UpdateOptions().upsert(true));
+            return true;
+        } catch (MongoWriteException e) {
+            // The upsert collided with the lease document of another owner
+            if (e.getError().getCategory() == ErrorCategory.DUPLICATE_KEY) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    public void releaseLease(String owner) {
+        watermarks.updateOne(and(eq("_id", LEASE_ID), eq("owner", owner)),
+                set("leaseUntil", Date.from(Instant.now())));
+    }
+
+    /**
+     * Stores a device's day as a new segment, replacing the day's current one.
+     * Once this returns the segment is on disk, so the readings can be deleted.
+     */
+    public void write(String series, ObjectId deviceId, LocalDate day, List<String> fields,
+            TelemetryRepository.Columns columns) throws IOException {
+        ObjectId id = new ObjectId();
+        String file = series + "/" + deviceId.toHexString() + "/" + day + "-" + id.toHexString() + SUFFIX;
+        SegmentFile.write(ROOT.resolve(file), fields, columns.timestamps(), columns.values(), columns.rows());
+        segments.insertOne(new Document("_id", id)
+                .append("series", series)
+                .append("deviceId", deviceId)
+                .append("day", day.toString())
+                .append("file", file));
+        segments.updateMany(and(eq("series", series), eq("deviceId", deviceId), eq("day", day.toString()),
+                ne("_id", id), eq("replacedAt", null)), set("replacedAt", new Date()));
+    }
+
+    /**
+     * Every row of a device's archived day, or null if the day has no segment.
+     */
+    public TelemetryRepository.Columns read(String series, ObjectId deviceId, LocalDate day, List<String> fields)
+            throws IOException {
+        Document current = segments.find(and(eq("series", series), eq("deviceId", deviceId),
+                eq("day", day.toString()), eq("replacedAt", null))).sort(Sorts.descending("_id")).first();
+        if (current == null) {
+            return null;
+        }
+        SegmentFile segment = segment(current.getString("file"));
+        int rows = segment.rowCount();
+        long[] timestamps = new long[rows];
+        double[][] values = new double[fields.size()][rows];
+        segment.readAll(fields, timestamps, values);
+        return new TelemetryRepository.Columns(timestamps, values, rows);
+    }
+
+    /**
+     * Streams one field of a device's archived readings in [from, to) to the
+     * sink in time order.
+     */
+    public void scan(String series, String field, ObjectId deviceId, Instant from, Instant to, SampleSink sink) {
+        String first = LocalDate.ofInstant(from, ZoneOffset.UTC).toString();
+        String last = LocalDate.ofInstant(to, ZoneOffset.UTC).toString();
+        // Sorted by day then creation, so the newest segment of a day wins
+        Map<String, String> days = new LinkedHashMap<>();
+        for (Document d : segments.find(and(eq("series", series), eq("deviceId", deviceId),
+                gte("day", first), lte("day", last), eq("replacedAt", null)))
+                .sort(Sorts.ascending("day", "_id"))) {
+            days.put(d.getString("day"), d.getString("file"));
+        }
+        for (String file : days.values()) {
+            try {
+                segment(file).scan(field, from.toEpochMilli(), to.toEpochMilli(), sink);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Retires every segment of a deleted device; the files go with the next purge.
+     */
+    public void deleteDevice(ObjectId deviceId) {
+        segments.updateMany(and(eq("deviceId", deviceId), eq("replacedAt", null)), set("replacedAt", new Date()));
+    }
+
+    /**
+     * Deletes the files of segments replaced more than REPLACED_RETENTION ago.
+     *
+     * @return how many were deleted
+     */
+    public int purgeReplaced() {
+        Date before = Date.from(Instant.now().minus(REPLACED_RETENTION));
+        List<Document> replaced = segments.find(lt("replacedAt", before)).into(new ArrayList<>());
+        int deleted = 0;
+        for (Document d : replaced) {
+            try {
+                Files.deleteIfExists(ROOT.resolve(d.getString("file")));
+            } catch (IOException e) {
+                LOGGER.warning("Unable to delete segment " + d.getString("file") + ": " + e.getMessage());
+                continue;
+            }
+            segments.deleteOne(eq("_id", d.getObjectId("_id")));
+            deleted++;
+        }
+        return deleted;
+    }
+
+    private SegmentFile segment(String file) throws IOException {
+        synchronized (open) {
+            SegmentFile segment = open.get(file);
+            if (segment != null) {
+                return segment;
+            }
+        }
+        SegmentFile segment = SegmentFile.open(ROOT.resolve(file));
+        synchronized (open) {
+            open.put(file, segment);
+        }
+        return segment;
+    }
+}
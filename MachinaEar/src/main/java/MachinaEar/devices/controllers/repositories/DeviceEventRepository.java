@@ -0,0 +1,86 @@
+package MachinaEar.devices.controllers.repositories;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.Sorts;
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gt;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Filters.lte;
+
+import MachinaEar.devices.entities.DeviceEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+/**
+ * Append-only log of device state transitions, indexed by (deviceId, timestamp)
+ * so "when did X last go abnormal" is a short indexed range scan.
+ */
+@ApplicationScoped
+public class DeviceEventRepository {
+
+    private MongoCollection<DeviceEvent> col;
+
+    public DeviceEventRepository() {
+    }
+
+    @Inject
+    public DeviceEventRepository(MongoDatabase db) {
+        this.col = db.getCollection("device_events", DeviceEvent.class);
+        this.col.createIndex(Indexes.ascending("deviceId", "timestamp"));
+    }
+
+    public void append(List<DeviceEvent> events) {
+        if (!events.isEmpty()) {
+            col.insertMany(events, new InsertManyOptions().ordered(false));
+        }
+    }
+
+    /**
+     * Events of a device in [from, to), newest first, optionally restricted to some types.
+     */
+    public List<DeviceEvent> findByDevice(ObjectId deviceId, Instant from, Instant to, List<DeviceEvent.Type> types,
+            int limit) {
+        Bson filter = and(eq("deviceId", deviceId), gte("timestamp", from), lt("timestamp", to));
+        if (types != null && !types.isEmpty()) {
+            filter = and(filter, in("type", types.stream().map(Enum::name).toList()));
+        }
+        return col.find(filter)
+                .sort(Sorts.descending("timestamp"))
+                .limit(limit)
+                .into(new ArrayList<>());
+    }
+
+    /**
+     * First event of a device of one of the given types strictly after 'after', or null
+     */
+    public DeviceEvent findNext(ObjectId deviceId, Instant after, List<DeviceEvent.Type> types) {
+        return col.find(and(eq("deviceId", deviceId), gt("timestamp", after),
+                        in("type", types.stream().map(Enum::name).toList())))
+                .sort(Sorts.ascending("timestamp"))
+                .first();
+    }
+
+    /**
+     * Events of a device of the given types in (after, upTo], oldest first
+     */
+    public List<DeviceEvent> findBetween(ObjectId deviceId, Instant after, Instant upTo,
+            List<DeviceEvent.Type> types) {
+        return col.find(and(eq("deviceId", deviceId), gt("timestamp", after), lte("timestamp", upTo),
+                        in("type", types.stream().map(Enum::name).toList())))
+                .sort(Sorts.ascending("timestamp"))
+                .into(new ArrayList<>());
+    }
+}
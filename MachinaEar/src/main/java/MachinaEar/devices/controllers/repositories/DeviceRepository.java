@@ -1,14 +1,27 @@
 package MachinaEar.devices.controllers.repositories;
 
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
+import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
 
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOptions;
+import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gt;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Updates.combine;
+import static com.mongodb.client.model.Updates.inc;
+import static com.mongodb.client.model.Updates.set;
 
 import MachinaEar.devices.entities.Device;
 import jakarta.enterprise.context.ApplicationScoped;
@@ -17,7 +30,28 @@ import jakarta.inject.Inject;
 @ApplicationScoped
 public class DeviceRepository {
 
+    /**
+     * Fields needed by the device list view. Secrets (deviceToken, pairingCode)
+     * and rarely displayed metrics are left on the server.
+     */
+    public static final Bson SUMMARY_PROJECTION = Projections.include(
+            "name", "type", "status", "isOnline", "isPaired", "anomalyScore",
+            "lastHeartbeat", "lastError", "updatedAt");
+
+    /**
+     * Fields needed by the pairing list view.
+     */
+    public static final Bson PENDING_PROJECTION = Projections.include(
+            "name", "mac", "pairingCode", "expiresAt");
+
     private MongoCollection<Device> col;
+    private MongoCollection<Document> versions;
+
+    /**
+     * Fields tracked by the in-memory fleet aggregates.
+     */
+    public static final Bson STATE_PROJECTION = Projections.include(
+            "identityId", "name", "status", "type", "isOnline", "isPaired", "anomalyScore", "lastAnomalyDetection");
 
     public DeviceRepository() {
     }
@@ -25,12 +59,32 @@ public class DeviceRepository {
     @Inject
     public DeviceRepository(MongoDatabase db) {
         this.col = db.getCollection("devices", Device.class);
+        // Keyset pages are scanned in _id order within an owner / pairing state
+        this.col.createIndex(Indexes.ascending("identityId", "_id"));
+        this.col.createIndex(Indexes.ascending("isPaired", "_id"));
+        this.col.createIndex(Indexes.ascending("isOnline", "lastHeartbeat"));
+        this.versions = db.getCollection("device_versions");
     }
 
     public List<Device> findByIdentityId(ObjectId identityId) {
         return col.find(eq("identityId", identityId)).into(new ArrayList<>());
     }
 
+    /**
+     * Keyset page of an owner's devices in _id order, starting after the given id.
+     * Pass a projection to read only part of each document, or null for full documents.
+     */
+    public List<Device> findPageByIdentityId(ObjectId identityId, ObjectId after, int limit, Bson projection) {
+        Bson filter = after == null
+                ? eq("identityId", identityId)
+                : and(eq("identityId", identityId), gt("_id", after));
+        return col.find(filter)
+                .projection(projection)
+                .sort(Sorts.ascending("_id"))
+                .limit(limit)
+                .into(new ArrayList<>());
+    }
+
     public long countByIdentityId(ObjectId identityId) {
         return col.countDocuments(eq("identityId", identityId));
     }
@@ -47,21 +101,114 @@ public class DeviceRepository {
         }
     }
 
+    // Every write bumps the owner's version after it, so an ETag never labels stale content
+
     public Device create(Device device) {
         col.insertOne(device);
+        bumpVersion(device.getIdentityId());
         return device;
     }
 
     public void update(Device device) {
         col.replaceOne(eq("_id", device.getId()), device);
+        bumpVersion(device.getIdentityId());
     }
 
-    public void delete(ObjectId id) {
-        col.deleteOne(eq("_id", id));
+    /**
+     * Writes only the fields of a status report instead of rewriting the
+     * whole document.
+     */
+    public void updateStatus(Device device) {
+        col.updateOne(eq("_id", device.getId()), combine(
+                set("status", device.getStatus()),
+                set("temperature", device.getTemperature()),
+                set("cpuUsage", device.getCpuUsage()),
+                set("memoryUsage", device.getMemoryUsage()),
+                set("lastError", device.getLastError()),
+                set("lastHeartbeat", device.getLastHeartbeat()),
+                set("updatedAt", device.getUpdatedAt())));
+        bumpVersion(device.getIdentityId());
     }
 
-    public List<Device> findPendingPairing() {
-        return col.find(eq("isPaired", false)).into(new ArrayList<>());
+    public void delete(Device device) {
+        col.deleteOne(eq("_id", device.getId()));
+        bumpVersion(device.getIdentityId());
+    }
+
+    /**
+     * Change counter of an owner's devices, shared by all nodes. Device
+     * resources derive their ETags from it.
+     */
+    public long version(ObjectId identityId) {
+        Document d = versions.find(eq("_id", identityId)).first();
+        return d == null ? 0 : d.get("version", Number.class).longValue();
+    }
+
+    /**
+     * Marks an owner's devices as changed, e.g. when one of them moved to another owner.
+     */
+    public void bumpVersion(ObjectId identityId) {
+        if (identityId != null) {
+            versions.updateOne(eq("_id", identityId), inc("version", 1L), new UpdateOptions().upsert(true));
+        }
+    }
+
+    /**
+     * Devices still marked online whose last heartbeat is older than the cutoff.
+     */
+    public List<Device> findStaleOnline(Instant cutoff) {
+        return col.find(and(eq("isOnline", true), lt("lastHeartbeat", cutoff))).into(new ArrayList<>());
+    }
+
+    /**
+     * Marks a device offline unless a heartbeat arrived since it was read.
+     *
+     * @return true if the device was switched offline
+     */
+    public boolean markOffline(Device device, Instant cutoff) {
+        Instant now = Instant.now();
+        long modified = col.updateOne(
+                and(eq("_id", device.getId()), eq("isOnline", true), lt("lastHeartbeat", cutoff)),
+                combine(set("isOnline", false), set("updatedAt", now))
+        ).getModifiedCount();
+        if (modified == 0) {
+            return false;
+        }
+        device.setIsOnline(false);
+        device.touch();
+        bumpVersion(device.getIdentityId());
+        return true;
+    }
+
+    /**
+     * Paired devices currently marked offline, with their owner, name and last heartbeat.
+     */
+    public List<Device> findPairedOffline() {
+        return col.find(and(eq("isOnline", false), eq("isPaired", true)))
+                .projection(Projections.include("identityId", "name", "lastHeartbeat", "updatedAt"))
+                .into(new ArrayList<>());
+    }
+
+    /**
+     * Current state fields of every device, used to seed in-memory aggregates.
+     */
+    public List<Device> findAllStates() {
+        return col.find().projection(STATE_PROJECTION).into(new ArrayList<>());
+    }
+
+    /**
+     * Keyset page of unexpired devices waiting to be paired, in _id order.
+     */
+    public List<Device> findPendingPairingPage(Instant now, ObjectId after, int limit, Bson projection) {
+        Bson filter = and(eq("isPaired", false), gt("expiresAt", now));
+        if (after != null) {
+            filter = and(filter, gt("_id", after));
+        }
+        return col.find(filter)
+                .projection(projection)
+                .sort(Sorts.ascending("_id"))
+                .limit(limit)
+                .into(new ArrayList<>());
     }
 
     public Optional<Device> findByPairingCode(String pairingCode) {
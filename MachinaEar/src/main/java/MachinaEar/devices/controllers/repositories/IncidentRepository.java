@@ -0,0 +1,162 @@
+package MachinaEar.devices.controllers.repositories;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Sorts;
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Updates.combine;
+import static com.mongodb.client.model.Updates.inc;
+import static com.mongodb.client.model.Updates.max;
+import static com.mongodb.client.model.Updates.set;
+import static com.mongodb.client.model.Updates.setOnInsert;
+
+import MachinaEar.devices.entities.Device;
+import MachinaEar.devices.entities.Incident;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+/**
+ * Incidents, at most one open per device. Statistics are only ever changed by
+ * increments and conditional maxima, so nodes reporting readings of the same
+ * incident add up instead of overwriting each other.
+ */
+@ApplicationScoped
+public class IncidentRepository {
+
+    private static final Logger LOGGER = Logger.getLogger(IncidentRepository.class.getName());
+
+    private MongoCollection<Incident> col;
+
+    public IncidentRepository() {
+    }
+
+    @Inject
+    public IncidentRepository(MongoDatabase db) {
+        this.col = db.getCollection("incidents", Incident.class);
+        this.col.createIndex(Indexes.ascending("deviceId", "openedAt"));
+        this.col.createIndex(Indexes.ascending("identityId", "openedAt"));
+        this.col.createIndex(Indexes.ascending("status"));
+        try {
+            this.col.createIndex(Indexes.ascending("deviceId"), new IndexOptions().unique(true)
+                    .partialFilterExpression(eq("status", Incident.Status.OPEN.name())).name("deviceId_open"));
+        } catch (MongoException e) {
+            // Left by nodes that opened their own copy before; they close after the quiet period
+            LOGGER.warning("Devices with several open incidents, not enforcing one per device yet: "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * The open incident of a device, opened at 'at' if there is none.
+     */
+    public Incident open(Device device, Instant at) {
+        Bson filter = and(eq("deviceId", device.getId()), eq("status", Incident.Status.OPEN.name()));
+        Incident incident = new Incident();
+        Bson insert = combine(
+                setOnInsert("identityId", device.getIdentityId()),
+                setOnInsert("deviceName", device.getName()),
+                setOnInsert("openedAt", at),
+                setOnInsert("lastAbnormalAt", at),
+                setOnInsert("peakAt", at),
+                setOnInsert("peakScore", 0.0),
+                setOnInsert("abnormalReadings", 0L),
+                setOnInsert("totalReadings", 0L),
+                setOnInsert("scoreSum", 0.0),
+                setOnInsert("createdAt", incident.getCreatedAt()),
+                setOnInsert("updatedAt", incident.getUpdatedAt()));
+        FindOneAndUpdateOptions upsert = new FindOneAndUpdateOptions().upsert(true)
+                .returnDocument(ReturnDocument.AFTER);
+        try {
+            return col.findOneAndUpdate(filter, insert, upsert);
+        } catch (MongoWriteException e) {
+            // Another node opened it at the same time; its incident is the one
+            if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+                throw e;
+            }
+            return col.findOneAndUpdate(filter, insert, upsert);
+        }
+    }
+
+    /**
+     * Adds readings counted by one node to an incident.
+     */
+    public void addReadings(ObjectId id, long total, long abnormal, double scoreSum, Instant lastAbnormalAt) {
+        List<Bson> updates = new ArrayList<>(List.of(
+                inc("totalReadings", total),
+                inc("abnormalReadings", abnormal),
+                inc("scoreSum", scoreSum),
+                set("updatedAt", Instant.now())));
+        if (lastAbnormalAt != null) {
+            updates.add(max("lastAbnormalAt", lastAbnormalAt));
+        }
+        col.updateOne(eq("_id", id), combine(updates));
+    }
+
+    /**
+     * Records a peak unless the incident already has a higher one.
+     */
+    public void raisePeak(ObjectId id, double score, Instant at) {
+        col.updateOne(and(eq("_id", id), lt("peakScore", score)),
+                combine(set("peakScore", score), set("peakAt", at)));
+    }
+
+    public void close(ObjectId id, Instant at) {
+        col.updateOne(and(eq("_id", id), eq("status", Incident.Status.OPEN.name())), closing(at));
+    }
+
+    /**
+     * Closes the open incidents without an abnormal reading since 'quietSince'.
+     */
+    public long closeQuiet(Instant quietSince, Instant at) {
+        return col.updateMany(and(eq("status", Incident.Status.OPEN.name()), lt("lastAbnormalAt", quietSince)),
+                closing(at)).getModifiedCount();
+    }
+
+    private static Bson closing(Instant at) {
+        return combine(set("status", Incident.Status.CLOSED.name()), set("closedAt", at), set("updatedAt", at));
+    }
+
+    public List<Incident> findOpen() {
+        return col.find(eq("status", Incident.Status.OPEN.name())).into(new ArrayList<>());
+    }
+
+    /**
+     * Incidents of a device, most recent first.
+     */
+    public List<Incident> findByDevice(ObjectId deviceId, int limit) {
+        return col.find(eq("deviceId", deviceId))
+                .sort(Sorts.descending("openedAt"))
+                .limit(limit)
+                .into(new ArrayList<>());
+    }
+
+    /**
+     * Incidents of all an owner's devices, most recent first, optionally by status.
+     */
+    public List<Incident> findByIdentityId(ObjectId identityId, Incident.Status status, int limit) {
+        Bson filter = status == null
+                ? eq("identityId", identityId)
+                : and(eq("identityId", identityId), eq("status", status.name()));
+        return col.find(filter)
+                .sort(Sorts.descending("openedAt"))
+                .limit(limit)
+                .into(new ArrayList<>());
+    }
+}
@@ -0,0 +1,245 @@
+package MachinaEar.devices.controllers.repositories;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.MergeOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOptions;
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Updates.max;
+import static com.mongodb.client.model.Updates.unset;
+
+import MachinaEar.devices.controllers.services.Resolution;
+import MachinaEar.devices.controllers.services.SampleSink;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+/**
+ * Per-device rollups of telemetry series, one collection per series and
+ * resolution (e.g. anomaly_scores_1h). Each document holds, per field,
+ * {min, max, sum, count, avg, p95} for one bucket. Buckets are materialized
+ * with an aggregation ending in $merge, so Mongo does the work and reruns are
+ * idempotent. Progress is tracked per series and resolution in
+ * rollup_watermarks: everything before the watermark is complete.
+ *
+ * Readings written after their minute was rolled up (e.g. retried after a
+ * Mongo outage) are recorded as late ranges in rollup_late, so the rollup
+ * job rebuilds their buckets and nodes drop cached history overlapping them.
+ */
+@ApplicationScoped
+public class RollupRepository {
+
+    private static final double PERCENTILE = 0.95;
+
+    private MongoDatabase db;
+    private static final long LATE_RETENTION_DAYS = 7;
+
+    private MongoCollection<Document> watermarks;
+    private MongoCollection<Document> late;
+
+    public RollupRepository() {
+    }
+
+    @Inject
+    public RollupRepository(MongoDatabase db) {
+        this.db = db;
+        this.watermarks = db.getCollection("rollup_watermarks");
+        this.late = db.getCollection("rollup_late");
+        this.late.createIndex(Indexes.ascending("pending"), new IndexOptions().sparse(true));
+        this.late.createIndex(Indexes.ascending("at"),
+                new IndexOptions().expireAfter(LATE_RETENTION_DAYS, TimeUnit.DAYS));
+    }
+
+    public static String collectionName(String series, Resolution resolution) {
+        return series + "_" + resolution.suffix();
+    }
+
+    /**
+     * Creates the rollup collections' indexes, and the time indexes every
+     * level is materialized through: the bucket ranges and the earliest
+     * reading are looked up by time alone, across devices.
+     */
+    public void ensureIndexes(String series) {
+        db.getCollection(series).createIndex(Indexes.ascending("t"));
+        for (Resolution r : Resolution.values()) {
+            MongoCollection<Document> col = db.getCollection(collectionName(series, r));
+            col.createIndex(Indexes.ascending("deviceId", "t"), new IndexOptions().unique(true));
+            col.createIndex(Indexes.ascending("t"));
+        }
+    }
+
+    public Instant watermark(String series, Resolution resolution) {
+        Document d = watermarks.find(eq("_id", collectionName(series, resolution))).first();
+        return d == null ? null : d.getDate("upTo").toInstant();
+    }
+
+    // $max keeps the watermark monotonic if several nodes run the job
+    public void advanceWatermark(String series, Resolution resolution, Instant upTo) {
+        watermarks.updateOne(eq("_id", collectionName(series, resolution)),
+                max("upTo", Date.from(upTo)), new UpdateOptions().upsert(true));
+    }
+
+    /**
+     * Materializes the buckets of [from, to) at the given resolution, reading
+     * raw readings for the minute level and the next finer rollup otherwise.
+     * Bounds must be aligned on the resolution.
+     */
+    public void materialize(String series, List<String> fields, Resolution resolution, Instant from, Instant to) {
+        boolean fromRaw = resolution.finer() == null;
+        String source = fromRaw ? series : collectionName(series, resolution.finer());
+
+        Document group = new Document("_id", new Document("deviceId", "$deviceId")
+                .append("t", new Document("$dateTrunc", new Document("date", "$t").append("unit", resolution.mongoUnit()))));
+        Document project = new Document("_id", 0).append("deviceId", "$_id.deviceId").append("t", "$_id.t");
+        for (String f : fields) {
+            String min = fromRaw ? "$" + f : "$" + f + ".min";
+            String max = fromRaw ? "$" + f : "$" + f + ".max";
+            String sum = fromRaw ? "$" + f : "$" + f + ".sum";
+            // Coarser levels approximate p95 as the p95 of the finer buckets' p95
+            String quantileInput = fromRaw ? "$" + f : "$" + f + ".p95";
+            Object count = fromRaw
+                    ? new Document("$cond", List.of(new Document("$isNumber", "$" + f), 1, 0))
+                    : "$" + f + ".count";
+            group.append(f + "_min", new Document("$min", min))
+                    .append(f + "_max", new Document("$max", max))
+                    .append(f + "_sum", new Document("$sum", sum))
+                    .append(f + "_count", new Document("$sum", count))
+                    .append(f + "_q", new Document("$push", quantileInput));
+            project.append(f, new Document("min", "$" + f + "_min")
+                    .append("max", "$" + f + "_max")
+                    .append("sum", "$" + f + "_sum")
+                    .append("count", "$" + f + "_count")
+                    .append("avg", new Document("$cond", Arrays.asList(
+                            new Document("$gt", List.of("$" + f + "_count", 0)),
+                            new Document("$divide", List.of("$" + f + "_sum", "$" + f + "_count")),
+                            null)))
+                    .append("p95", percentile("$" + f + "_q")));
+        }
+
+        List<Bson> pipeline = List.of(
+                Aggregates.match(and(gte("t", Date.from(from)), lt("t", Date.from(to)))),
+                new Document("$group", group),
+                new Document("$project", project),
+                Aggregates.merge(collectionName(series, resolution), new MergeOptions()
+                        .uniqueIdentifier(List.of("deviceId", "t"))
+                        .whenMatched(MergeOptions.WhenMatched.REPLACE)
+                        .whenNotMatched(MergeOptions.WhenNotMatched.INSERT)));
+        db.getCollection(source).aggregate(pipeline).allowDiskUse(true).toCollection();
+    }
+
+    // Nearest-rank percentile of the numeric values of an array
+    private static Document percentile(String array) {
+        Document numbers = new Document("$filter", new Document("input", array)
+                .append("cond", new Document("$isNumber", "$$this")));
+        Document sorted = new Document("$sortArray", new Document("input", numbers).append("sortBy", 1));
+        Document lastIndex = new Document("$max", List.of(0,
+                new Document("$subtract", List.of(new Document("$size", "$$v"), 1))));
+        Document rank = new Document("$toInt", new Document("$floor",
+                new Document("$multiply", List.of(PERCENTILE, lastIndex))));
+        return new Document("$let", new Document("vars", new Document("v", sorted))
+                .append("in", new Document("$arrayElemAt", List.of("$$v", rank))));
+    }
+
+    /**
+     * Records that readings of [from, to) were written late, at 'at'.
+     */
+    public void recordLate(String series, Instant from, Instant to, Instant at) {
+        late.insertOne(new Document("series", series)
+                .append("from", Date.from(from))
+                .append("to", Date.from(to))
+                .append("at", Date.from(at))
+                .append("pending", true));
+    }
+
+    /**
+     * Late ranges of a series whose buckets were not rebuilt yet.
+     */
+    public List<LateRange> findPendingLate(String series) {
+        return lateRanges(and(eq("pending", true), eq("series", series)));
+    }
+
+    public void lateRolledUp(ObjectId id) {
+        late.updateOne(eq("_id", id), unset("pending"));
+    }
+
+    /**
+     * Late ranges of every series recorded at or after 'since'.
+     */
+    public List<LateRange> findLateSince(Instant since) {
+        return lateRanges(gte("at", Date.from(since)));
+    }
+
+    private List<LateRange> lateRanges(Bson filter) {
+        List<LateRange> ranges = new ArrayList<>();
+        late.find(filter).sort(Sorts.ascending("at")).forEach(d -> ranges.add(new LateRange(d.getObjectId("_id"),
+                d.getString("series"), d.getDate("from").toInstant(), d.getDate("to").toInstant(),
+                d.getDate("at").toInstant())));
+        return ranges;
+    }
+
+    /**
+     * Earliest raw reading, to start materializing an empty rollup.
+     */
+    public Instant earliestRaw(String series) {
+        Document d = db.getCollection(series).find()
+                .projection(Projections.include("t")).sort(Sorts.ascending("t")).first();
+        return d == null ? null : d.getDate("t").toInstant();
+    }
+
+    /**
+     * Streams one statistic ("avg", "min", "max", ...) of a field's buckets in
+     * [from, to) to the sink in time order, keyed by bucket start.
+     */
+    public void scan(String series, Resolution resolution, ObjectId deviceId, String field, List<String> stats,
+            Instant from, Instant to, SampleSink sink) {
+        List<String> include = new ArrayList<>();
+        include.add("t");
+        for (String stat : stats) {
+            include.add(field + "." + stat);
+        }
+        try (MongoCursor<Document> cursor = db.getCollection(collectionName(series, resolution))
+                .find(and(eq("deviceId", deviceId), gte("t", Date.from(from)), lt("t", Date.from(to))))
+                .projection(Projections.fields(Projections.include(include), Projections.excludeId()))
+                .sort(Sorts.ascending("t"))
+                .iterator()) {
+            while (cursor.hasNext()) {
+                Document d = cursor.next();
+                Document values = d.get(field, Document.class);
+                if (values == null) {
+                    continue;
+                }
+                long t = d.getDate("t").getTime();
+                for (String stat : stats) {
+                    Number v = values.get(stat, Number.class);
+                    if (v != null) {
+                        sink.accept(t, v.doubleValue());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Readings of a series in [from, to) written at 'at', after their buckets may have been rolled up.
+     */
+    public static record LateRange(ObjectId id, String series, Instant from, Instant to, Instant at) {}
+}
@@ -0,0 +1,266 @@
+package MachinaEar.devices.controllers.repositories;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.CreateCollectionOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.TimeSeriesGranularity;
+import com.mongodb.client.model.TimeSeriesOptions;
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.lt;
+
+import MachinaEar.devices.controllers.services.SampleSink;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+/**
+ * Append-only store of device readings, one collection per series: anomaly
+ * scores ({deviceId, t, score}) and vitals ({deviceId, t, temperature,
+ * cpuUsage, memoryUsage}). Documents are kept minimal and written to Mongo
+ * time-series collections when the server supports them, falling back to
+ * plain collections otherwise. All series share the same range scan.
+ */
+@ApplicationScoped
+public class TelemetryRepository {
+
+    private static final Logger LOGGER = Logger.getLogger(TelemetryRepository.class.getName());
+
+    public static final String SCORES = "anomaly_scores";
+    public static final String SCORE = "score";
+
+    public static final String VITALS = "device_vitals";
+    public static final String TEMPERATURE = "temperature";
+    public static final String CPU_USAGE = "cpuUsage";
+    public static final String MEMORY_USAGE = "memoryUsage";
+
+    /**
+     * Queryable metrics and the series holding each.
+     */
+    public static final Map<String, String> METRIC_SERIES = Map.of(
+            SCORE, SCORES,
+            TEMPERATURE, VITALS,
+            CPU_USAGE, VITALS,
+            MEMORY_USAGE, VITALS);
+
+    private static final int READ_BATCH_SIZE = 10_000;
+
+    private MongoDatabase db;
+    private MongoCollection<Document> scores;
+    private MongoCollection<Document> vitals;
+
+    public TelemetryRepository() {
+    }
+
+    @Inject
+    public TelemetryRepository(MongoDatabase db) {
+        this.db = db;
+        this.scores = series(db, SCORES);
+        this.vitals = series(db, VITALS);
+    }
+
+    private static MongoCollection<Document> series(MongoDatabase db, String name) {
+        try {
+            db.createCollection(name, new CreateCollectionOptions().timeSeriesOptions(
+                    new TimeSeriesOptions("t").metaField("deviceId").granularity(TimeSeriesGranularity.SECONDS)));
+        } catch (MongoCommandException e) {
+            // 48 = NamespaceExists; anything else means time-series are unsupported here
+            if (e.getErrorCode() != 48) {
+                LOGGER.warning("Time-series collection unavailable for " + name + ", using a plain collection: "
+                        + e.getErrorMessage());
+            }
+        }
+        MongoCollection<Document> col = db.getCollection(name);
+        col.createIndex(Indexes.ascending("deviceId", "t"));
+        return col;
+    }
+
+    /**
+     * Inserts a batch of score documents in one round trip. Unordered, so a
+     * bad document does not drop the rest of the batch.
+     */
+    public void appendScores(List<Document> batch) {
+        if (!batch.isEmpty()) {
+            scores.insertMany(batch, new InsertManyOptions().ordered(false));
+        }
+    }
+
+    public static Document score(ObjectId deviceId, Instant t, double score) {
+        return new Document("deviceId", deviceId).append("t", Date.from(t)).append(SCORE, score);
+    }
+
+    /**
+     * Inserts a batch of vitals documents in one round trip. Unordered, so a
+     * bad document does not drop the rest of the batch.
+     */
+    public void appendVitals(List<Document> batch) {
+        if (!batch.isEmpty()) {
+            vitals.insertMany(batch, new InsertManyOptions().ordered(false));
+        }
+    }
+
+    public static Document vitals(ObjectId deviceId, Instant t, Double temperature, Double cpuUsage,
+            Double memoryUsage) {
+        Document d = new Document("deviceId", deviceId).append("t", Date.from(t));
+        if (temperature != null) {
+            d.append(TEMPERATURE, temperature);
+        }
+        if (cpuUsage != null) {
+            d.append(CPU_USAGE, cpuUsage);
+        }
+        if (memoryUsage != null) {
+            d.append(MEMORY_USAGE, memoryUsage);
+        }
+        return d;
+    }
+
+    /**
+     * Streams one field of a series for a device in [from, to) to the sink in
+     * time order, readings sharing a timestamp always in the same order (by
+     * _id) so that an export can resume by skipping them. Readings without
+     * the field are skipped.
+     */
+    public void scan(String series, String field, ObjectId deviceId, Instant from, Instant to, SampleSink sink) {
+        try (MongoCursor<Document> cursor = db.getCollection(series)
+                .find(and(eq("deviceId", deviceId), gte("t", Date.from(from)), lt("t", Date.from(to))))
+                .projection(Projections.fields(Projections.include("t", field), Projections.excludeId()))
+                .sort(Sorts.ascending("t", "_id"))
+                .batchSize(READ_BATCH_SIZE)
+                .iterator()) {
+            while (cursor.hasNext()) {
+                Document d = cursor.next();
+                Number value = d.get(field, Number.class);
+                if (value != null) {
+                    sink.accept(d.getDate("t").getTime(), value.doubleValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Devices with readings of a series in [from, to).
+     */
+    public List<ObjectId> devicesWithReadings(String series, Instant from, Instant to) {
+        return db.getCollection(series)
+                .distinct("deviceId", and(gte("t", Date.from(from)), lt("t", Date.from(to))), ObjectId.class)
+                .into(new ArrayList<>());
+    }
+
+    /**
+     * Reads the given fields of a device's readings in [from, to) as columns,
+     * in time order, ties by _id as in scan. Missing values are NaN.
+     */
+    public Columns readColumns(String series, List<String> fields, ObjectId deviceId, Instant from, Instant to) {
+        long[] timestamps = new long[1024];
+        double[][] values = new double[fields.size()][1024];
+        int count = 0;
+        List<String> include = new ArrayList<>(fields);
+        include.add("t");
+        try (MongoCursor<Document> cursor = db.getCollection(series)
+                .find(and(eq("deviceId", deviceId), gte("t", Date.from(from)), lt("t", Date.from(to))))
+                .projection(Projections.fields(Projections.include(include), Projections.excludeId()))
+                .sort(Sorts.ascending("t", "_id"))
+                .batchSize(READ_BATCH_SIZE)
+                .iterator()) {
+            while (cursor.hasNext()) {
+                Document d = cursor.next();
+                if (count == timestamps.length) {
+                    timestamps = Arrays.copyOf(timestamps, count * 2);
+                    for (int f = 0; f < values.length; f++) {
+                        values[f] = Arrays.copyOf(values[f], count * 2);
+                    }
+                }
+                timestamps[count] = d.getDate("t").getTime();
+                for (int f = 0; f < values.length; f++) {
+                    Number v = d.get(fields.get(f), Number.class);
+                    values[f][count] = v == null ? Double.NaN : v.doubleValue();
+                }
+                count++;
+            }
+        }
+        return new Columns(timestamps, values, count);
+    }
+
+    /**
+     * Removes a device's readings of [from, to), once they are archived.
+     * Time-series collections accept arbitrary deletes from MongoDB 7.0, see
+     * serverMajorVersion().
+     */
+    public long deleteRange(String series, ObjectId deviceId, Instant from, Instant to) {
+        return db.getCollection(series)
+                .deleteMany(and(eq("deviceId", deviceId), gte("t", Date.from(from)), lt("t", Date.from(to))))
+                .getDeletedCount();
+    }
+
+    /**
+     * Major version of the MongoDB server, e.g. 7.
+     */
+    public int serverMajorVersion() {
+        return db.runCommand(new Document("buildInfo", 1)).getList("versionArray", Integer.class).get(0);
+    }
+
+    /**
+     * Column-oriented readings: the first {@code rows} entries of each array are valid.
+     */
+    public static record Columns(long[] timestamps, double[][] values, int rows) {
+
+        /**
+         * Rows of both, in time order, rows of this one first on equal
+         * timestamps. A row of the other identical to one of this one, as
+         * left by an interrupted merge, is kept once.
+         */
+        public Columns merge(Columns other) {
+            long[] ts = new long[rows + other.rows];
+            double[][] merged = new double[values.length][ts.length];
+            int count = 0;
+            int i = 0;
+            int j = 0;
+            while (i < rows || j < other.rows) {
+                boolean mine = j == other.rows || (i < rows && timestamps[i] <= other.timestamps[j]);
+                if (!mine && sameAsEarlier(count, ts, merged, other, j)) {
+                    j++;
+                    continue;
+                }
+                Columns from = mine ? this : other;
+                int row = mine ? i++ : j++;
+                ts[count] = from.timestamps[row];
+                for (int f = 0; f < merged.length; f++) {
+                    merged[f][count] = from.values[f][row];
+                }
+                count++;
+            }
+            return new Columns(ts, merged, count);
+        }
+
+        // Whether a merged row with the same timestamp holds the same values as the other's row
+        private static boolean sameAsEarlier(int count, long[] ts, double[][] merged, Columns other, int row) {
+            for (int k = count - 1; k >= 0 && ts[k] == other.timestamps[row]; k--) {
+                boolean same = true;
+                for (int f = 0; f < merged.length && same; f++) {
+                    same = Double.compare(merged[f][k], other.values[f][row]) == 0;
+                }
+                if (same) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
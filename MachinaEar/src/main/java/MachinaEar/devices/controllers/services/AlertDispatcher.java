@@ -0,0 +1,153 @@
+package MachinaEar.devices.controllers.services;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bson.types.ObjectId;
+
+import MachinaEar.devices.controllers.repositories.AlertRepository;
+import MachinaEar.devices.entities.Alert;
+import MachinaEar.iam.controllers.managers.EmailService;
+import MachinaEar.iam.controllers.repositories.IdentityRepository;
+import MachinaEar.iam.entities.Identity;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import jakarta.enterprise.concurrent.ManagedScheduledExecutorService;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+
+/**
+ * Turns fired alerts into digest emails. Alerts stay pending in Mongo until
+ * a digest covering them is in the outbox, and each recipient gets one
+ * digest ALERT_DIGEST_MINUTES after the oldest pending alert. Each recipient
+ * gets at most ALERT_DIGEST_MAX_PER_HOUR digests per hour, counted only once
+ * a digest is in the outbox; alerts arriving past that limit stay pending for
+ * the next allowed digest. A digest lists at most MAX_LISTED alerts and
+ * counts the rest, so both the number of emails and their size are bounded
+ * however many alerts fire.
+ *
+ * Pending alerts and digest times are shared by all nodes, and a per-owner
+ * lease lets one node build each digest. A digest that could not be written
+ * to the outbox, or whose recipient could not be looked up, is retried on the
+ * next tick. A node dying between writing a digest and marking its alerts
+ * sends it again. A digest marks exactly the alerts it listed or counted,
+ * so alerts fired while it was built wait for the next one. Alerts still
+ * pending after PENDING_HORIZON are dropped with a warning rather than
+ * mailed.
+ */
+@ApplicationScoped
+public class AlertDispatcher {
+
+    private static final Logger LOGGER = Logger.getLogger(AlertDispatcher.class.getName());
+
+    private static final long TICK_SECONDS = 30;
+    private static final int MAX_LISTED = 50;
+    private static final Duration LEASE = Duration.ofMinutes(2);
+    private static final Duration PENDING_HORIZON = Duration.ofDays(1);
+    private static final Duration WINDOW = Duration.ofMinutes(Long.parseLong(
+            System.getenv().getOrDefault("ALERT_DIGEST_MINUTES", "5")));
+    private static final int MAX_PER_HOUR = Integer.parseInt(
+            System.getenv().getOrDefault("ALERT_DIGEST_MAX_PER_HOUR", "4"));
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm 'UTC'")
+            .withZone(ZoneOffset.UTC);
+
+    @Resource
+    ManagedScheduledExecutorService scheduler;
+
+    @Inject
+    EmailService emailService;
+
+    @Inject
+    IdentityRepository identities;
+
+    @Inject
+    AlertRepository alerts;
+
+    private final String node = UUID.randomUUID().toString();
+    private ScheduledFuture<?> task;
+
+    public void start(@Observes @Initialized(ApplicationScoped.class) Object init) {
+        task = scheduler.scheduleWithFixedDelay(this::tick, TICK_SECONDS, TICK_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+
+    void tick() {
+        Instant now = Instant.now();
+        Instant from = now.minus(PENDING_HORIZON);
+        List<ObjectId> due;
+        try {
+            long dropped = alerts.dropPendingBefore(from, now);
+            if (dropped > 0) {
+                LOGGER.warning("Dropped " + dropped + " alerts still pending after " + PENDING_HORIZON
+                        + ", they will not be mailed");
+            }
+            due = alerts.findOwnersWithPending(from, now, now.minus(WINDOW));
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Pending alert lookup failed", e);
+            return;
+        }
+        for (ObjectId owner : due) {
+            try {
+                if (!alerts.acquireDigestLease(owner, node, now.plus(LEASE))) {
+                    continue;
+                }
+                try {
+                    digest(owner, from, now);
+                } finally {
+                    alerts.releaseDigestLease(owner, node);
+                }
+            } catch (Exception e) {
+                LOGGER.log(Level.SEVERE, "Alert digest for " + owner + " failed, retrying on the next tick", e);
+            }
+        }
+    }
+
+    // Sends the alerts pending in [from, to) as one digest, unless the hourly limit is reached
+    private void digest(ObjectId owner, Instant from, Instant to) {
+        Instant hourAgo = to.minus(Duration.ofHours(1));
+        if (alerts.findDigestTimes(owner, hourAgo).size() >= MAX_PER_HOUR) {
+            return;
+        }
+        Identity identity = identities.findById(owner).orElse(null);
+        if (identity == null || identity.getEmail() == null) {
+            // Nobody to notify: the alerts stay listed in the app only
+            alerts.markNotified(owner, from, to, to);
+            return;
+        }
+        List<ObjectId> pending = alerts.findPendingIds(owner, from, to);
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Alert> listed = alerts.findByIds(pending.subList(0, Math.min(MAX_LISTED, pending.size())));
+        List<String> lines = listed.stream().map(AlertDispatcher::line).toList();
+        if (!emailService.sendAlertDigestEmail(identity.getEmail(), pending.size(), lines)) {
+            LOGGER.warning("Alert digest for " + owner + " not written to the outbox, retrying on the next tick");
+            return;
+        }
+        Instant sentAt = Instant.now();
+        alerts.recordDigest(owner, sentAt, MAX_PER_HOUR);
+        alerts.markNotified(pending, sentAt);
+    }
+
+    private static String line(Alert alert) {
+        String device = alert.getDeviceName() == null ? alert.getDeviceId().toHexString() : alert.getDeviceName();
+        return TIME.format(alert.getFiredAt()) + " - " + device + ": " + alert.getRuleName()
+                + " (" + alert.getMessage() + ")";
+    }
+}
@@ -0,0 +1,258 @@
+package MachinaEar.devices.controllers.services;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bson.types.ObjectId;
+
+import MachinaEar.devices.controllers.managers.DeviceChanged;
+import MachinaEar.devices.controllers.repositories.AlertRepository;
+import MachinaEar.devices.controllers.repositories.AlertRuleRepository;
+import MachinaEar.devices.controllers.repositories.DeviceEventRepository;
+import MachinaEar.devices.controllers.repositories.DeviceRepository;
+import MachinaEar.devices.entities.Alert;
+import MachinaEar.devices.entities.AlertRule;
+import MachinaEar.devices.entities.Device;
+import MachinaEar.devices.entities.DeviceEvent;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import jakarta.enterprise.concurrent.ManagedScheduledExecutorService;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+
+/**
+ * Evaluates the owners' alert rules inline on the ingest path. Rules are
+ * loaded once per owner and compiled into {@link AlertEvaluator}s whose
+ * per-device state lives in memory, so a reading costs a few comparisons and
+ * never a query. Offline rules are driven by connectivity transitions and a
+ * short in-memory tick instead of readings; devices already offline at
+ * startup are seeded from their last OFFLINE event.
+ *
+ * Rule edits recompile the owner's rules at once on the node that handled
+ * them. Other nodes notice through the owner's rule version, checked for all
+ * cached owners in one query every tick.
+ *
+ * Every node ticks the offline rules, and MQTT may deliver a reading twice,
+ * so each alert carries a window (the outage start for offline rules, the
+ * rule period for score rules) and only the first alert per rule, device and
+ * window is stored.
+ */
+@ApplicationScoped
+public class AlertEngine {
+
+    private static final Logger LOGGER = Logger.getLogger(AlertEngine.class.getName());
+
+    private static final long TICK_SECONDS = 15;
+
+    @Resource
+    ManagedScheduledExecutorService scheduler;
+
+    @Inject
+    AlertRuleRepository ruleRepository;
+
+    @Inject
+    AlertRepository alerts;
+
+    @Inject
+    DeviceRepository deviceRepository;
+
+    @Inject
+    DeviceEventRepository deviceEvents;
+
+    private final ConcurrentHashMap<ObjectId, OwnerRules> owners = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<ObjectId, Offline> offline = new ConcurrentHashMap<>();
+    private ScheduledFuture<?> task;
+
+    @PostConstruct
+    public void init() {
+        for (Device device : deviceRepository.findPairedOffline()) {
+            if (device.getIdentityId() == null) {
+                continue;
+            }
+            List<DeviceEvent> last = deviceEvents.findByDevice(device.getId(), Instant.EPOCH, Instant.now(),
+                    List.of(DeviceEvent.Type.OFFLINE), 1);
+            Instant since = !last.isEmpty() ? last.get(0).getTimestamp()
+                    : device.getLastHeartbeat() != null ? device.getLastHeartbeat() : device.getUpdatedAt();
+            // Rules that already fired for this outage before the restart stay quiet
+            Set<ObjectId> fired = ConcurrentHashMap.newKeySet();
+            fired.addAll(alerts.findFiredRuleIds(device.getIdentityId(), device.getId(),
+                    AlertRule.Type.OFFLINE, since));
+            offline.putIfAbsent(device.getId(), new Offline(device.getIdentityId(), device.getName(), since, fired));
+        }
+        LOGGER.info("Offline alert tracking seeded with " + offline.size() + " devices");
+    }
+
+    public void start(@Observes @Initialized(ApplicationScoped.class) Object init) {
+        task = scheduler.scheduleWithFixedDelay(this::tick, TICK_SECONDS, TICK_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+
+    public void onScore(Device device, Instant at, double score) {
+        if (device.getIdentityId() == null) {
+            return;
+        }
+        for (AlertEvaluator evaluator : rules(device.getIdentityId()).evaluators()) {
+            if (!evaluator.rule.appliesTo(device.getId())) {
+                continue;
+            }
+            double value = evaluator.onScore(device.getId(), at.toEpochMilli(), score);
+            if (!Double.isNaN(value)) {
+                fire(evaluator.rule, device.getId(), device.getName(), value, evaluator.describe(value), at,
+                        scoreWindow(evaluator.rule, at));
+            }
+        }
+    }
+
+    /**
+     * Tracks when a device went offline; offline rules fire from the tick.
+     */
+    public void onConnectivity(Device device, boolean online, Instant at) {
+        if (online || device.getIdentityId() == null) {
+            offline.remove(device.getId());
+        } else {
+            offline.put(device.getId(), new Offline(device.getIdentityId(), device.getName(), at,
+                    ConcurrentHashMap.newKeySet()));
+        }
+    }
+
+    void tick() {
+        refresh();
+        Instant now = Instant.now();
+        try {
+            offline.forEach((deviceId, o) -> {
+                for (AlertRule rule : rules(o.owner()).offline()) {
+                    Duration limit = Duration.ofMinutes(rule.getMinutes());
+                    if (rule.appliesTo(deviceId) && !o.fired().contains(rule.getId())
+                            && o.since().plus(limit).isBefore(now)) {
+                        o.fired().add(rule.getId());
+                        double minutes = Duration.between(o.since(), now).toSeconds() / 60.0;
+                        fire(rule, deviceId, o.name(), minutes,
+                                String.format("offline for %.0f min (limit %d min)", minutes, rule.getMinutes()), now,
+                                o.since());
+                    }
+                }
+            });
+        } catch (Exception e) {
+            LOGGER.severe("Offline alert evaluation failed: " + e.getMessage());
+        }
+    }
+
+    // Recompiles the cached owners whose rules were changed on any node
+    private void refresh() {
+        if (owners.isEmpty()) {
+            return;
+        }
+        try {
+            Map<ObjectId, Long> versions = ruleRepository.versions(owners.keySet());
+            owners.forEach((identityId, rules) -> {
+                if (versions.getOrDefault(identityId, 0L) != rules.version()) {
+                    reload(identityId);
+                }
+            });
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Alert rule refresh failed", e);
+        }
+    }
+
+    /**
+     * Recompiles an owner's rules after they changed. Evaluators of rules that
+     * still exist keep their state.
+     */
+    public void reload(ObjectId identityId) {
+        OwnerRules previous = owners.get(identityId);
+        owners.put(identityId, load(identityId, previous));
+    }
+
+    /**
+     * Drops the evaluation state of a deleted device.
+     */
+    public void onDeviceChanged(@Observes DeviceChanged change) {
+        if (change.deleted()) {
+            forget(change.device());
+        }
+    }
+
+    private void forget(Device device) {
+        offline.remove(device.getId());
+        OwnerRules rules = device.getIdentityId() == null ? null : owners.get(device.getIdentityId());
+        if (rules != null) {
+            rules.evaluators().forEach(e -> e.forget(device.getId()));
+        }
+    }
+
+    private OwnerRules rules(ObjectId identityId) {
+        return owners.computeIfAbsent(identityId, id -> load(id, null));
+    }
+
+    // The version is read first, so an edit racing with the read is picked up by the next refresh
+    private OwnerRules load(ObjectId identityId, OwnerRules previous) {
+        long version = ruleRepository.version(identityId);
+        return compile(version, ruleRepository.findByIdentityId(identityId), previous);
+    }
+
+    private static OwnerRules compile(long version, List<AlertRule> rules, OwnerRules previous) {
+        Map<ObjectId, AlertEvaluator> kept = new HashMap<>();
+        if (previous != null) {
+            previous.evaluators().forEach(e -> kept.put(e.rule.getId(), e));
+        }
+        List<AlertEvaluator> evaluators = rules.stream()
+                .filter(r -> r.getType() != AlertRule.Type.OFFLINE)
+                .map(r -> kept.containsKey(r.getId()) ? kept.get(r.getId()) : AlertEvaluator.compile(r))
+                .toList();
+        List<AlertRule> offlineRules = rules.stream()
+                .filter(r -> r.getType() == AlertRule.Type.OFFLINE)
+                .toList();
+        return new OwnerRules(version, evaluators, offlineRules);
+    }
+
+    // Score rules fire at most once per rule period (a minute for consecutive readings)
+    private static Instant scoreWindow(AlertRule rule, Instant at) {
+        long period = rule.getType() == AlertRule.Type.P95_ABOVE ? rule.getMinutes() * 60_000L : 60_000L;
+        return Instant.ofEpochMilli(Math.floorDiv(at.toEpochMilli(), period) * period);
+    }
+
+    private void fire(AlertRule rule, ObjectId deviceId, String deviceName, double value, String message,
+            Instant at, Instant window) {
+        Alert alert = new Alert();
+        alert.setRuleId(rule.getId());
+        alert.setRuleName(rule.getName());
+        alert.setIdentityId(rule.getIdentityId());
+        alert.setDeviceId(deviceId);
+        alert.setDeviceName(deviceName);
+        alert.setType(rule.getType());
+        alert.setValue(value);
+        alert.setThreshold(rule.getThreshold());
+        alert.setMessage(message);
+        alert.setFiredAt(at);
+        alert.setWindow(window);
+        try {
+            if (alerts.create(alert)) {
+                LOGGER.warning("Alert '" + rule.getName() + "' on device " + deviceId + ": " + message);
+            }
+        } catch (Exception e) {
+            LOGGER.severe("Failed to store alert: " + e.getMessage());
+        }
+    }
+
+    private record OwnerRules(long version, List<AlertEvaluator> evaluators, List<AlertRule> offline) {}
+
+    private record Offline(ObjectId owner, String name, Instant since, Set<ObjectId> fired) {}
+}
@@ -0,0 +1,166 @@
+package MachinaEar.devices.controllers.services;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bson.types.ObjectId;
+
+import MachinaEar.devices.entities.AlertRule;
+
+/**
+ * Compiled form of a score-based alert rule. Each device gets a fixed-size
+ * state, updated in O(1) per reading. Evaluators are edge-triggered: a rule
+ * fires once when its condition becomes true and re-arms when it clears.
+ */
+abstract class AlertEvaluator {
+
+    final AlertRule rule;
+
+    AlertEvaluator(AlertRule rule) {
+        this.rule = rule;
+    }
+
+    static AlertEvaluator compile(AlertRule rule) {
+        return switch (rule.getType()) {
+            case SCORE_ABOVE -> new Consecutive(rule);
+            case P95_ABOVE -> new QuantileAbove(rule, 0.95);
+            case OFFLINE -> null; // driven by connectivity transitions, not readings
+        };
+    }
+
+    /**
+     * Feeds a reading and returns the value to report if the rule just
+     * started firing for the device, NaN otherwise.
+     */
+    abstract double onScore(ObjectId deviceId, long t, double score);
+
+    abstract void forget(ObjectId deviceId);
+
+    abstract String describe(double value);
+
+    /**
+     * score > threshold for N consecutive readings: a run length per device.
+     */
+    static final class Consecutive extends AlertEvaluator {
+
+        private final ConcurrentHashMap<ObjectId, int[]> runs = new ConcurrentHashMap<>();
+
+        Consecutive(AlertRule rule) {
+            super(rule);
+        }
+
+        @Override
+        double onScore(ObjectId deviceId, long t, double score) {
+            int[] run = runs.computeIfAbsent(deviceId, id -> new int[1]);
+            synchronized (run) {
+                if (score <= rule.getThreshold()) {
+                    run[0] = 0;
+                    return Double.NaN;
+                }
+                // Saturate instead of counting forever so the rule fires once per run
+                if (run[0] <= rule.getCount()) {
+                    run[0]++;
+                }
+                return run[0] == rule.getCount() ? score : Double.NaN;
+            }
+        }
+
+        @Override
+        void forget(ObjectId deviceId) {
+            runs.remove(deviceId);
+        }
+
+        @Override
+        String describe(double value) {
+            return rule.getCount() + " consecutive scores above " + rule.getThreshold() + " (last " + value + ")";
+        }
+    }
+
+    /**
+     * q-quantile of the last M minutes > threshold. The quantile exceeds the
+     * threshold exactly when more than (1 - q) of the readings do, so only the
+     * number of readings and of readings above the threshold are kept, in a
+     * ring of one-minute slots.
+     */
+    static final class QuantileAbove extends AlertEvaluator {
+
+        private static final long SLOT_MILLIS = 60_000;
+        // Too few readings make any share meaningless
+        private static final int MIN_READINGS = 10;
+
+        private final double quantile;
+        private final int slots;
+        private final ConcurrentHashMap<ObjectId, Window> windows = new ConcurrentHashMap<>();
+
+        QuantileAbove(AlertRule rule, double quantile) {
+            super(rule);
+            this.quantile = quantile;
+            this.slots = rule.getMinutes();
+        }
+
+        @Override
+        double onScore(ObjectId deviceId, long t, double score) {
+            Window w = windows.computeIfAbsent(deviceId, id -> new Window(slots));
+            synchronized (w) {
+                w.advance(t / SLOT_MILLIS);
+                int slot = (int) Math.floorMod(w.head, (long) slots);
+                w.total[slot]++;
+                w.totalSum++;
+                if (score > rule.getThreshold()) {
+                    w.above[slot]++;
+                    w.aboveSum++;
+                }
+                boolean exceeded = w.totalSum >= MIN_READINGS && w.aboveSum > (1 - quantile) * w.totalSum;
+                boolean fire = exceeded && !w.firing;
+                w.firing = exceeded;
+                return fire ? (double) w.aboveSum / w.totalSum : Double.NaN;
+            }
+        }
+
+        @Override
+        void forget(ObjectId deviceId) {
+            windows.remove(deviceId);
+        }
+
+        @Override
+        String describe(double share) {
+            return String.format("p%d of the last %d min above %s (%.0f%% of readings)",
+                    Math.round(quantile * 100), slots, rule.getThreshold(), share * 100);
+        }
+
+        private static final class Window {
+
+            final int[] total;
+            final int[] above;
+            long head = Long.MIN_VALUE;
+            int totalSum;
+            int aboveSum;
+            boolean firing;
+
+            Window(int slots) {
+                total = new int[slots];
+                above = new int[slots];
+            }
+
+            // Clears the slots that fell out of the window, at most one full turn
+            void advance(long minute) {
+                if (head == Long.MIN_VALUE || minute - head >= total.length) {
+                    Arrays.fill(total, 0);
+                    Arrays.fill(above, 0);
+                    totalSum = 0;
+                    aboveSum = 0;
+                    head = minute;
+                    return;
+                }
+                while (head < minute) {
+                    head++;
+                    int slot = (int) Math.floorMod(head, (long) total.length);
+                    totalSum -= total[slot];
+                    aboveSum -= above[slot];
+                    total[slot] = 0;
+                    above[slot] = 0;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package MachinaEar.devices.controllers.services;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bson.types.ObjectId;
+
+import MachinaEar.devices.controllers.managers.DeviceChanged;
+import MachinaEar.devices.controllers.repositories.DeviceRepository;
+import MachinaEar.devices.entities.Device;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+
+/**
+ * Live ranking of devices by latest anomaly score, fleet-wide and per owner.
+ * Each ranking is an indexed max-heap updated in O(log n) per score, so a
+ * top-K query never sorts the fleet. Seeded once from the stored scores.
+ */
+@ApplicationScoped
+public class AnomalyRankingService {
+
+    @Inject
+    DeviceRepository deviceRepository;
+
+    private final IndexedMaxHeap<ObjectId, RankedDevice> global = new IndexedMaxHeap<>();
+    private final ConcurrentHashMap<ObjectId, IndexedMaxHeap<ObjectId, RankedDevice>> owners = new ConcurrentHashMap<>();
+    // Owner each ranked device is filed under, to move it when it changes hands
+    private final ConcurrentHashMap<ObjectId, ObjectId> ownerOf = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        for (Device device : deviceRepository.findAllStates()) {
+            // Skip devices a live write already ranked while we were scanning
+            boolean ranked;
+            synchronized (global) {
+                ranked = global.contains(device.getId());
+            }
+            if (!ranked) {
+                record(device);
+            }
+        }
+    }
+
+    public void onDeviceChanged(@Observes DeviceChanged change) {
+        if (change.deleted()) {
+            remove(change.device());
+        } else {
+            record(change.device());
+        }
+    }
+
+    // Re-ranks a device after a write; devices without a score are left out
+    private void record(Device device) {
+        if (device.getId() == null || device.getAnomalyScore() == null) {
+            return;
+        }
+        RankedDevice entry = new RankedDevice(device.getId().toHexString(), device.getName(),
+                device.getAnomalyScore(), device.getLastAnomalyDetection(), Boolean.TRUE.equals(device.getIsOnline()));
+        synchronized (global) {
+            global.upsert(device.getId(), entry.score(), entry);
+        }
+        ObjectId owner = device.getIdentityId();
+        ObjectId previous = owner == null ? ownerOf.remove(device.getId()) : ownerOf.put(device.getId(), owner);
+        if (previous != null && !previous.equals(owner)) {
+            removeFrom(owners.get(previous), device.getId());
+        }
+        if (owner != null) {
+            IndexedMaxHeap<ObjectId, RankedDevice> heap = owners.computeIfAbsent(owner, k -> new IndexedMaxHeap<>());
+            synchronized (heap) {
+                heap.upsert(device.getId(), entry.score(), entry);
+            }
+        }
+    }
+
+    private void remove(Device device) {
+        if (device.getId() == null) {
+            return;
+        }
+        removeFrom(global, device.getId());
+        ObjectId owner = ownerOf.remove(device.getId());
+        if (owner != null) {
+            removeFrom(owners.get(owner), device.getId());
+        }
+    }
+
+    public List<RankedDevice> topGlobal(int k) {
+        synchronized (global) {
+            return global.top(k);
+        }
+    }
+
+    public List<RankedDevice> topForOwner(ObjectId identityId, int k) {
+        IndexedMaxHeap<ObjectId, RankedDevice> heap = owners.get(identityId);
+        if (heap == null) {
+            return List.of();
+        }
+        synchronized (heap) {
+            return heap.top(k);
+        }
+    }
+
+    private static void removeFrom(IndexedMaxHeap<ObjectId, RankedDevice> heap, ObjectId deviceId) {
+        if (heap != null) {
+            synchronized (heap) {
+                heap.remove(deviceId);
+            }
+        }
+    }
+
+    public static record RankedDevice(String id, String name, double score, Instant detectedAt, boolean online) {}
+}
@@ -0,0 +1,199 @@
+package MachinaEar.devices.controllers.services;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.bson.types.ObjectId;
+
+import MachinaEar.devices.controllers.managers.DeviceChanged;
+import MachinaEar.devices.controllers.repositories.ArchiveRepository;
+import MachinaEar.devices.controllers.repositories.RollupRepository;
+import MachinaEar.devices.controllers.repositories.TelemetryRepository;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import jakarta.enterprise.concurrent.ManagedScheduledExecutorService;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+
+/**
+ * Background job moving raw readings older than ARCHIVE_AFTER_DAYS out of
+ * the telemetry collections into archived segments, one UTC day at a time.
+ * A day is only archived once its minute rollups exist, since rollups are
+ * built from raw readings. Each device's day is written to its segment file
+ * before it is deleted from the collection, and the horizon only moves once
+ * the whole day is done, so an interrupted run is simply redone. Readings
+ * written late for a day already archived are merged into a new segment of
+ * that day on the next run; until then history reads them from Mongo. Only
+ * the node holding the archiving lease runs the job; the lease is renewed as
+ * the work progresses.
+ *
+ * Deleting a time range from a time-series collection needs MongoDB 7.0, so
+ * on older servers nothing is archived and an error is logged.
+ */
+@ApplicationScoped
+public class ArchiveService {
+
+    private static final Logger LOGGER = Logger.getLogger(ArchiveService.class.getName());
+
+    private static final long RUN_INTERVAL_MINUTES = 60;
+    private static final Duration LEASE = Duration.ofMinutes(10);
+    private static final Duration ARCHIVE_AFTER = Duration.ofDays(Long.parseLong(
+            System.getenv().getOrDefault("ARCHIVE_AFTER_DAYS", "30")));
+    private static final int MIN_MONGO_VERSION = 7;
+
+    @Resource
+    ManagedScheduledExecutorService scheduler;
+
+    @Inject
+    ArchiveRepository archives;
+
+    @Inject
+    TelemetryRepository telemetry;
+
+    @Inject
+    RollupRepository rollups;
+
+    private final String owner = UUID.randomUUID().toString();
+    private volatile Boolean supported;
+    private ScheduledFuture<?> task;
+
+    public void start(@Observes @Initialized(ApplicationScoped.class) Object init) {
+        task = scheduler.scheduleWithFixedDelay(this::run, RUN_INTERVAL_MINUTES, RUN_INTERVAL_MINUTES,
+                TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+
+    /**
+     * Drops the archived readings of a deleted device.
+     */
+    public void onDeviceChanged(@Observes DeviceChanged change) {
+        if (change.deleted()) {
+            try {
+                archives.deleteDevice(change.device().getId());
+            } catch (Exception e) {
+                LOGGER.warning("Failed to delete archive of device " + change.device().getId() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    void run() {
+        try {
+            if (!supported() || !archives.acquireLease(owner, LEASE)) {
+                return;
+            }
+        } catch (Exception e) {
+            LOGGER.severe("Archive lease failed: " + e.getMessage());
+            return;
+        }
+        try {
+            RollupService.SERIES.forEach((series, fields) -> {
+                try {
+                    mergeLate(series, fields);
+                    archive(series, fields);
+                } catch (Exception e) {
+                    LOGGER.severe("Archiving of " + series + " failed: " + e.getMessage());
+                }
+            });
+            int purged = archives.purgeReplaced();
+            if (purged > 0) {
+                LOGGER.info("Deleted " + purged + " replaced archive segments");
+            }
+        } finally {
+            archives.releaseLease(owner);
+        }
+    }
+
+    private boolean supported() {
+        if (supported == null) {
+            int version = telemetry.serverMajorVersion();
+            supported = version >= MIN_MONGO_VERSION;
+            if (!supported) {
+                LOGGER.severe("Telemetry archiving needs MongoDB " + MIN_MONGO_VERSION + ".0 or later, found "
+                        + version + ": nothing is archived");
+            }
+        }
+        return supported;
+    }
+
+    // Merges readings written after their day was archived into a new segment of that day
+    private void mergeLate(String series, List<String> fields) throws IOException {
+        Instant horizon = archives.horizon(series);
+        if (horizon == null) {
+            return;
+        }
+        Instant done = null;
+        Instant earliest;
+        while ((earliest = rollups.earliestRaw(series)) != null && earliest.isBefore(horizon)) {
+            Instant day = Resolution.DAY.floor(earliest);
+            if (done != null && !day.isAfter(done)) {
+                // Still arriving for a day just merged: left for the next run
+                break;
+            }
+            Instant next = day.plus(Duration.ofDays(1));
+            LocalDate date = LocalDate.ofInstant(day, ZoneOffset.UTC);
+            for (ObjectId deviceId : telemetry.devicesWithReadings(series, day, next)) {
+                if (!archives.acquireLease(owner, LEASE)) {
+                    throw new IllegalStateException("Archive lease lost");
+                }
+                TelemetryRepository.Columns late = telemetry.readColumns(series, fields, deviceId, day, next);
+                TelemetryRepository.Columns archived = archives.read(series, deviceId, date, fields);
+                if (late.rows() > 0) {
+                    archives.write(series, deviceId, date, fields, archived == null ? late : archived.merge(late));
+                }
+                telemetry.deleteRange(series, deviceId, day, next);
+            }
+            LOGGER.info("Merged late " + series + " readings into the archive of " + date);
+            done = day;
+        }
+    }
+
+    private void archive(String series, List<String> fields) throws IOException {
+        Instant rolled = rollups.watermark(series, Resolution.MINUTE);
+        if (rolled == null) {
+            return;
+        }
+        Instant cutoff = Instant.now().minus(ARCHIVE_AFTER);
+        Instant limit = Resolution.DAY.floor(cutoff.isBefore(rolled) ? cutoff : rolled);
+        Instant day = archives.horizon(series);
+        if (day == null) {
+            Instant earliest = rollups.earliestRaw(series);
+            if (earliest == null) {
+                return;
+            }
+            day = Resolution.DAY.floor(earliest);
+        }
+        while (day.isBefore(limit)) {
+            Instant next = day.plus(Duration.ofDays(1));
+            LocalDate date = LocalDate.ofInstant(day, ZoneOffset.UTC);
+            for (ObjectId deviceId : telemetry.devicesWithReadings(series, day, next)) {
+                if (!archives.acquireLease(owner, LEASE)) {
+                    throw new IllegalStateException("Archive lease lost");
+                }
+                TelemetryRepository.Columns columns = telemetry.readColumns(series, fields, deviceId, day, next);
+                if (columns.rows() > 0) {
+                    archives.write(series, deviceId, date, fields, columns);
+                }
+                telemetry.deleteRange(series, deviceId, day, next);
+            }
+            archives.advanceHorizon(series, next);
+            LOGGER.info("Archived " + series + " for " + date);
+            day = next;
+        }
+    }
+}
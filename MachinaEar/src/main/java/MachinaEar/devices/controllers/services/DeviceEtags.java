@@ -0,0 +1,41 @@
+package MachinaEar.devices.controllers.services;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+import org.bson.types.ObjectId;
+
+import MachinaEar.devices.controllers.repositories.DeviceRepository;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.core.EntityTag;
+
+/**
+ * ETags of device resources, derived from the per-owner change counter the
+ * repository increments in Mongo with every device write. The counter is
+ * shared by all nodes and survives restarts, so a conditional GET is
+ * answered with one read by key instead of reading the devices.
+ */
+@ApplicationScoped
+public class DeviceEtags {
+
+    @Inject
+    DeviceRepository devices;
+
+    /**
+     * Strong ETag for one representation of an owner's devices: the owner's
+     * version followed by the resource and its query parameters, verbatim
+     * (URL-encoded), so two representations never share a tag.
+     */
+    public EntityTag etag(ObjectId identityId, String resource, Object... params) {
+        StringBuilder value = new StringBuilder(Long.toString(devices.version(identityId), 36))
+                .append(';').append(resource);
+        for (Object param : params) {
+            value.append(';');
+            if (param != null) {
+                value.append(URLEncoder.encode(param.toString(), StandardCharsets.UTF_8));
+            }
+        }
+        return new EntityTag(value.toString());
+    }
+}
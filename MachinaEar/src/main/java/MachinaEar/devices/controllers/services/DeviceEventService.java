@@ -0,0 +1,133 @@
+package MachinaEar.devices.controllers.services;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import org.bson.types.ObjectId;
+
+import MachinaEar.devices.controllers.managers.DeviceChanged;
+import MachinaEar.devices.controllers.repositories.DeviceEventRepository;
+import MachinaEar.devices.controllers.repositories.DeviceRepository;
+import MachinaEar.devices.entities.Device;
+import MachinaEar.devices.entities.DeviceEvent;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+
+/**
+ * Turns device writes into transition events. The last known status, online
+ * and pairing state of each device is kept in memory (seeded at startup), so
+ * a write only reaches the event log when one of them changed.
+ */
+@ApplicationScoped
+public class DeviceEventService {
+
+    private static final Logger LOGGER = Logger.getLogger(DeviceEventService.class.getName());
+
+    @Inject
+    DeviceRepository deviceRepository;
+
+    @Inject
+    DeviceEventRepository events;
+
+    @Inject
+    AlertEngine alerts;
+
+    private final ConcurrentHashMap<ObjectId, State> states = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        for (Device device : deviceRepository.findAllStates()) {
+            states.putIfAbsent(device.getId(), State.of(device));
+        }
+        LOGGER.info("Device event tracking seeded with " + states.size() + " devices");
+    }
+
+    public void onDeviceChanged(@Observes DeviceChanged change) {
+        if (change.deleted()) {
+            remove(change.device());
+        } else {
+            record(change.device());
+        }
+    }
+
+    // Logs the transitions between the last known state of a device and this one
+    private void record(Device device) {
+        if (device.getId() == null) {
+            return;
+        }
+        State next = State.of(device);
+        Instant now = Instant.now();
+        List<DeviceEvent> transitions = new ArrayList<>(2);
+        states.compute(device.getId(), (id, previous) -> {
+            diff(id, previous, next, now, transitions);
+            return next;
+        });
+        append(transitions);
+        for (DeviceEvent e : transitions) {
+            if (e.getType() == DeviceEvent.Type.ONLINE || e.getType() == DeviceEvent.Type.OFFLINE) {
+                alerts.onConnectivity(device, e.getType() == DeviceEvent.Type.ONLINE, now);
+            }
+        }
+    }
+
+    // Logs a deleted paired device as unpaired and forgets it
+    private void remove(Device device) {
+        if (device.getId() == null) {
+            return;
+        }
+        State previous = states.remove(device.getId());
+        if (previous != null && previous.paired()) {
+            append(List.of(new DeviceEvent(device.getId(), previous.owner(), DeviceEvent.Type.UNPAIRED,
+                    Instant.now())));
+        }
+    }
+
+    private static void diff(ObjectId id, State previous, State next, Instant at, List<DeviceEvent> out) {
+        if (previous == null) {
+            // First sighting: only a device created already paired is a transition
+            if (next.paired()) {
+                out.add(new DeviceEvent(id, next.owner(), DeviceEvent.Type.PAIRED, at));
+            }
+            return;
+        }
+        if (previous.paired() && (!next.paired() || !Objects.equals(previous.owner(), next.owner()))) {
+            out.add(new DeviceEvent(id, previous.owner(), DeviceEvent.Type.UNPAIRED, at));
+        }
+        if (next.paired() && (!previous.paired() || !Objects.equals(previous.owner(), next.owner()))) {
+            out.add(new DeviceEvent(id, next.owner(), DeviceEvent.Type.PAIRED, at));
+        }
+        if (previous.online() != next.online()) {
+            out.add(new DeviceEvent(id, next.owner(), next.online() ? DeviceEvent.Type.ONLINE
+                    : DeviceEvent.Type.OFFLINE, at));
+        }
+        if (!Objects.equals(previous.status(), next.status())) {
+            DeviceEvent e = new DeviceEvent(id, next.owner(), DeviceEvent.Type.STATUS_CHANGED, at);
+            e.setFromStatus(previous.status());
+            e.setToStatus(next.status());
+            out.add(e);
+        }
+    }
+
+    // The log is diagnostic: a failed insert must not fail the device write
+    private void append(List<DeviceEvent> transitions) {
+        try {
+            events.append(transitions);
+        } catch (Exception e) {
+            LOGGER.warning("Failed to log device transitions: " + e.getMessage());
+        }
+    }
+
+    private record State(ObjectId owner, String status, boolean online, boolean paired) {
+
+        static State of(Device device) {
+            return new State(device.getIdentityId(), device.getStatus(),
+                    Boolean.TRUE.equals(device.getIsOnline()), Boolean.TRUE.equals(device.getIsPaired()));
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package MachinaEar.devices.controllers.services;
+
+import java.time.Instant;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import MachinaEar.devices.controllers.managers.DeviceManager;
+import MachinaEar.devices.controllers.repositories.DeviceRepository;
+import MachinaEar.devices.entities.Device;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+import jakarta.enterprise.concurrent.ManagedScheduledExecutorService;
+import jakarta.inject.Inject;
+
+/**
+ * Periodically switches devices offline when their heartbeat is older than
+ * DEVICE_OFFLINE_TIMEOUT_SECONDS. The Pi agent sends a heartbeat every 60s.
+ */
+@ApplicationScoped
+public class DeviceOfflineDetector {
+
+    private static final Logger LOGGER = Logger.getLogger(DeviceOfflineDetector.class.getName());
+
+    private static final long TIMEOUT_SECONDS = Long.parseLong(
+            System.getenv().getOrDefault("DEVICE_OFFLINE_TIMEOUT_SECONDS", "180"));
+    private static final long SCAN_INTERVAL_SECONDS = 30;
+
+    @Resource
+    ManagedScheduledExecutorService scheduler;
+
+    @Inject
+    DeviceRepository deviceRepository;
+
+    @Inject
+    DeviceManager deviceManager;
+
+    @Inject
+    DeviceWebSocketEndpoint webSocketEndpoint;
+
+    private ScheduledFuture<?> task;
+
+    public void start(@Observes @Initialized(ApplicationScoped.class) Object init) {
+        task = scheduler.scheduleWithFixedDelay(this::scan, SCAN_INTERVAL_SECONDS, SCAN_INTERVAL_SECONDS,
+                TimeUnit.SECONDS);
+        LOGGER.info("Device offline detection started (timeout " + TIMEOUT_SECONDS + "s)");
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+
+    void scan() {
+        try {
+            Instant cutoff = Instant.now().minusSeconds(TIMEOUT_SECONDS);
+            for (Device device : deviceRepository.findStaleOnline(cutoff)) {
+                if (deviceManager.markOffline(device, cutoff)) {
+                    LOGGER.info("Device " + device.getId() + " went offline");
+                    webSocketEndpoint.broadcastDeviceUpdate(device);
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.severe("Offline detection failed: " + e.getMessage());
+        }
+    }
+}
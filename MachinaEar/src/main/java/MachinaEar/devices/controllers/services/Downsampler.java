@@ -0,0 +1,174 @@
+package MachinaEar.devices.controllers.services;
+
+import java.util.Arrays;
+
+/**
+ * Streaming downsampler for time series read in time order. The range is cut
+ * into equal time buckets and each bucket is reduced as soon as the next one
+ * is complete, so memory stays proportional to one bucket, not to the range.
+ *
+ * LTTB keeps one point per bucket using Largest-Triangle-Three-Buckets (the
+ * point forming the largest triangle with the previously kept point and the
+ * average of the next bucket), plus the first and last samples. MINMAX keeps
+ * the lowest and highest sample of each bucket, preserving spikes.
+ */
+public final class Downsampler implements SampleSink {
+
+    public enum Mode { LTTB, MINMAX }
+
+    private final Mode mode;
+    private final long from;
+    private final double bucketWidth;
+    private final Buffer out = new Buffer();
+
+    private Buffer pending = new Buffer(); // complete bucket waiting for the next one (LTTB)
+    private Buffer current = new Buffer();
+    private long currentBucket = -1;
+    private boolean first = true;
+    private long anchorTs;
+    private double anchorValue;
+    private long lastTs;
+    private double lastValue;
+
+    public Downsampler(Mode mode, long from, long to, int points) {
+        this.mode = mode;
+        this.from = from;
+        int buckets = mode == Mode.LTTB ? Math.max(1, points - 2) : Math.max(1, points / 2);
+        this.bucketWidth = Math.max(1.0, (double) (to - from) / buckets);
+    }
+
+    @Override
+    public void accept(long timestamp, double value) {
+        lastTs = timestamp;
+        lastValue = value;
+        if (first && mode == Mode.LTTB) {
+            // The first sample is always kept and anchors the first triangle
+            first = false;
+            anchorTs = timestamp;
+            anchorValue = value;
+            out.add(timestamp, value);
+            return;
+        }
+        first = false;
+        long bucket = (long) ((timestamp - from) / bucketWidth);
+        if (bucket != currentBucket && current.size > 0) {
+            closeBucket();
+        }
+        currentBucket = bucket;
+        current.add(timestamp, value);
+    }
+
+    /**
+     * Flushes the trailing buckets and returns the kept samples.
+     */
+    public Series finish() {
+        if (mode == Mode.LTTB) {
+            if (pending.size > 0) {
+                select(pending, current.size > 0 ? current.avgTs() : lastTs,
+                        current.size > 0 ? current.avgValue() : lastValue);
+            }
+            if (current.size > 1) {
+                // The last sample is kept on its own, so it is not a candidate here
+                current.size--;
+                select(current, lastTs, lastValue);
+            }
+            if (!first && (out.size == 0 || out.ts[out.size - 1] != lastTs)) {
+                out.add(lastTs, lastValue);
+            }
+        } else if (current.size > 0) {
+            emitMinMax(current);
+        }
+        return new Series(Arrays.copyOf(out.ts, out.size), Arrays.copyOf(out.values, out.size));
+    }
+
+    private void closeBucket() {
+        if (mode == Mode.MINMAX) {
+            emitMinMax(current);
+            current.clear();
+            return;
+        }
+        if (pending.size > 0) {
+            select(pending, current.avgTs(), current.avgValue());
+        }
+        Buffer done = pending;
+        pending = current;
+        current = done;
+        current.clear();
+    }
+
+    private void select(Buffer bucket, double nextTs, double nextValue) {
+        int best = 0;
+        double bestArea = -1;
+        for (int i = 0; i < bucket.size; i++) {
+            // Twice the triangle area; the factor does not change the argmax
+            double area = Math.abs((anchorTs - nextTs) * (bucket.values[i] - anchorValue)
+                    - (anchorTs - bucket.ts[i]) * (nextValue - anchorValue));
+            if (area > bestArea) {
+                bestArea = area;
+                best = i;
+            }
+        }
+        anchorTs = bucket.ts[best];
+        anchorValue = bucket.values[best];
+        out.add(anchorTs, anchorValue);
+    }
+
+    private void emitMinMax(Buffer bucket) {
+        int min = 0;
+        int max = 0;
+        for (int i = 1; i < bucket.size; i++) {
+            if (bucket.values[i] < bucket.values[min]) {
+                min = i;
+            }
+            if (bucket.values[i] > bucket.values[max]) {
+                max = i;
+            }
+        }
+        int a = Math.min(min, max);
+        int b = Math.max(min, max);
+        out.add(bucket.ts[a], bucket.values[a]);
+        if (b != a) {
+            out.add(bucket.ts[b], bucket.values[b]);
+        }
+    }
+
+    private static final class Buffer {
+
+        long[] ts = new long[64];
+        double[] values = new double[64];
+        int size;
+
+        void add(long t, double v) {
+            if (size == ts.length) {
+                ts = Arrays.copyOf(ts, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            ts[size] = t;
+            values[size] = v;
+            size++;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        double avgTs() {
+            // Offsets from the first sample keep the sum well inside double precision
+            double sum = 0;
+            for (int i = 0; i < size; i++) {
+                sum += ts[i] - ts[0];
+            }
+            return ts[0] + sum / size;
+        }
+
+        double avgValue() {
+            double sum = 0;
+            for (int i = 0; i < size; i++) {
+                sum += values[i];
+            }
+            return sum / size;
+        }
+    }
+
+    public static record Series(long[] timestamps, double[] values) {}
+}
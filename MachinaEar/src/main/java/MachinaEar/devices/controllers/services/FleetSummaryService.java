@@ -0,0 +1,153 @@
+package MachinaEar.devices.controllers.services;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+import org.bson.types.ObjectId;
+
+import MachinaEar.devices.controllers.managers.DeviceChanged;
+import MachinaEar.devices.controllers.repositories.DeviceRepository;
+import MachinaEar.devices.entities.Device;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+
+/**
+ * In-memory fleet counters by status, type and online state, kept per owner
+ * and globally. The last known state of each device is remembered so every
+ * write only applies the delta between the old and new state; the devices
+ * collection is scanned once at startup to seed the counters.
+ */
+@ApplicationScoped
+public class FleetSummaryService {
+
+    private static final Logger LOGGER = Logger.getLogger(FleetSummaryService.class.getName());
+
+    @Inject
+    DeviceRepository deviceRepository;
+
+    private final ConcurrentHashMap<ObjectId, DeviceState> states = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<ObjectId, Counters> owners = new ConcurrentHashMap<>();
+    private final Counters global = new Counters();
+
+    @PostConstruct
+    public void init() {
+        int seeded = 0;
+        for (Device device : deviceRepository.findAllStates()) {
+            DeviceState state = DeviceState.of(device);
+            // A write that raced the scan already holds the fresher state
+            states.compute(device.getId(), (id, current) -> {
+                if (current != null) {
+                    return current;
+                }
+                apply(state, 1);
+                return state;
+            });
+            seeded++;
+        }
+        LOGGER.info("Fleet summary seeded with " + seeded + " devices");
+    }
+
+    public void onDeviceChanged(@Observes DeviceChanged change) {
+        if (change.deleted()) {
+            remove(change.device());
+        } else {
+            record(change.device());
+        }
+    }
+
+    // Current state of a device after it was created or updated
+    private void record(Device device) {
+        if (device.getId() == null) {
+            return;
+        }
+        DeviceState next = DeviceState.of(device);
+        states.compute(device.getId(), (id, previous) -> {
+            if (next.equals(previous)) {
+                return previous;
+            }
+            if (previous != null) {
+                apply(previous, -1);
+            }
+            apply(next, 1);
+            return next;
+        });
+    }
+
+    private void remove(Device device) {
+        if (device.getId() == null) {
+            return;
+        }
+        states.computeIfPresent(device.getId(), (id, previous) -> {
+            apply(previous, -1);
+            return null;
+        });
+    }
+
+    public FleetSummary ownerSummary(ObjectId identityId) {
+        Counters c = owners.get(identityId);
+        return c == null ? new Counters().snapshot() : c.snapshot();
+    }
+
+    public FleetSummary globalSummary() {
+        return global.snapshot();
+    }
+
+    private void apply(DeviceState state, int delta) {
+        global.add(state, delta);
+        if (state.owner() != null) {
+            owners.computeIfAbsent(state.owner(), k -> new Counters()).add(state, delta);
+        }
+    }
+
+    private record DeviceState(ObjectId owner, String status, String type, boolean online) {
+
+        static DeviceState of(Device device) {
+            return new DeviceState(device.getIdentityId(),
+                    device.getStatus() != null ? device.getStatus() : "unknown",
+                    device.getType() != null ? device.getType() : "unknown",
+                    Boolean.TRUE.equals(device.getIsOnline()));
+        }
+    }
+
+    private static final class Counters {
+
+        final LongAdder total = new LongAdder();
+        final LongAdder online = new LongAdder();
+        final ConcurrentHashMap<String, LongAdder> byStatus = new ConcurrentHashMap<>();
+        final ConcurrentHashMap<String, LongAdder> byType = new ConcurrentHashMap<>();
+
+        void add(DeviceState state, int delta) {
+            total.add(delta);
+            if (state.online()) {
+                online.add(delta);
+            }
+            byStatus.computeIfAbsent(state.status(), k -> new LongAdder()).add(delta);
+            byType.computeIfAbsent(state.type(), k -> new LongAdder()).add(delta);
+        }
+
+        FleetSummary snapshot() {
+            long t = total.sum();
+            long on = online.sum();
+            return new FleetSummary(t, on, t - on, nonZero(byStatus), nonZero(byType));
+        }
+
+        private static Map<String, Long> nonZero(Map<String, LongAdder> counters) {
+            Map<String, Long> out = new TreeMap<>();
+            counters.forEach((k, v) -> {
+                long n = v.sum();
+                if (n != 0) {
+                    out.put(k, n);
+                }
+            });
+            return out;
+        }
+    }
+
+    public static record FleetSummary(long total, long online, long offline,
+                                      Map<String, Long> byStatus, Map<String, Long> byType) {}
+}
@@ -0,0 +1,206 @@
+package MachinaEar.devices.controllers.services;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-capacity block of (timestamp, value) samples compressed as in Facebook's
+ * Gorilla: timestamps as delta-of-delta with variable-length prefixes, values
+ * as the XOR with the previous value, storing only its meaningful bits. The
+ * bit stream lives in a preallocated long[] so a block can be reset and reused
+ * without allocating. Not thread-safe.
+ */
+final class GorillaBlock {
+
+    // Worst case for one sample: 4 + 64 timestamp bits, 2 + 5 + 6 + 64 value bits
+    private static final int MAX_SAMPLE_BITS = 145;
+
+    private final long[] words;
+    private int bitPos;
+    private int count;
+
+    private long firstTimestamp;
+    private long lastTimestamp;
+    private long lastDelta;
+    private long lastValueBits;
+    private int lastLeading = Integer.MAX_VALUE;
+    private int lastTrailing;
+
+    GorillaBlock(int words) {
+        this.words = new long[words];
+    }
+
+    void reset() {
+        Arrays.fill(words, 0L);
+        bitPos = 0;
+        count = 0;
+        lastDelta = 0;
+        lastLeading = Integer.MAX_VALUE;
+        lastTrailing = 0;
+    }
+
+    int count() {
+        return count;
+    }
+
+    long firstTimestamp() {
+        return firstTimestamp;
+    }
+
+    long lastTimestamp() {
+        return lastTimestamp;
+    }
+
+    boolean hasRoom() {
+        return (long) words.length * 64 - bitPos >= MAX_SAMPLE_BITS;
+    }
+
+    /**
+     * Appends a sample; timestamps must not go backwards. Callers check hasRoom() first.
+     */
+    void append(long timestamp, double value) {
+        long valueBits = Double.doubleToRawLongBits(value);
+        if (count == 0) {
+            firstTimestamp = timestamp;
+            write(timestamp, 64);
+            write(valueBits, 64);
+        } else {
+            long delta = timestamp - lastTimestamp;
+            writeDeltaOfDelta(delta - lastDelta);
+            lastDelta = delta;
+            writeXor(valueBits ^ lastValueBits);
+        }
+        lastTimestamp = timestamp;
+        lastValueBits = valueBits;
+        count++;
+    }
+
+    /**
+     * Decodes every sample with a timestamp at or after {@code from}, in order.
+     */
+    void decode(long from, SampleSink sink) {
+        if (count == 0 || lastTimestamp < from) {
+            return;
+        }
+        Reader r = new Reader();
+        long ts = r.read(64);
+        long bits = r.read(64);
+        long delta = 0;
+        int leading = 0;
+        int trailing = 0;
+        if (ts >= from) {
+            sink.accept(ts, Double.longBitsToDouble(bits));
+        }
+        for (int i = 1; i < count; i++) {
+            delta += readDeltaOfDelta(r);
+            ts += delta;
+            if (r.read(1) == 1) {
+                if (r.read(1) == 1) {
+                    leading = (int) r.read(5);
+                    int length = (int) r.read(6) + 1;
+                    trailing = 64 - leading - length;
+                }
+                int length = 64 - leading - trailing;
+                bits ^= r.read(length) << trailing;
+            }
+            if (ts >= from) {
+                sink.accept(ts, Double.longBitsToDouble(bits));
+            }
+        }
+    }
+
+    private void writeDeltaOfDelta(long dod) {
+        if (dod == 0) {
+            write(0, 1);
+        } else if (dod >= -64 && dod <= 63) {
+            write(0b10, 2);
+            write(dod, 7);
+        } else if (dod >= -256 && dod <= 255) {
+            write(0b110, 3);
+            write(dod, 9);
+        } else if (dod >= -2048 && dod <= 2047) {
+            write(0b1110, 4);
+            write(dod, 12);
+        } else {
+            write(0b1111, 4);
+            write(dod, 64);
+        }
+    }
+
+    private static long readDeltaOfDelta(Reader r) {
+        if (r.read(1) == 0) {
+            return 0;
+        }
+        if (r.read(1) == 0) {
+            return signExtend(r.read(7), 7);
+        }
+        if (r.read(1) == 0) {
+            return signExtend(r.read(9), 9);
+        }
+        if (r.read(1) == 0) {
+            return signExtend(r.read(12), 12);
+        }
+        return r.read(64);
+    }
+
+    private void writeXor(long xor) {
+        if (xor == 0) {
+            write(0, 1);
+            return;
+        }
+        write(1, 1);
+        int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+        int trailing = Long.numberOfTrailingZeros(xor);
+        if (leading >= lastLeading && trailing >= lastTrailing) {
+            // Meaningful bits fit in the previous window
+            write(0, 1);
+            write(xor >>> lastTrailing, 64 - lastLeading - lastTrailing);
+        } else {
+            int length = 64 - leading - trailing;
+            write(1, 1);
+            write(leading, 5);
+            write(length - 1, 6);
+            write(xor >>> trailing, length);
+            lastLeading = leading;
+            lastTrailing = trailing;
+        }
+    }
+
+    private void write(long value, int n) {
+        if (n < 64) {
+            value &= (1L << n) - 1;
+        }
+        int word = bitPos >>> 6;
+        int offset = bitPos & 63;
+        int free = 64 - offset;
+        if (n <= free) {
+            words[word] |= value << (free - n);
+        } else {
+            words[word] |= value >>> (n - free);
+            words[word + 1] |= value << (64 - (n - free));
+        }
+        bitPos += n;
+    }
+
+    private static long signExtend(long value, int n) {
+        return (value << (64 - n)) >> (64 - n);
+    }
+
+    private final class Reader {
+
+        private int pos;
+
+        long read(int n) {
+            int word = pos >>> 6;
+            int offset = pos & 63;
+            int avail = 64 - offset;
+            long value;
+            if (n <= avail) {
+                value = words[word] >>> (avail - n);
+            } else {
+                value = (words[word] << (n - avail)) | (words[word + 1] >>> (64 - (n - avail)));
+            }
+            pos += n;
+            return n == 64 ? value : value & ((1L << n) - 1);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package MachinaEar.devices.controllers.services;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import org.bson.types.ObjectId;
+
+import MachinaEar.devices.controllers.managers.DeviceChanged;
+import MachinaEar.devices.controllers.repositories.ArchiveRepository;
+import MachinaEar.devices.controllers.repositories.RollupRepository;
+import MachinaEar.devices.controllers.repositories.TelemetryRepository;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+
+/**
+ * Downsampled history of a device metric (anomaly score or one of the vitals). Readings are streamed from Mongo through
+ * a Downsampler, so only the requested number of points is ever held. The
+ * coarsest rollup that still gives at least one bucket per requested point is
+ * read for the part of the range it covers, raw readings for the rest.
+ * Ranges that ended before the ingest horizon only change when readings are
+ * written late, and are kept in an LRU cache bounded by the total number of
+ * cached points; late ranges recorded by any node are checked every few
+ * seconds and drop the cached ranges they overlap.
+ * Raw readings older than the archive horizon are read from archived segments,
+ * merged with any readings of those days written late and not archived yet.
+ */
+@ApplicationScoped
+public class HistoryService {
+
+    private static final long CACHE_MAX_POINTS = 1_000_000;
+    private static final long LATE_CHECK_MILLIS = 10_000;
+    // Late ranges are read again for this long, for ranges cached while the late batch was written
+    private static final Duration LATE_OVERLAP = Duration.ofMinutes(1);
+
+    @Inject
+    TelemetryRepository telemetry;
+
+    @Inject
+    RollupRepository rollups;
+
+    @Inject
+    ArchiveRepository archives;
+
+    private final LinkedHashMap<CacheKey, History> cache = new LinkedHashMap<>(64, 0.75f, true);
+    private long cachedPoints;
+    private volatile long lateCheckedAt;
+    private volatile Instant lateSeen = Instant.now();
+
+    public History scores(ObjectId deviceId, Instant from, Instant to, int points, Downsampler.Mode mode) {
+        return metric(TelemetryRepository.SCORE, deviceId, from, to, points, mode);
+    }
+
+    /**
+     * History of one metric, named as in {@link TelemetryRepository#METRIC_SERIES}.
+     */
+    public History metric(String metric, ObjectId deviceId, Instant from, Instant to, int points,
+            Downsampler.Mode mode) {
+        String series = TelemetryRepository.METRIC_SERIES.get(metric);
+        if (series == null) {
+            throw new IllegalArgumentException("Unknown metric: " + metric);
+        }
+        boolean closed = to.isBefore(Instant.now().minus(TelemetryService.INGEST_LAG));
+        CacheKey key = new CacheKey(metric, deviceId, from.toEpochMilli(), to.toEpochMilli(), points, mode);
+        if (closed) {
+            evictLate();
+            synchronized (cache) {
+                History hit = cache.get(key);
+                if (hit != null) {
+                    return hit;
+                }
+            }
+        }
+        Downsampler sampler = new Downsampler(mode, from.toEpochMilli(), to.toEpochMilli(), points);
+        Resolution resolution = scan(series, metric, deviceId, from, to, points, mode, sampler);
+        History history = new History(resolution, sampler.finish());
+        if (closed) {
+            put(key, history);
+        }
+        return history;
+    }
+
+    /**
+     * Feeds [from, to) to the sink in time order and returns the rollup
+     * resolution used for the body of the range, or null if all raw.
+     */
+    private Resolution scan(String series, String field, ObjectId deviceId, Instant from, Instant to, int points,
+            Downsampler.Mode mode, SampleSink sink) {
+        Resolution resolution = resolutionFor(Duration.between(from, to).toMillis() / points);
+        Instant mark = resolution == null ? null : rollups.watermark(series, resolution);
+        if (mark != null) {
+            Instant bodyFrom = resolution.ceil(from);
+            Instant bodyTo = resolution.floor(to).isBefore(mark) ? resolution.floor(to) : mark;
+            if (bodyFrom.isBefore(bodyTo)) {
+                List<String> stats = mode == Downsampler.Mode.MINMAX ? List.of("min", "max") : List.of("avg");
+                raw(series, field, deviceId, from, bodyFrom, sink);
+                rollups.scan(series, resolution, deviceId, field, stats, bodyFrom, bodyTo, sink);
+                raw(series, field, deviceId, bodyTo, to, sink);
+                return resolution;
+            }
+        }
+        raw(series, field, deviceId, from, to, sink);
+        return null;
+    }
+
+    /**
+     * Streams every raw score of [from, to) in time order, e.g. for exports.
+     */
+    public void scanRaw(ObjectId deviceId, Instant from, Instant to, SampleSink sink) {
+        raw(TelemetryRepository.SCORES, TelemetryRepository.SCORE, deviceId, from, to, sink);
+    }
+
+    // Readings before the archive horizon come from segment files, the rest from Mongo
+    private void raw(String series, String field, ObjectId deviceId, Instant from, Instant to, SampleSink sink) {
+        Instant horizon = archives.horizon(series);
+        if (horizon != null && from.isBefore(horizon)) {
+            Instant split = to.isBefore(horizon) ? to : horizon;
+            LateMerge merge = new LateMerge(sink);
+            telemetry.scan(series, field, deviceId, from, split, merge::add);
+            archives.scan(series, field, deviceId, from, split, merge);
+            merge.finish();
+            from = split;
+        }
+        if (from.isBefore(to)) {
+            telemetry.scan(series, field, deviceId, from, to, sink);
+        }
+    }
+
+    // Coarsest resolution that still yields at least one bucket per point
+    private static Resolution resolutionFor(long millisPerPoint) {
+        Resolution chosen = null;
+        for (Resolution r : Resolution.values()) {
+            if (r.millis() <= millisPerPoint) {
+                chosen = r;
+            }
+        }
+        return chosen;
+    }
+
+    /**
+     * Drops cached ranges of a deleted device.
+     */
+    public void onDeviceChanged(@Observes DeviceChanged change) {
+        if (change.deleted()) {
+            evict(change.device().getId());
+        }
+    }
+
+    // Drops cached ranges overlapping readings written late on any node
+    private void evictLate() {
+        long now = System.currentTimeMillis();
+        if (now - lateCheckedAt < LATE_CHECK_MILLIS) {
+            return;
+        }
+        lateCheckedAt = now;
+        for (RollupRepository.LateRange late : rollups.findLateSince(lateSeen.minus(LATE_OVERLAP))) {
+            evict(k -> TelemetryRepository.METRIC_SERIES.get(k.metric()).equals(late.series())
+                    && k.from() < late.to().toEpochMilli() && k.to() > late.from().toEpochMilli());
+            if (late.at().isAfter(lateSeen)) {
+                lateSeen = late.at();
+            }
+        }
+    }
+
+    private void evict(ObjectId deviceId) {
+        evict(k -> k.deviceId().equals(deviceId));
+    }
+
+    private void evict(Predicate<CacheKey> stale) {
+        synchronized (cache) {
+            Iterator<Map.Entry<CacheKey, History>> it = cache.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<CacheKey, History> e = it.next();
+                if (stale.test(e.getKey())) {
+                    cachedPoints -= e.getValue().size();
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    private void put(CacheKey key, History history) {
+        synchronized (cache) {
+            History previous = cache.put(key, history);
+            if (previous != null) {
+                cachedPoints -= previous.size();
+            }
+            cachedPoints += history.size();
+            Iterator<History> eldest = cache.values().iterator();
+            while (cachedPoints > CACHE_MAX_POINTS && eldest.hasNext()) {
+                cachedPoints -= eldest.next().size();
+                eldest.remove();
+            }
+        }
+    }
+
+    private record CacheKey(String metric, ObjectId deviceId, long from, long to, int points, Downsampler.Mode mode) {}
+
+    /**
+     * Downsampled series and the rollup it was mostly read from (null for raw readings).
+     */
+    public static record History(Resolution resolution, Downsampler.Series series) {
+
+        int size() {
+            return series.timestamps().length;
+        }
+    }
+
+    // Interleaves the few late readings of archived days with the archived ones, archived first on ties
+    private static final class LateMerge implements SampleSink {
+
+        private final SampleSink sink;
+        private long[] timestamps = new long[16];
+        private double[] values = new double[16];
+        private int count;
+        private int next;
+
+        LateMerge(SampleSink sink) {
+            this.sink = sink;
+        }
+
+        void add(long timestamp, double value) {
+            if (count == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, count * 2);
+                values = Arrays.copyOf(values, count * 2);
+            }
+            timestamps[count] = timestamp;
+            values[count++] = value;
+        }
+
+        @Override
+        public void accept(long timestamp, double value) {
+            while (next < count && timestamps[next] < timestamp) {
+                sink.accept(timestamps[next], values[next++]);
+            }
+            sink.accept(timestamp, value);
+        }
+
+        void finish() {
+            while (next < count) {
+                sink.accept(timestamps[next], values[next++]);
+            }
+        }
+    }
+}
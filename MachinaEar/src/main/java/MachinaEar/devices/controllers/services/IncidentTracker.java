@@ -0,0 +1,230 @@
+package MachinaEar.devices.controllers.services;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.bson.types.ObjectId;
+
+import MachinaEar.devices.controllers.managers.DeviceChanged;
+import MachinaEar.devices.controllers.repositories.IncidentRepository;
+import MachinaEar.devices.entities.Device;
+import MachinaEar.devices.entities.Incident;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import jakarta.enterprise.concurrent.ManagedScheduledExecutorService;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+
+/**
+ * Groups abnormal readings into incidents. The first abnormal reading of a
+ * device opens an incident, later readings are counted in memory, and a
+ * periodic sweep adds the counts to the incident document and closes the
+ * incidents without an abnormal reading for INCIDENT_QUIET_MINUTES.
+ *
+ * A device's readings may be split between nodes, so each node only keeps
+ * what it counted since its last sweep and applies it as increments and
+ * maxima: nodes add up instead of overwriting each other. Closing is decided
+ * on the stored last abnormal reading, which every node contributed to. The
+ * sweep also picks up incidents opened or closed by other nodes, so normal
+ * readings of any open incident are counted wherever they arrive.
+ */
+@ApplicationScoped
+public class IncidentTracker {
+
+    private static final Logger LOGGER = Logger.getLogger(IncidentTracker.class.getName());
+
+    private static final long SWEEP_SECONDS = 30;
+    private static final Duration QUIET = Duration.ofMinutes(Long.parseLong(
+            System.getenv().getOrDefault("INCIDENT_QUIET_MINUTES", "10")));
+
+    @Resource
+    ManagedScheduledExecutorService scheduler;
+
+    @Inject
+    IncidentRepository incidents;
+
+    private final ConcurrentHashMap<ObjectId, Open> open = new ConcurrentHashMap<>();
+    private ScheduledFuture<?> task;
+
+    @PostConstruct
+    public void init() {
+        for (Incident incident : incidents.findOpen()) {
+            open.putIfAbsent(incident.getDeviceId(), new Open(incident.getId()));
+        }
+        LOGGER.info("Tracking " + open.size() + " open incidents");
+    }
+
+    public void start(@Observes @Initialized(ApplicationScoped.class) Object init) {
+        task = scheduler.scheduleWithFixedDelay(this::sweep, SWEEP_SECONDS, SWEEP_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (task != null) {
+            task.cancel(false);
+        }
+        open.values().forEach(o -> {
+            synchronized (o) {
+                flush(o);
+            }
+        });
+    }
+
+    public void onScore(Device device, Instant at, double score) {
+        boolean abnormal = score > MqttService.ANOMALY_THRESHOLD;
+        while (true) {
+            Open o = abnormal ? open.computeIfAbsent(device.getId(), id -> new Open(null)) : open.get(device.getId());
+            if (o == null) {
+                return;
+            }
+            synchronized (o) {
+                if (o.closed) {
+                    continue; // dropped by the sweep meanwhile, look again
+                }
+                o.device = device;
+                o.total++;
+                if (abnormal) {
+                    if (o.abnormal == 0) {
+                        o.firstAbnormalAt = at;
+                    }
+                    o.abnormal++;
+                    o.scoreSum += score;
+                    o.lastAbnormalAt = at;
+                    if (o.peakAt == null || score > o.peakScore) {
+                        o.peakScore = score;
+                        o.peakAt = at;
+                    }
+                }
+                if (o.id == null) {
+                    flush(o); // opened right away, so a new incident is listed at once
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Closes the open incident of a deleted device.
+     */
+    public void onDeviceChanged(@Observes DeviceChanged change) {
+        if (change.deleted()) {
+            forget(change.device());
+        }
+    }
+
+    private void forget(Device device) {
+        Open o = open.remove(device.getId());
+        if (o == null) {
+            return;
+        }
+        synchronized (o) {
+            o.closed = true;
+            o.device = null; // nothing to open for a deleted device
+            flush(o);
+            if (o.id != null) {
+                try {
+                    incidents.close(o.id, Instant.now());
+                } catch (Exception e) {
+                    LOGGER.warning("Failed to close incident of device " + device.getId() + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    void sweep() {
+        Instant now = Instant.now();
+        try {
+            // Incidents other nodes opened or closed since the last sweep
+            Map<ObjectId, ObjectId> stillOpen = new HashMap<>();
+            for (Incident incident : incidents.findOpen()) {
+                stillOpen.put(incident.getDeviceId(), incident.getId());
+            }
+            open.forEach((deviceId, o) -> {
+                synchronized (o) {
+                    if (o.id == null || o.id.equals(stillOpen.get(deviceId))) {
+                        return;
+                    }
+                    if (o.abnormal > 0) {
+                        o.id = null; // abnormal again since it closed: the flush below opens a new one
+                    } else {
+                        o.closed = true;
+                        open.remove(deviceId, o);
+                    }
+                }
+            });
+            stillOpen.forEach((deviceId, id) -> open.putIfAbsent(deviceId, new Open(id)));
+
+            open.values().forEach(o -> {
+                synchronized (o) {
+                    flush(o);
+                }
+            });
+            long closed = incidents.closeQuiet(now.minus(QUIET), now);
+            if (closed > 0) {
+                LOGGER.info("Closed " + closed + " quiet incidents");
+            }
+        } catch (Exception e) {
+            LOGGER.severe("Incident sweep failed: " + e.getMessage());
+        }
+    }
+
+    private void open(Open o, Device device, Instant at) {
+        try {
+            o.id = incidents.open(device, at).getId();
+        } catch (Exception e) {
+            LOGGER.warning("Failed to open incident of device " + device.getId() + ": " + e.getMessage());
+        }
+    }
+
+    // Adds what was counted since the last flush to the stored incident
+    private void flush(Open o) {
+        if (o.id == null && o.device != null && o.abnormal > 0) {
+            open(o, o.device, o.firstAbnormalAt);
+        }
+        if (o.id == null || o.total == 0) {
+            return;
+        }
+        try {
+            incidents.addReadings(o.id, o.total, o.abnormal, o.scoreSum, o.lastAbnormalAt);
+            if (o.peakAt != null) {
+                incidents.raisePeak(o.id, o.peakScore, o.peakAt);
+            }
+            o.total = 0;
+            o.abnormal = 0;
+            o.scoreSum = 0;
+            o.firstAbnormalAt = null;
+            o.lastAbnormalAt = null;
+            o.peakAt = null;
+        } catch (Exception e) {
+            LOGGER.warning("Failed to save incident " + o.id + ": " + e.getMessage());
+        }
+    }
+
+    // Readings counted by this node and not yet added to the incident
+    private static final class Open {
+
+        ObjectId id; // Null until stored
+        Device device; // Last seen, to open the incident when that failed or it closed meanwhile
+        long total;
+        long abnormal;
+        double scoreSum;
+        Instant firstAbnormalAt;
+        Instant lastAbnormalAt;
+        double peakScore;
+        Instant peakAt;
+        boolean closed;
+
+        Open(ObjectId id) {
+            this.id = id;
+        }
+    }
+}
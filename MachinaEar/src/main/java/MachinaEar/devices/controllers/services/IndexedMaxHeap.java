@@ -0,0 +1,150 @@
+package MachinaEar.devices.controllers.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Binary max-heap of values keyed by id, with an index from id to heap slot so
+ * a key can be increased, decreased or removed in O(log n). Not thread-safe.
+ */
+final class IndexedMaxHeap<K, V> {
+
+    private final List<K> keys = new ArrayList<>();
+    private final List<V> values = new ArrayList<>();
+    private double[] priorities = new double[16];
+    private final Map<K, Integer> slots = new HashMap<>();
+
+    int size() {
+        return keys.size();
+    }
+
+    boolean contains(K key) {
+        return slots.containsKey(key);
+    }
+
+    /**
+     * Inserts the key, or moves it to its new priority if already present.
+     */
+    void upsert(K key, double priority, V value) {
+        Integer slot = slots.get(key);
+        if (slot == null) {
+            int i = keys.size();
+            if (i == priorities.length) {
+                priorities = Arrays.copyOf(priorities, i * 2);
+            }
+            keys.add(key);
+            values.add(value);
+            priorities[i] = priority;
+            slots.put(key, i);
+            siftUp(i);
+            return;
+        }
+        double old = priorities[slot];
+        priorities[slot] = priority;
+        values.set(slot, value);
+        if (priority > old) {
+            siftUp(slot);
+        } else if (priority < old) {
+            siftDown(slot);
+        }
+    }
+
+    void remove(K key) {
+        Integer slot = slots.remove(key);
+        if (slot == null) {
+            return;
+        }
+        int last = keys.size() - 1;
+        if (slot != last) {
+            move(last, slot);
+        }
+        keys.remove(last);
+        values.remove(last);
+        if (slot != last) {
+            siftUp(slot);
+            siftDown(slot);
+        }
+    }
+
+    /**
+     * Values of the k highest priorities, highest first. Walks the heap with a
+     * frontier of candidate slots, so it costs O(k log k) whatever the heap size.
+     */
+    List<V> top(int k) {
+        List<V> out = new ArrayList<>(Math.min(k, keys.size()));
+        if (keys.isEmpty() || k <= 0) {
+            return out;
+        }
+        PriorityQueue<Integer> frontier = new PriorityQueue<>(
+                (a, b) -> Double.compare(priorities[b], priorities[a]));
+        frontier.add(0);
+        while (!frontier.isEmpty() && out.size() < k) {
+            int i = frontier.poll();
+            out.add(values.get(i));
+            int left = 2 * i + 1;
+            if (left < keys.size()) {
+                frontier.add(left);
+            }
+            if (left + 1 < keys.size()) {
+                frontier.add(left + 1);
+            }
+        }
+        return out;
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (priorities[i] <= priorities[parent]) {
+                return;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        int n = keys.size();
+        while (true) {
+            int largest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < n && priorities[left] > priorities[largest]) {
+                largest = left;
+            }
+            if (right < n && priorities[right] > priorities[largest]) {
+                largest = right;
+            }
+            if (largest == i) {
+                return;
+            }
+            swap(i, largest);
+            i = largest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        K ka = keys.get(a);
+        V va = values.get(a);
+        double pa = priorities[a];
+        keys.set(a, keys.get(b));
+        values.set(a, values.get(b));
+        priorities[a] = priorities[b];
+        keys.set(b, ka);
+        values.set(b, va);
+        priorities[b] = pa;
+        slots.put(keys.get(a), a);
+        slots.put(keys.get(b), b);
+    }
+
+    private void move(int from, int to) {
+        keys.set(to, keys.get(from));
+        values.set(to, values.get(from));
+        priorities[to] = priorities[from];
+        slots.put(keys.get(to), to);
+    }
+}
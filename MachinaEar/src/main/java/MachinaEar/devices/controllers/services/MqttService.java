@@ -1,5 +1,6 @@
 package MachinaEar.devices.controllers.services;
 
+import MachinaEar.devices.controllers.managers.DeviceManager;
 import MachinaEar.devices.controllers.repositories.DeviceRepository;
 import MachinaEar.devices.entities.Device;
 import jakarta.annotation.PostConstruct;
@@ -19,13 +20,22 @@ public class MqttService {
     
     private static final String BROKER_URL = System.getenv().getOrDefault("MQTT_BROKER_URL", "tcp://localhost:1883");
     private static final String CLIENT_ID = "machinaear-backend-" + System.currentTimeMillis();
-    private static final double ANOMALY_THRESHOLD = 0.05;
+    // Every node joins the same shared subscription, so the broker hands each
+    // device message to exactly one of them; empty for a broker without $share
+    private static final String SHARED_GROUP = System.getenv().getOrDefault("MQTT_SHARED_GROUP", "machinaear-backend");
+    static final double ANOMALY_THRESHOLD = 0.05;
     
     @Inject
     DeviceRepository deviceRepository;
+
+    @Inject
+    DeviceManager deviceManager;
     
     @Inject
     DeviceWebSocketEndpoint webSocketEndpoint;
+
+    @Inject
+    TelemetryService telemetry;
     
     private MqttClient mqttClient;
     
@@ -73,8 +83,8 @@ public class MqttService {
             LOGGER.info("Connected to MQTT broker");
             
             // Subscribe to device topics
-            mqttClient.subscribe("devices/+/anomaly", 1);
-            mqttClient.subscribe("devices/+/status", 1);
+            mqttClient.subscribe(shared("devices/+/anomaly"), 1);
+            mqttClient.subscribe(shared("devices/+/status"), 1);
             LOGGER.info("Subscribed to device topics");
             
         } catch (MqttException e) {
@@ -83,6 +93,10 @@ public class MqttService {
         }
     }
     
+    private static String shared(String topicFilter) {
+        return SHARED_GROUP.isEmpty() ? topicFilter : "$share/" + SHARED_GROUP + "/" + topicFilter;
+    }
+
     @PreDestroy
     public void cleanup() {
         if (mqttClient != null && mqttClient.isConnected()) {
@@ -136,9 +150,10 @@ public class MqttService {
             // Parse JSON payload: {"score": 0.073, "timestamp": "..."}
             // For simplicity, extract score using basic parsing (in production, use JSON library)
             double score = extractScore(payload);
+            Instant now = Instant.now();
             
             device.setAnomalyScore(score);
-            device.setLastAnomalyDetection(Instant.now());
+            device.setLastAnomalyDetection(now);
             
             // Update status based on threshold
             if (score > ANOMALY_THRESHOLD) {
@@ -149,10 +164,11 @@ public class MqttService {
             }
             
             device.setIsOnline(true);
-            device.setLastHeartbeat(Instant.now());
+            device.setLastHeartbeat(now);
             device.touch();
             
-            deviceRepository.update(device);
+            deviceManager.save(device);
+            telemetry.recordScore(device, now, score);
             
             // Broadcast to WebSocket clients
             webSocketEndpoint.broadcastDeviceUpdate(device);
@@ -169,7 +185,7 @@ public class MqttService {
             device.setLastHeartbeat(Instant.now());
             device.touch();
             
-            deviceRepository.update(device);
+            deviceManager.save(device);
             
             // Broadcast to WebSocket clients
             webSocketEndpoint.broadcastDeviceUpdate(device);
@@ -0,0 +1,86 @@
+package MachinaEar.devices.controllers.services;
+
+import java.util.Arrays;
+
+import org.bson.types.ObjectId;
+
+/**
+ * Ring of Gorilla-compressed blocks holding the most recent scores of one
+ * device. All blocks are allocated up front, so a buffer has a fixed size;
+ * when the ring is full the oldest block is reset and reused.
+ */
+final class RecentScoreBuffer {
+
+    private final GorillaBlock[] blocks;
+    private final long blockSpanMillis;
+    private int head; // block currently appended to
+    private volatile ObjectId owner;
+
+    RecentScoreBuffer(int blockCount, int wordsPerBlock, long blockSpanMillis) {
+        this.blocks = new GorillaBlock[blockCount];
+        for (int i = 0; i < blockCount; i++) {
+            blocks[i] = new GorillaBlock(wordsPerBlock);
+        }
+        this.blockSpanMillis = blockSpanMillis;
+    }
+
+    static long sizeInBytes(int blockCount, int wordsPerBlock) {
+        // long[] payload plus a rough allowance for object headers and fields
+        return (long) blockCount * (wordsPerBlock * 8L + 80) + 64;
+    }
+
+    ObjectId owner() {
+        return owner;
+    }
+
+    synchronized void append(ObjectId owner, long timestamp, double score) {
+        this.owner = owner;
+        GorillaBlock current = blocks[head];
+        if (current.count() > 0 && timestamp < current.lastTimestamp()) {
+            return; // out-of-order sample, the stream only moves forward
+        }
+        if (current.count() > 0
+                && (!current.hasRoom() || timestamp - current.firstTimestamp() >= blockSpanMillis)) {
+            head = (head + 1) % blocks.length;
+            current = blocks[head];
+            current.reset();
+        }
+        current.append(timestamp, score);
+    }
+
+    /**
+     * Samples at or after {@code from}, oldest first, as parallel arrays.
+     */
+    synchronized Samples read(long from) {
+        Collector collector = new Collector();
+        // head + 1 is the oldest block once the ring has wrapped
+        for (int i = 1; i <= blocks.length; i++) {
+            blocks[(head + i) % blocks.length].decode(from, collector);
+        }
+        return collector.samples();
+    }
+
+    private static final class Collector implements SampleSink {
+
+        private long[] timestamps = new long[64];
+        private double[] values = new double[64];
+        private int size;
+
+        @Override
+        public void accept(long timestamp, double value) {
+            if (size == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            timestamps[size] = timestamp;
+            values[size] = value;
+            size++;
+        }
+
+        Samples samples() {
+            return new Samples(Arrays.copyOf(timestamps, size), Arrays.copyOf(values, size));
+        }
+    }
+
+    record Samples(long[] timestamps, double[] values) {}
+}
@@ -0,0 +1,95 @@
+package MachinaEar.devices.controllers.services;
+
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.bson.types.ObjectId;
+
+import MachinaEar.devices.controllers.managers.DeviceChanged;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+
+/**
+ * Last few minutes of anomaly scores per device, kept in memory for sparklines
+ * so short-window charts never query Mongo. Each device gets a fixed-size ring
+ * of Gorilla-compressed blocks; the number of buffers is capped by
+ * RECENT_SCORES_HEAP_MB and devices beyond the cap are not tracked.
+ */
+@ApplicationScoped
+public class RecentScoreService {
+
+    private static final Logger LOGGER = Logger.getLogger(RecentScoreService.class.getName());
+
+    private static final int BLOCKS = 16;
+    private static final int WORDS_PER_BLOCK = 64; // 4096 bits, roughly 60-500 samples
+    private static final long WINDOW_MILLIS = Long.parseLong(
+            System.getenv().getOrDefault("RECENT_SCORES_WINDOW_MINUTES", "15")) * 60_000L;
+    private static final long HEAP_BUDGET_BYTES = Long.parseLong(
+            System.getenv().getOrDefault("RECENT_SCORES_HEAP_MB", "64")) * 1024 * 1024;
+
+    private final int maxDevices = (int) Math.min(Integer.MAX_VALUE,
+            HEAP_BUDGET_BYTES / RecentScoreBuffer.sizeInBytes(BLOCKS, WORDS_PER_BLOCK));
+    private final ConcurrentHashMap<ObjectId, RecentScoreBuffer> buffers = new ConcurrentHashMap<>();
+    private final AtomicInteger allocated = new AtomicInteger();
+    private volatile boolean budgetWarned;
+
+    public long windowMillis() {
+        return WINDOW_MILLIS;
+    }
+
+    public void record(ObjectId deviceId, ObjectId owner, Instant at, double score) {
+        RecentScoreBuffer buffer = buffers.get(deviceId);
+        if (buffer == null) {
+            buffer = allocate(deviceId);
+            if (buffer == null) {
+                return;
+            }
+        }
+        buffer.append(owner, at.toEpochMilli(), score);
+    }
+
+    /**
+     * Samples of the device since {@code from} (clamped to the window), if the
+     * device is buffered and belongs to the given owner.
+     */
+    public Optional<RecentScores> recent(ObjectId deviceId, ObjectId owner, Instant from) {
+        RecentScoreBuffer buffer = buffers.get(deviceId);
+        if (buffer == null || !owner.equals(buffer.owner())) {
+            return Optional.empty();
+        }
+        long windowStart = System.currentTimeMillis() - WINDOW_MILLIS;
+        RecentScoreBuffer.Samples samples = buffer.read(Math.max(windowStart, from.toEpochMilli()));
+        return Optional.of(new RecentScores(samples.timestamps(), samples.values()));
+    }
+
+    public void onDeviceChanged(@Observes DeviceChanged change) {
+        if (change.deleted()) {
+            remove(change.device().getId());
+        }
+    }
+
+    private void remove(ObjectId deviceId) {
+        if (buffers.remove(deviceId) != null) {
+            allocated.decrementAndGet();
+        }
+    }
+
+    private RecentScoreBuffer allocate(ObjectId deviceId) {
+        return buffers.computeIfAbsent(deviceId, id -> {
+            if (allocated.incrementAndGet() > maxDevices) {
+                allocated.decrementAndGet();
+                if (!budgetWarned) {
+                    budgetWarned = true;
+                    LOGGER.warning("Recent score budget full (" + maxDevices + " devices), new devices are not buffered");
+                }
+                return null;
+            }
+            return new RecentScoreBuffer(BLOCKS, WORDS_PER_BLOCK, WINDOW_MILLIS / (BLOCKS - 1));
+        });
+    }
+
+    public static record RecentScores(long[] timestamps, double[] scores) {}
+}
@@ -0,0 +1,53 @@
+package MachinaEar.devices.controllers.services;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Rollup resolutions, finest first. Each level is materialized from the one
+ * before it (the minute level from raw readings).
+ */
+public enum Resolution {
+
+    MINUTE("1m", "minute", ChronoUnit.MINUTES),
+    HOUR("1h", "hour", ChronoUnit.HOURS),
+    DAY("1d", "day", ChronoUnit.DAYS);
+
+    private final String suffix;
+    private final String mongoUnit;
+    private final ChronoUnit unit;
+
+    Resolution(String suffix, String mongoUnit, ChronoUnit unit) {
+        this.suffix = suffix;
+        this.mongoUnit = mongoUnit;
+        this.unit = unit;
+    }
+
+    public String suffix() {
+        return suffix;
+    }
+
+    /**
+     * Unit name understood by $dateTrunc.
+     */
+    public String mongoUnit() {
+        return mongoUnit;
+    }
+
+    public long millis() {
+        return unit.getDuration().toMillis();
+    }
+
+    public Instant floor(Instant t) {
+        return t.truncatedTo(unit);
+    }
+
+    public Instant ceil(Instant t) {
+        Instant f = floor(t);
+        return f.equals(t) ? f : f.plus(1, unit);
+    }
+
+    public Resolution finer() {
+        return ordinal() == 0 ? null : values()[ordinal() - 1];
+    }
+}
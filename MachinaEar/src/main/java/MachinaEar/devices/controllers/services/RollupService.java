@@ -0,0 +1,140 @@
+package MachinaEar.devices.controllers.services;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import MachinaEar.devices.controllers.repositories.ArchiveRepository;
+import MachinaEar.devices.controllers.repositories.RollupRepository;
+import MachinaEar.devices.controllers.repositories.TelemetryRepository;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import jakarta.enterprise.concurrent.ManagedScheduledExecutorService;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+
+/**
+ * Background job materializing 1-minute, 1-hour and 1-day rollups of the
+ * telemetry series. Each run continues from the stored watermark, so only
+ * buckets completed since the previous run are aggregated; a level is only
+ * built up to where the finer level is complete. Buckets of readings written
+ * late, after the watermark passed them, are rebuilt at every level first.
+ */
+@ApplicationScoped
+public class RollupService {
+
+    private static final Logger LOGGER = Logger.getLogger(RollupService.class.getName());
+
+    private static final long RUN_INTERVAL_SECONDS = 60;
+    private static final long CHUNK_BUCKETS = 360;
+
+    /**
+     * Rolled-up series and the numeric fields aggregated for each.
+     */
+    static final Map<String, List<String>> SERIES = Map.of(
+            TelemetryRepository.SCORES, List.of(TelemetryRepository.SCORE),
+            TelemetryRepository.VITALS, List.of(TelemetryRepository.TEMPERATURE, TelemetryRepository.CPU_USAGE,
+                    TelemetryRepository.MEMORY_USAGE));
+
+    @Resource
+    ManagedScheduledExecutorService scheduler;
+
+    @Inject
+    RollupRepository rollups;
+
+    @Inject
+    ArchiveRepository archives;
+
+    private ScheduledFuture<?> task;
+
+    public void start(@Observes @Initialized(ApplicationScoped.class) Object init) {
+        SERIES.keySet().forEach(rollups::ensureIndexes);
+        task = scheduler.scheduleWithFixedDelay(this::run, RUN_INTERVAL_SECONDS, RUN_INTERVAL_SECONDS,
+                TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+
+    void run() {
+        SERIES.forEach((series, fields) -> {
+            try {
+                rollUp(series, fields);
+            } catch (Exception e) {
+                LOGGER.severe("Rollup of " + series + " failed: " + e.getMessage());
+            }
+        });
+    }
+
+    private void rollUp(String series, List<String> fields) {
+        rebuildLate(series, fields);
+        Instant complete = Instant.now().minus(TelemetryService.INGEST_LAG);
+        for (Resolution r : Resolution.values()) {
+            Instant upper = r.finer() == null ? complete : rollups.watermark(series, r.finer());
+            if (upper == null) {
+                return;
+            }
+            upper = r.floor(upper);
+            Instant mark = rollups.watermark(series, r);
+            if (mark == null) {
+                Instant earliest = rollups.earliestRaw(series);
+                if (earliest == null) {
+                    return;
+                }
+                mark = r.floor(earliest);
+            }
+            // Bounded chunks keep a large backlog from becoming one huge aggregation
+            long chunk = r.millis() * CHUNK_BUCKETS;
+            while (mark.isBefore(upper)) {
+                Instant end = Instant.ofEpochMilli(Math.min(upper.toEpochMilli(), mark.toEpochMilli() + chunk));
+                rollups.materialize(series, fields, r, mark, end);
+                rollups.advanceWatermark(series, r, end);
+                mark = end;
+            }
+        }
+    }
+
+    // Rebuilds, finest level first, the buckets below the watermarks that late readings fall into
+    private void rebuildLate(String series, List<String> fields) {
+        for (RollupRepository.LateRange late : rollups.findPendingLate(series)) {
+            Instant from = late.from();
+            // Raw readings before the archive horizon are gone: a rebuild would only keep the late ones,
+            // which ArchiveService merges into the archive instead
+            Instant archived = archives.horizon(series);
+            if (archived != null && from.isBefore(archived)) {
+                LOGGER.warning("Late " + series + " readings before the archive horizon " + archived
+                        + " are archived but not rolled up");
+                from = archived;
+            }
+            for (Resolution r : Resolution.values()) {
+                Instant mark = rollups.watermark(series, r);
+                if (mark == null) {
+                    break;
+                }
+                Instant end = r.ceil(late.to()).isBefore(mark) ? r.ceil(late.to()) : mark;
+                long chunk = r.millis() * CHUNK_BUCKETS;
+                for (Instant start = r.floor(from); start.isBefore(end); start = start.plusMillis(chunk)) {
+                    Instant stop = Instant.ofEpochMilli(Math.min(end.toEpochMilli(), start.toEpochMilli() + chunk));
+                    rollups.materialize(series, fields, r, start, stop);
+                }
+            }
+            rollups.lateRolledUp(late.id());
+        }
+    }
+
+    /**
+     * Watermark of a resolution: every bucket before it is materialized.
+     */
+    public Instant watermark(String series, Resolution resolution) {
+        return rollups.watermark(series, resolution);
+    }
+}
@@ -0,0 +1,10 @@
+package MachinaEar.devices.controllers.services;
+
+/**
+ * Receives (timestamp, value) samples one at a time, in time order.
+ */
+@FunctionalInterface
+public interface SampleSink {
+
+    void accept(long timestamp, double value);
+}
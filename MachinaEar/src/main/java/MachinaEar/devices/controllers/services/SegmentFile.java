@@ -0,0 +1,288 @@
+package MachinaEar.devices.controllers.services;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Immutable columnar segment of one device's readings, read through a memory
+ * mapping. Rows are cut into blocks; each block stores the timestamp column
+ * (delta-encoded) and one column per field (each value XORed with the
+ * previous one), every column deflated separately so a scan only inflates
+ * the timestamps and the field it reads. A sparse index with the time range
+ * of every block lets a scan skip straight to the first block it needs.
+ *
+ * Layout: header {MAGIC, VERSION, field count, field names} | blocks |
+ * index {first ts, last ts, offset, rows per block} | footer {index offset,
+ * block count, MAGIC}. Missing values are stored as NaN and never emitted.
+ */
+public final class SegmentFile {
+
+    private static final int MAGIC = 0x4D454152; // "MEAR"
+    private static final int VERSION = 1;
+    private static final int BLOCK_ROWS = 4096;
+    private static final int FOOTER_BYTES = 16;
+
+    private final ByteBuffer data;
+    private final List<String> fields;
+    private final long[] firstTs;
+    private final long[] lastTs;
+    private final long[] offsets;
+    private final int[] rows;
+
+    private SegmentFile(ByteBuffer data) throws IOException {
+        this.data = data;
+        if (data.getInt(0) != MAGIC || data.getInt(4) != VERSION
+                || data.getInt(data.limit() - 4) != MAGIC) {
+            throw new IOException("Not a segment file");
+        }
+        int pos = 8;
+        int fieldCount = data.getInt(pos);
+        pos += 4;
+        fields = new ArrayList<>(fieldCount);
+        for (int i = 0; i < fieldCount; i++) {
+            int len = Short.toUnsignedInt(data.getShort(pos));
+            byte[] name = new byte[len];
+            data.get(pos + 2, name);
+            fields.add(new String(name, StandardCharsets.UTF_8));
+            pos += 2 + len;
+        }
+        int footer = data.limit() - FOOTER_BYTES;
+        int index = (int) data.getLong(footer);
+        int blocks = data.getInt(footer + 8);
+        firstTs = new long[blocks];
+        lastTs = new long[blocks];
+        offsets = new long[blocks];
+        rows = new int[blocks];
+        for (int b = 0; b < blocks; b++) {
+            int e = index + b * 28;
+            firstTs[b] = data.getLong(e);
+            lastTs[b] = data.getLong(e + 8);
+            offsets[b] = data.getLong(e + 16);
+            rows[b] = data.getInt(e + 24);
+        }
+    }
+
+    public static SegmentFile open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new SegmentFile(mapped);
+        }
+    }
+
+    /**
+     * Writes rows sorted by timestamp to a new segment. The file is written
+     * aside and moved into place, so readers never see a partial segment.
+     */
+    public static void write(Path path, List<String> fields, long[] timestamps, double[][] columns, int count)
+            throws IOException {
+        Files.createDirectories(path.getParent());
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        int blocks = (count + BLOCK_ROWS - 1) / BLOCK_ROWS;
+        long[] blockOffsets = new long[blocks];
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(fields.size());
+            for (String f : fields) {
+                out.writeUTF(f);
+            }
+            for (int b = 0; b < blocks; b++) {
+                int start = b * BLOCK_ROWS;
+                int end = Math.min(count, start + BLOCK_ROWS);
+                blockOffsets[b] = out.size();
+                ByteBuffer column = ByteBuffer.allocate((end - start) * Long.BYTES);
+                long previous = 0;
+                for (int i = start; i < end; i++) {
+                    column.putLong(timestamps[i] - previous);
+                    previous = timestamps[i];
+                }
+                writeColumn(out, deflater, column.array());
+                for (double[] values : columns) {
+                    column.clear();
+                    long previousBits = 0;
+                    for (int i = start; i < end; i++) {
+                        long bits = Double.doubleToRawLongBits(values[i]);
+                        column.putLong(bits ^ previousBits);
+                        previousBits = bits;
+                    }
+                    writeColumn(out, deflater, column.array());
+                }
+            }
+            int index = out.size();
+            for (int b = 0; b < blocks; b++) {
+                int start = b * BLOCK_ROWS;
+                int end = Math.min(count, start + BLOCK_ROWS);
+                out.writeLong(timestamps[start]);
+                out.writeLong(timestamps[end - 1]);
+                out.writeLong(blockOffsets[b]);
+                out.writeInt(end - start);
+            }
+            out.writeLong(index);
+            out.writeInt(blocks);
+            out.writeInt(MAGIC);
+        } finally {
+            deflater.end();
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeColumn(DataOutputStream out, Deflater deflater, byte[] raw) throws IOException {
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 4 + 64);
+        byte[] chunk = new byte[8192];
+        while (!deflater.finished()) {
+            compressed.write(chunk, 0, deflater.deflate(chunk));
+        }
+        out.writeInt(compressed.size());
+        compressed.writeTo(out);
+    }
+
+    public List<String> fields() {
+        return fields;
+    }
+
+    /**
+     * Streams the values of one field in [from, to) to the sink in time order.
+     */
+    public void scan(String field, long from, long to, SampleSink sink) throws IOException {
+        int column = fields.indexOf(field);
+        if (column < 0) {
+            return;
+        }
+        Inflater inflater = new Inflater();
+        try {
+            for (int b = firstBlockEndingAtOrAfter(from); b < firstTs.length && firstTs[b] < to; b++) {
+                int pos = (int) offsets[b];
+                ByteBuffer ts = ByteBuffer.allocate(rows[b] * Long.BYTES);
+                pos = inflate(inflater, pos, ts);
+                for (int skip = 0; skip < column; skip++) {
+                    pos += 4 + data.getInt(pos);
+                }
+                ByteBuffer values = ByteBuffer.allocate(rows[b] * Long.BYTES);
+                inflate(inflater, pos, values);
+                long t = 0;
+                long bits = 0;
+                for (int i = 0; i < rows[b]; i++) {
+                    t += ts.getLong(i * Long.BYTES);
+                    bits ^= values.getLong(i * Long.BYTES);
+                    if (t >= to) {
+                        return;
+                    }
+                    double v = Double.longBitsToDouble(bits);
+                    if (t >= from && !Double.isNaN(v)) {
+                        sink.accept(t, v);
+                    }
+                }
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Number of rows in the segment.
+     */
+    public int rowCount() {
+        int count = 0;
+        for (int r : rows) {
+            count += r;
+        }
+        return count;
+    }
+
+    /**
+     * Reads every row of the given fields, e.g. to rewrite the segment with
+     * more rows. Fields the segment does not have are all NaN.
+     *
+     * @param timestamps receives the timestamps, at least rowCount() long
+     * @param columns receives one column per field, each at least rowCount() long
+     */
+    public void readAll(List<String> names, long[] timestamps, double[][] columns) throws IOException {
+        int[] index = names.stream().mapToInt(fields::indexOf).toArray();
+        Inflater inflater = new Inflater();
+        try {
+            int row = 0;
+            for (int b = 0; b < firstTs.length; b++) {
+                ByteBuffer column = ByteBuffer.allocate(rows[b] * Long.BYTES);
+                int pos = inflate(inflater, (int) offsets[b], column);
+                long t = 0;
+                for (int i = 0; i < rows[b]; i++) {
+                    t += column.getLong(i * Long.BYTES);
+                    timestamps[row + i] = t;
+                }
+                int[] starts = new int[fields.size()];
+                for (int f = 0; f < starts.length; f++) {
+                    starts[f] = pos;
+                    pos += 4 + data.getInt(pos);
+                }
+                for (int f = 0; f < index.length; f++) {
+                    if (index[f] < 0) {
+                        Arrays.fill(columns[f], row, row + rows[b], Double.NaN);
+                        continue;
+                    }
+                    column.clear();
+                    inflate(inflater, starts[index[f]], column);
+                    long bits = 0;
+                    for (int i = 0; i < rows[b]; i++) {
+                        bits ^= column.getLong(i * Long.BYTES);
+                        columns[f][row + i] = Double.longBitsToDouble(bits);
+                    }
+                }
+                row += rows[b];
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private int firstBlockEndingAtOrAfter(long from) {
+        int lo = 0;
+        int hi = lastTs.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (lastTs[mid] < from) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // Inflates the column at pos into out and returns the position after it
+    private int inflate(Inflater inflater, int pos, ByteBuffer out) throws IOException {
+        int len = data.getInt(pos);
+        inflater.reset();
+        inflater.setInput(data.slice(pos + 4, len));
+        try {
+            while (out.hasRemaining() && !inflater.finished()) {
+                if (inflater.inflate(out) == 0 && inflater.needsInput()) {
+                    throw new IOException("Truncated segment column");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt segment column", e);
+        }
+        return pos + 4 + len;
+    }
+}
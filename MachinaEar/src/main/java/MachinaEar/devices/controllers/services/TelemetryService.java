@@ -0,0 +1,226 @@
+package MachinaEar.devices.controllers.services;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bson.Document;
+
+import com.mongodb.MongoBulkWriteException;
+
+import MachinaEar.devices.controllers.repositories.RollupRepository;
+import MachinaEar.devices.controllers.repositories.TelemetryRepository;
+import MachinaEar.devices.entities.Device;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import jakarta.enterprise.concurrent.ManagedScheduledExecutorService;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+
+/**
+ * Single entry point for readings reported by devices: every anomaly score
+ * goes to the in-memory recent buffer, the persistent history, the alert
+ * rules and the incident tracker. Scores and vitals are queued for the
+ * history and written in batches on the scheduler, either every few seconds
+ * or as soon as a full batch is waiting, so the MQTT thread never waits on an
+ * insert.
+ *
+ * Each queue holds at most TELEMETRY_MAX_PENDING readings. A batch that fails
+ * for a transient reason (e.g. Mongo unreachable) is kept and retried before
+ * newer readings; meanwhile the queue fills up and, once full, new readings
+ * are dropped and counted. Documents Mongo rejects one by one are not retried.
+ * A batch written more than INGEST_LAG after its oldest reading may land in
+ * buckets already rolled up or history already cached as closed, so its time
+ * range is recorded as late for the rollup job and the history caches.
+ */
+@ApplicationScoped
+public class TelemetryService {
+
+    private static final Logger LOGGER = Logger.getLogger(TelemetryService.class.getName());
+
+    /**
+     * Readings carry server time and are normally written within seconds, so
+     * a minute is complete this long after it ends unless a late range says otherwise.
+     */
+    static final Duration INGEST_LAG = Duration.ofMinutes(1);
+
+    // Named after vitals, which were batched first; they apply to every series
+    private static final long FLUSH_INTERVAL_SECONDS = Long.parseLong(
+            System.getenv().getOrDefault("VITALS_FLUSH_SECONDS", "5"));
+    private static final int BATCH_SIZE = Integer.parseInt(
+            System.getenv().getOrDefault("VITALS_BATCH_SIZE", "500"));
+    private static final int MAX_PENDING = Integer.parseInt(
+            System.getenv().getOrDefault("TELEMETRY_MAX_PENDING", "50000"));
+
+    @Inject
+    RecentScoreService recentScores;
+
+    @Inject
+    TelemetryRepository telemetry;
+
+    @Inject
+    RollupRepository rollups;
+
+    @Inject
+    AlertEngine alerts;
+
+    @Inject
+    IncidentTracker incidents;
+
+    @Resource
+    ManagedScheduledExecutorService scheduler;
+
+    private final Batch scores = new Batch("scores", TelemetryRepository.SCORES,
+            batch -> telemetry.appendScores(batch));
+    private final Batch vitals = new Batch("vitals", TelemetryRepository.VITALS,
+            batch -> telemetry.appendVitals(batch));
+    private ScheduledFuture<?> task;
+
+    public void start(@Observes @Initialized(ApplicationScoped.class) Object init) {
+        task = scheduler.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_SECONDS, FLUSH_INTERVAL_SECONDS,
+                TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (task != null) {
+            task.cancel(false);
+        }
+        // Last chance to write what is queued, on the shutting down thread
+        flush();
+    }
+
+    public void recordScore(Device device, Instant at, double score) {
+        recentScores.record(device.getId(), device.getIdentityId(), at, score);
+        scores.add(TelemetryRepository.score(device.getId(), at, score));
+        alerts.onScore(device, at, score);
+        incidents.onScore(device, at, score);
+    }
+
+    /**
+     * Queues the vitals of a status report. Reports without any vital are ignored.
+     */
+    public void recordVitals(Device device, Instant at, Double temperature, Double cpuUsage, Double memoryUsage) {
+        if (temperature == null && cpuUsage == null && memoryUsage == null) {
+            return;
+        }
+        vitals.add(TelemetryRepository.vitals(device.getId(), at, temperature, cpuUsage, memoryUsage));
+    }
+
+    void flush() {
+        scores.flush();
+        vitals.flush();
+    }
+
+    /**
+     * Readings of one series waiting to be written. A single flush runs at a
+     * time, on the scheduler except at shutdown.
+     */
+    private final class Batch {
+
+        private final String name;
+        private final String series;
+        private final Consumer<List<Document>> writer;
+        private final ArrayBlockingQueue<Document> pending = new ArrayBlockingQueue<>(MAX_PENDING);
+        private final AtomicBoolean flushing = new AtomicBoolean();
+        private final AtomicLong dropped = new AtomicLong();
+        private List<Document> failed; // Retried before newer readings; only touched while flushing
+
+        Batch(String name, String series, Consumer<List<Document>> writer) {
+            this.name = name;
+            this.series = series;
+            this.writer = writer;
+        }
+
+        void add(Document d) {
+            if (!pending.offer(d)) {
+                dropped.incrementAndGet();
+                return;
+            }
+            if (pending.size() >= BATCH_SIZE && !flushing.get() && scheduler != null) {
+                scheduler.execute(this::flush);
+            }
+        }
+
+        void flush() {
+            if (!flushing.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                long lost = dropped.getAndSet(0);
+                if (lost > 0) {
+                    LOGGER.severe("Dropped " + lost + " " + name + " readings, queue of " + MAX_PENDING + " full");
+                }
+                if (failed != null) {
+                    if (!write(failed)) {
+                        return;
+                    }
+                    failed = null;
+                }
+                while (true) {
+                    List<Document> batch = new ArrayList<>(Math.min(pending.size(), BATCH_SIZE));
+                    pending.drainTo(batch, BATCH_SIZE);
+                    if (batch.isEmpty()) {
+                        return;
+                    }
+                    if (!write(batch)) {
+                        failed = batch;
+                        return;
+                    }
+                }
+            } finally {
+                flushing.set(false);
+            }
+        }
+
+        // False if the whole batch should be tried again
+        private boolean write(List<Document> batch) {
+            try {
+                writer.accept(batch);
+                recordIfLate(batch);
+                return true;
+            } catch (MongoBulkWriteException e) {
+                // Unordered insert: the others were written, these would fail again
+                LOGGER.severe("Mongo rejected " + e.getWriteErrors().size() + " of " + batch.size() + " "
+                        + name + " readings: " + e.getMessage());
+                recordIfLate(batch);
+                return true;
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Writing " + batch.size() + " " + name + " readings failed, will retry", e);
+                return false;
+            }
+        }
+
+        // Readings older than the ingest lag may fall in buckets the rollup job already built
+        private void recordIfLate(List<Document> batch) {
+            Instant now = Instant.now();
+            long from = Long.MAX_VALUE;
+            long to = Long.MIN_VALUE;
+            for (Document d : batch) {
+                long t = d.getDate("t").getTime();
+                from = Math.min(from, t);
+                to = Math.max(to, t);
+            }
+            if (from >= now.minus(INGEST_LAG).toEpochMilli()) {
+                return;
+            }
+            try {
+                rollups.recordLate(series, Instant.ofEpochMilli(from), Instant.ofEpochMilli(to + 1), now);
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to record late " + name + " readings from "
+                        + Instant.ofEpochMilli(from) + ", their rollups will miss them", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package MachinaEar.devices.entities;
+
+import java.time.Instant;
+
+import org.bson.types.ObjectId;
+
+import MachinaEar.iam.entities.RootEntity;
+import MachinaEar.iam.json.ObjectIdAdapter;
+import jakarta.json.bind.annotation.JsonbTypeAdapter;
+
+/**
+ * An alert rule that started firing for a device.
+ */
+public class Alert extends RootEntity {
+
+    @JsonbTypeAdapter(ObjectIdAdapter.class)
+    private ObjectId ruleId;
+    @JsonbTypeAdapter(ObjectIdAdapter.class)
+    private ObjectId identityId;
+    @JsonbTypeAdapter(ObjectIdAdapter.class)
+    private ObjectId deviceId;
+    private String ruleName;
+    private String deviceName;
+    private AlertRule.Type type;
+    private Double value; // Observed value that crossed the threshold
+    private Double threshold;
+    private String message;
+    private Instant firedAt = Instant.now();
+    private Instant window; // Start of the period this firing belongs to; one alert per rule, device and window
+    private Instant notifiedAt; // When a digest listing it went to the outbox, null while pending
+    private Instant droppedAt; // When it was given up on, still pending after the digest horizon
+
+    public ObjectId getRuleId() { return ruleId; }
+    public void setRuleId(ObjectId ruleId) { this.ruleId = ruleId; }
+
+    public ObjectId getIdentityId() { return identityId; }
+    public void setIdentityId(ObjectId identityId) { this.identityId = identityId; }
+
+    public ObjectId getDeviceId() { return deviceId; }
+    public void setDeviceId(ObjectId deviceId) { this.deviceId = deviceId; }
+
+    public String getRuleName() { return ruleName; }
+    public void setRuleName(String ruleName) { this.ruleName = ruleName; }
+
+    public String getDeviceName() { return deviceName; }
+    public void setDeviceName(String deviceName) { this.deviceName = deviceName; }
+
+    public AlertRule.Type getType() { return type; }
+    public void setType(AlertRule.Type type) { this.type = type; }
+
+    public Double getValue() { return value; }
+    public void setValue(Double value) { this.value = value; }
+
+    public Double getThreshold() { return threshold; }
+    public void setThreshold(Double threshold) { this.threshold = threshold; }
+
+    public String getMessage() { return message; }
+    public void setMessage(String message) { this.message = message; }
+
+    public Instant getFiredAt() { return firedAt; }
+    public void setFiredAt(Instant firedAt) { this.firedAt = firedAt; }
+
+    public Instant getWindow() { return window; }
+    public void setWindow(Instant window) { this.window = window; }
+
+    public Instant getNotifiedAt() { return notifiedAt; }
+    public void setNotifiedAt(Instant notifiedAt) { this.notifiedAt = notifiedAt; }
+    public Instant getDroppedAt() { return droppedAt; }
+    public void setDroppedAt(Instant droppedAt) { this.droppedAt = droppedAt; }
+}
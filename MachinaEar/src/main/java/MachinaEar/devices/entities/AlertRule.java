@@ -0,0 +1,55 @@
+package MachinaEar.devices.entities;
+
+import org.bson.types.ObjectId;
+
+import MachinaEar.iam.entities.RootEntity;
+import MachinaEar.iam.json.ObjectIdAdapter;
+import jakarta.json.bind.annotation.JsonbTypeAdapter;
+
+/**
+ * Owner-defined alert condition, evaluated on every reading of the owner's
+ * devices (or of a single device). Rules are immutable once created.
+ */
+public class AlertRule extends RootEntity {
+
+    public enum Type {
+        SCORE_ABOVE,  // score > threshold for 'count' consecutive readings
+        P95_ABOVE,    // p95 of the scores of the last 'minutes' > threshold
+        OFFLINE       // device offline for more than 'minutes'
+    }
+
+    @JsonbTypeAdapter(ObjectIdAdapter.class)
+    private ObjectId identityId; // Owner of the rule
+    @JsonbTypeAdapter(ObjectIdAdapter.class)
+    private ObjectId deviceId; // Single device, or null for all the owner's devices
+    private String name;
+    private Type type;
+    private Double threshold;
+    private Integer count;
+    private Integer minutes;
+
+    public ObjectId getIdentityId() { return identityId; }
+    public void setIdentityId(ObjectId identityId) { this.identityId = identityId; }
+
+    public ObjectId getDeviceId() { return deviceId; }
+    public void setDeviceId(ObjectId deviceId) { this.deviceId = deviceId; }
+
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+
+    public Type getType() { return type; }
+    public void setType(Type type) { this.type = type; }
+
+    public Double getThreshold() { return threshold; }
+    public void setThreshold(Double threshold) { this.threshold = threshold; }
+
+    public Integer getCount() { return count; }
+    public void setCount(Integer count) { this.count = count; }
+
+    public Integer getMinutes() { return minutes; }
+    public void setMinutes(Integer minutes) { this.minutes = minutes; }
+
+    public boolean appliesTo(ObjectId device) {
+        return deviceId == null || deviceId.equals(device);
+    }
+}
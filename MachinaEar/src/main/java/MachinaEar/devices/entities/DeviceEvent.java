@@ -0,0 +1,71 @@
+package MachinaEar.devices.entities;
+
+import java.time.Instant;
+import java.util.List;
+
+import org.bson.types.ObjectId;
+
+import MachinaEar.iam.entities.RootEntity;
+import MachinaEar.iam.json.ObjectIdAdapter;
+import jakarta.json.bind.annotation.JsonbTypeAdapter;
+
+/**
+ * State transition of a device, appended only when the state actually changes.
+ */
+public class DeviceEvent extends RootEntity {
+
+    public enum Type {
+        STATUS_CHANGED,
+        ONLINE,
+        OFFLINE,
+        PAIRED,
+        UNPAIRED;
+
+        /**
+         * Types of the events that can leave the state entered by this one
+         */
+        public List<Type> kind() {
+            return switch (this) {
+                case STATUS_CHANGED -> List.of(STATUS_CHANGED);
+                case ONLINE, OFFLINE -> List.of(ONLINE, OFFLINE);
+                case PAIRED, UNPAIRED -> List.of(PAIRED, UNPAIRED);
+            };
+        }
+    }
+
+    @JsonbTypeAdapter(ObjectIdAdapter.class)
+    private ObjectId deviceId;
+    @JsonbTypeAdapter(ObjectIdAdapter.class)
+    private ObjectId identityId; // Owner at the time of the transition
+    private Type type;
+    private String fromStatus; // Only for STATUS_CHANGED
+    private String toStatus;
+    private Instant timestamp = Instant.now();
+
+    public DeviceEvent() {}
+
+    public DeviceEvent(ObjectId deviceId, ObjectId identityId, Type type, Instant timestamp) {
+        this.deviceId = deviceId;
+        this.identityId = identityId;
+        this.type = type;
+        this.timestamp = timestamp;
+    }
+
+    public ObjectId getDeviceId() { return deviceId; }
+    public void setDeviceId(ObjectId deviceId) { this.deviceId = deviceId; }
+
+    public ObjectId getIdentityId() { return identityId; }
+    public void setIdentityId(ObjectId identityId) { this.identityId = identityId; }
+
+    public Type getType() { return type; }
+    public void setType(Type type) { this.type = type; }
+
+    public String getFromStatus() { return fromStatus; }
+    public void setFromStatus(String fromStatus) { this.fromStatus = fromStatus; }
+
+    public String getToStatus() { return toStatus; }
+    public void setToStatus(String toStatus) { this.toStatus = toStatus; }
+
+    public Instant getTimestamp() { return timestamp; }
+    public void setTimestamp(Instant timestamp) { this.timestamp = timestamp; }
+}
@@ -0,0 +1,72 @@
+package MachinaEar.devices.entities;
+
+import java.time.Instant;
+
+import org.bson.types.ObjectId;
+
+import MachinaEar.iam.entities.RootEntity;
+import MachinaEar.iam.json.ObjectIdAdapter;
+import jakarta.json.bind.annotation.JsonbTypeAdapter;
+
+/**
+ * A run of abnormal readings on one device, from the first abnormal reading
+ * until a quiet period without any.
+ */
+public class Incident extends RootEntity {
+
+    public enum Status {
+        OPEN,
+        CLOSED
+    }
+
+    @JsonbTypeAdapter(ObjectIdAdapter.class)
+    private ObjectId deviceId;
+    @JsonbTypeAdapter(ObjectIdAdapter.class)
+    private ObjectId identityId;
+    private String deviceName;
+    private Status status = Status.OPEN;
+    private Instant openedAt;
+    private Instant lastAbnormalAt;
+    private Instant closedAt;
+    private long abnormalReadings;
+    private long totalReadings; // Including normal readings while the incident was open
+    private double scoreSum; // Of abnormal readings, for the mean
+    private double peakScore;
+    private Instant peakAt;
+
+    public ObjectId getDeviceId() { return deviceId; }
+    public void setDeviceId(ObjectId deviceId) { this.deviceId = deviceId; }
+
+    public ObjectId getIdentityId() { return identityId; }
+    public void setIdentityId(ObjectId identityId) { this.identityId = identityId; }
+
+    public String getDeviceName() { return deviceName; }
+    public void setDeviceName(String deviceName) { this.deviceName = deviceName; }
+
+    public Status getStatus() { return status; }
+    public void setStatus(Status status) { this.status = status; }
+
+    public Instant getOpenedAt() { return openedAt; }
+    public void setOpenedAt(Instant openedAt) { this.openedAt = openedAt; }
+
+    public Instant getLastAbnormalAt() { return lastAbnormalAt; }
+    public void setLastAbnormalAt(Instant lastAbnormalAt) { this.lastAbnormalAt = lastAbnormalAt; }
+
+    public Instant getClosedAt() { return closedAt; }
+    public void setClosedAt(Instant closedAt) { this.closedAt = closedAt; }
+
+    public long getAbnormalReadings() { return abnormalReadings; }
+    public void setAbnormalReadings(long abnormalReadings) { this.abnormalReadings = abnormalReadings; }
+
+    public long getTotalReadings() { return totalReadings; }
+    public void setTotalReadings(long totalReadings) { this.totalReadings = totalReadings; }
+
+    public double getScoreSum() { return scoreSum; }
+    public void setScoreSum(double scoreSum) { this.scoreSum = scoreSum; }
+
+    public double getPeakScore() { return peakScore; }
+    public void setPeakScore(double peakScore) { this.peakScore = peakScore; }
+
+    public Instant getPeakAt() { return peakAt; }
+    public void setPeakAt(Instant peakAt) { this.peakAt = peakAt; }
+}
@@ -32,6 +32,7 @@ import MachinaEar.iam.security.AltchaManager;
 import MachinaEar.iam.security.Secured;
 import MachinaEar.iam.security.JwtManager;
 import MachinaEar.iam.security.Argon2Utility;
+import MachinaEar.iam.security.Argon2OverloadedException;
 import MachinaEar.iam.security.PasswordValidator;
 
 @Path("/auth")
@@ -158,6 +159,8 @@ public class AuthenticationEndpoint {
                 15 // expires in 15 minutes
             )).build();
 
+        } catch (Argon2OverloadedException e) {
+            throw e; // 503 with Retry-After
         } catch (Exception e) {
             return Response.status(Response.Status.BAD_REQUEST)
                 .entity(new ErrorResponse(e.getMessage())).build();
@@ -190,6 +193,10 @@ public class AuthenticationEndpoint {
         @APIResponse(
             responseCode = "401",
             description = "Authentication failed - invalid credentials or 2FA required"
+        ),
+        @APIResponse(
+            responseCode = "503",
+            description = "Password hashing capacity exhausted - retry after the Retry-After delay"
         )
     })
     public Response login(
@@ -2,7 +2,9 @@ package MachinaEar.iam.boundaries;
 
 import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
 
 import org.eclipse.microprofile.openapi.annotations.Operation;
 import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
@@ -10,24 +12,65 @@ import org.eclipse.microprofile.openapi.annotations.responses.APIResponses;
 import org.eclipse.microprofile.openapi.annotations.tags.Tag;
 
 import MachinaEar.iam.security.JwtManager;
+import MachinaEar.iam.security.SigningKeyStore;
 
 @Path("/.well-known")
 @Tag(name = "Public Keys", description = "Public key endpoints for JWT verification")
 public class JWKEndpoint {
 
+    // Keys are published a day before they sign, so an hour-old copy verifies every token except
+    // those of a key created when no stored key could sign (see SigningKeyStore)
+    private static final long MAX_AGE_SECONDS = Long.parseLong(
+            System.getenv().getOrDefault("JWKS_MAX_AGE_SECONDS", "3600"));
+
     @Inject JwtManager jwt;
 
     @GET @Path("/jwks.json")
     @Produces(MediaType.APPLICATION_JSON)
     @Operation(
         summary = "Get public JWK set",
-        description = "Returns the JSON Web Key Set containing public keys for JWT signature verification"
+        description = "Returns the JSON Web Key Set containing public keys for JWT signature verification. " +
+                     "The response carries a strong ETag and may be cached for Cache-Control max-age."
     )
     @APIResponses({
         @APIResponse(
             responseCode = "200",
             description = "JWK set retrieved successfully"
+        ),
+        @APIResponse(
+            responseCode = "304",
+            description = "JWK set unchanged since the ETag sent in If-None-Match"
         )
     })
-    public String jwks() { return jwt.publicJwkSetJson(); }
+    public Response jwks(@HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch) {
+        SigningKeyStore.Jwks jwks = jwt.publicJwks();
+        String cacheControl = "public, max-age=" + MAX_AGE_SECONDS;
+        if (matches(ifNoneMatch, jwks.etag())) {
+            return Response.notModified()
+                    .header(HttpHeaders.ETAG, jwks.etag())
+                    .header(HttpHeaders.CACHE_CONTROL, cacheControl)
+                    .build();
+        }
+        return Response.ok(jwks.json(), MediaType.APPLICATION_JSON_TYPE)
+                .header(HttpHeaders.ETAG, jwks.etag())
+                .header(HttpHeaders.CACHE_CONTROL, cacheControl)
+                .build();
+    }
+
+    // If-None-Match is "*" or a list of entity tags, possibly weak (W/"...")
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
@@ -0,0 +1,49 @@
+package MachinaEar.iam.boundaries;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.microprofile.openapi.annotations.Operation;
+import org.eclipse.microprofile.openapi.annotations.tags.Tag;
+
+import MachinaEar.iam.controllers.managers.EmailService;
+import MachinaEar.iam.security.Argon2Utility;
+import MachinaEar.iam.security.ClaimsCache;
+import MachinaEar.iam.security.RateLimiter;
+import MachinaEar.iam.security.Secured;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+/**
+ * Operational metrics of the server's internal queues and pools.
+ */
+@Path("/admin/metrics")
+@Produces(MediaType.APPLICATION_JSON)
+@Tag(name = "Metrics", description = "Operational metrics (admin only)")
+@Secured({"ADMIN"})
+public class MetricsEndpoint {
+
+    @Inject
+    EmailService emailService;
+
+    @Inject
+    ClaimsCache claimsCache;
+
+    @Inject
+    RateLimiter rateLimiter;
+
+    @GET
+    @Operation(summary = "Metrics", description = "Email outbox backlog, delivery queue depth, SMTP connections and send latency; Argon2 queue wait and hash time; JWT claims cache hits; rate limited keys and rejections")
+    public Response getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("email", emailService.stats());
+        metrics.put("argon2", Argon2Utility.stats());
+        metrics.put("jwtCache", claimsCache.stats());
+        metrics.put("rateLimit", rateLimiter.stats());
+        return Response.ok(metrics).build();
+    }
+}
@@ -2,11 +2,30 @@ package MachinaEar.iam.controllers.managers;
 
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import jakarta.enterprise.concurrent.ManagedThreadFactory;
+import jakarta.inject.Inject;
+
+import MachinaEar.iam.controllers.repositories.OutboxRepository;
+import MachinaEar.iam.entities.OutboxEmail;
 
 @ApplicationScoped
 public class EmailService {
@@ -62,6 +81,18 @@ public class EmailService {
             MachinaEar Team
             """;
 
+    private static final String ALERT_DIGEST_TEXT_TEMPLATE = """
+            MachinaEar alerts
+
+            {{count}} alert(s) fired on your devices:
+
+            {{alerts}}
+            See your dashboard for details: {{url}}
+
+            ---
+            MachinaEar Team
+            """;
+
     private String smtpHost;
     private int smtpPort;
     private String smtpUser;
@@ -73,6 +104,27 @@ public class EmailService {
     private boolean auth;
     private boolean starttls;
     private boolean enabled;
+    private int poolSize;
+    private int queueCapacity;
+
+    @Resource
+    ManagedThreadFactory threadFactory;
+
+    @Inject
+    OutboxRepository outbox;
+
+    @Inject
+    OutboxDispatcher dispatcher;
+
+    private jakarta.mail.Session session;
+    private ThreadPoolExecutor delivery;
+    private final LinkedBlockingQueue<jakarta.mail.Transport> idleTransports = new LinkedBlockingQueue<>();
+    private final AtomicInteger openTransports = new AtomicInteger();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder sendNanos = new LongAdder();
+    private final LongAccumulator maxSendNanos = new LongAccumulator(Math::max, 0);
 
     @PostConstruct
     public void init() {
@@ -86,13 +138,21 @@ public class EmailService {
         this.iamUrl = getEnvOrDefault("IAM_URL", "https://iam.machinaear.me/iam-0.1.0/login.html");
         this.auth = Boolean.parseBoolean(getEnvOrDefault("SMTP_AUTH", "true"));
         this.starttls = Boolean.parseBoolean(getEnvOrDefault("SMTP_STARTTLS", "true"));
+        this.poolSize = Integer.parseInt(getEnvOrDefault("SMTP_POOL_SIZE", "4"));
+        this.queueCapacity = Integer.parseInt(getEnvOrDefault("SMTP_QUEUE_CAPACITY", "1000"));
 
         if (smtpHost == null || smtpHost.isBlank()) {
             LOGGER.warning("SMTP_HOST not set. Email service is DISABLED. Set environment variable to enable.");
             this.enabled = false;
         } else {
             this.enabled = true;
-            LOGGER.info("EmailService initialized successfully with SMTP host: " + smtpHost);
+            this.session = createSession();
+            // Workers drain a bounded queue; each holds at most one pooled connection
+            this.delivery = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity),
+                    threadFactory != null ? threadFactory : Executors.defaultThreadFactory());
+            LOGGER.info("EmailService initialized successfully with SMTP host: " + smtpHost
+                    + " (" + poolSize + " connections, queue " + queueCapacity + ")");
         }
     }
 
@@ -100,7 +160,7 @@ public class EmailService {
      * Send email verification link to user (legacy - for existing tokens)
      * @param toEmail Recipient email address
      * @param verificationToken The verification token
-     * @return true if email sent successfully, false otherwise
+     * @return true if email queued for delivery, false otherwise
      */
     public boolean sendVerificationEmail(String toEmail, String verificationToken) {
         if (!enabled) {
@@ -121,7 +181,7 @@ public class EmailService {
      * Send verification CODE email to user (new flow - 6-digit code)
      * @param toEmail Recipient email address
      * @param verificationCode The 6-digit verification code
-     * @return true if email sent successfully, false otherwise
+     * @return true if email queued for delivery, false otherwise
      */
     public boolean sendVerificationCodeEmail(String toEmail, String verificationCode) {
         if (!enabled) {
@@ -140,7 +200,7 @@ public class EmailService {
      * Send password reset link to user
      * @param toEmail Recipient email address
      * @param resetToken The password reset token
-     * @return true if email sent successfully, false otherwise
+     * @return true if email queued for delivery, false otherwise
      */
     public boolean sendPasswordResetEmail(String toEmail, String resetToken) {
         if (!enabled) {
@@ -159,14 +219,177 @@ public class EmailService {
     }
 
     /**
-     * Core method to send an email via SMTP
+     * Send one digest email listing alerts that fired on the user's devices
+     * @param toEmail Recipient email address
+     * @param total Number of alerts in the digest period (may exceed the listed lines)
+     * @param lines One human-readable line per listed alert
+     * @return true if email queued for delivery, false otherwise
+     */
+    public boolean sendAlertDigestEmail(String toEmail, int total, java.util.List<String> lines) {
+        if (!enabled) {
+            LOGGER.warning("Email service disabled. Alert digest not sent to: " + toEmail);
+            return false;
+        }
+
+        String subject = total == 1 ? "1 new alert - MachinaEar" : total + " new alerts - MachinaEar";
+        String htmlContent = buildAlertDigestEmailHtml(total, lines);
+        String textContent = buildAlertDigestEmailText(total, lines);
+
+        return sendEmail(toEmail, subject, htmlContent, textContent);
+    }
+
+    /**
+     * Core method to send an email: the message is written to the outbox and
+     * delivered later by the {@link OutboxDispatcher}, so the caller never
+     * waits on the mail server.
+     * @return true if the email was stored in the outbox, false otherwise
      */
     private boolean sendEmail(String toEmail, String subject, String htmlContent, String textContent) {
+        try {
+            outbox.enqueue(new OutboxEmail(toEmail, subject, htmlContent, textContent));
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, "Error storing email to: " + toEmail, e);
+            return false;
+        }
+        dispatcher.wake();
+        return true;
+    }
+
+    /**
+     * Hands an outbox email to a delivery worker. The worker first calls
+     * 'start' and drops the email without an outcome if it returns false;
+     * otherwise the outcome is reported with null on success or the last
+     * error once delivery gave up.
+     * @return true if the email was queued, false if the queue is full
+     */
+    boolean deliverAsync(OutboxEmail email, BooleanSupplier start, Consumer<Exception> outcome) {
+        jakarta.mail.Message message;
+        try {
+            message = buildMessage(email);
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, "Error building email to: " + email.getToEmail(), e);
+            outcome.accept(e);
+            return true;
+        }
+
+        try {
+            delivery.execute(() -> {
+                if (start.getAsBoolean()) {
+                    outcome.accept(deliver(email.getToEmail(), message));
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            return false;
+        }
+    }
+
+    /**
+     * Number of emails that can be queued now and still reach a worker
+     * within 'within', judged from the observed send latency (one second per
+     * send until one completed), capped by the free slots in the queue
+     */
+    int deliveryCapacity(Duration within) {
+        if (delivery == null) {
+            return 0;
+        }
+        long count = sent.sum();
+        double sendMillis = count == 0 ? 1000 : Math.max(1, sendNanos.sum() / count / 1_000_000.0);
+        long reachable = (long) (poolSize * within.toMillis() / sendMillis) - delivery.getQueue().size();
+        return (int) Math.max(0, Math.min(reachable, delivery.getQueue().remainingCapacity()));
+    }
+
+    private jakarta.mail.Message buildMessage(OutboxEmail email) throws Exception {
+        jakarta.mail.Message message = new jakarta.mail.internet.MimeMessage(session);
+        message.setFrom(new jakarta.mail.internet.InternetAddress(fromEmail, fromName));
+        message.setRecipients(jakarta.mail.Message.RecipientType.TO, jakarta.mail.internet.InternetAddress.parse(email.getToEmail()));
+        message.setSubject(email.getSubject());
+
+        // Create a multi-part message for HTML and Text
+        jakarta.mail.internet.MimeMultipart multipart = new jakarta.mail.internet.MimeMultipart("alternative");
+
+        // Text part
+        jakarta.mail.internet.MimeBodyPart textPart = new jakarta.mail.internet.MimeBodyPart();
+        textPart.setText(email.getTextContent(), "utf-8");
+        multipart.addBodyPart(textPart);
+
+        // HTML part
+        jakarta.mail.internet.MimeBodyPart htmlPart = new jakarta.mail.internet.MimeBodyPart();
+        htmlPart.setContent(email.getHtmlContent(), "text/html; charset=utf-8");
+        multipart.addBodyPart(htmlPart);
+
+        message.setContent(multipart);
+        message.saveChanges();
+        return message;
+    }
+
+    /**
+     * Sends one queued message over a pooled connection. A connection that
+     * fails is discarded and the message retried once on a fresh one, which
+     * covers connections the server closed while idle.
+     * @return null if the server accepted the message, the last error otherwise
+     */
+    private Exception deliver(String toEmail, jakarta.mail.Message message) {
+        long start = System.nanoTime();
+        for (int attempt = 1; ; attempt++) {
+            jakarta.mail.Transport transport = null;
+            try {
+                transport = borrowTransport();
+                transport.sendMessage(message, message.getAllRecipients());
+                idleTransports.offer(transport);
+                long elapsed = System.nanoTime() - start;
+                sent.increment();
+                sendNanos.add(elapsed);
+                maxSendNanos.accumulate(elapsed);
+                LOGGER.info("Email sent successfully via SMTP to: " + toEmail);
+                return null;
+            } catch (Exception e) {
+                closeTransport(transport);
+                if (attempt >= 2) {
+                    failed.increment();
+                    LOGGER.log(Level.WARNING, "Error sending SMTP email to: " + toEmail, e);
+                    return e;
+                }
+            }
+        }
+    }
+
+    private jakarta.mail.Transport borrowTransport() throws jakarta.mail.MessagingException {
+        jakarta.mail.Transport transport;
+        while ((transport = idleTransports.poll()) != null) {
+            if (transport.isConnected()) {
+                return transport;
+            }
+            closeTransport(transport);
+        }
+        // One connection per worker at most, so the pool never exceeds the worker count
+        transport = session.getTransport("smtp");
+        transport.connect(smtpHost, smtpPort, auth ? smtpUser : null, auth ? smtpPassword : null);
+        openTransports.incrementAndGet();
+        return transport;
+    }
+
+    private void closeTransport(jakarta.mail.Transport transport) {
+        if (transport == null) {
+            return;
+        }
+        openTransports.decrementAndGet();
+        try {
+            transport.close();
+        } catch (Exception e) {
+            // already broken
+        }
+    }
+
+    private jakarta.mail.Session createSession() {
         java.util.Properties props = new java.util.Properties();
         props.put("mail.smtp.host", smtpHost);
         props.put("mail.smtp.port", String.valueOf(smtpPort));
         props.put("mail.smtp.auth", String.valueOf(auth));
-        
+        props.put("mail.smtp.connectiontimeout", "10000");
+        props.put("mail.smtp.timeout", "30000");
+
         if (smtpPort == 465) {
             props.put("mail.smtp.ssl.enable", "true");
             props.put("mail.smtp.socketFactory.port", "465");
@@ -174,47 +397,59 @@ public class EmailService {
         } else {
             props.put("mail.smtp.starttls.enable", String.valueOf(starttls));
         }
-        
+
         props.put("mail.smtp.ssl.protocols", "TLSv1.2 TLSv1.3");
 
-        jakarta.mail.Session session = jakarta.mail.Session.getInstance(props, new jakarta.mail.Authenticator() {
+        return jakarta.mail.Session.getInstance(props, new jakarta.mail.Authenticator() {
             @Override
             protected jakarta.mail.PasswordAuthentication getPasswordAuthentication() {
                 return new jakarta.mail.PasswordAuthentication(smtpUser, smtpPassword);
             }
         });
+    }
 
+    @PreDestroy
+    public void shutdown() {
+        if (delivery == null) {
+            return;
+        }
+        delivery.shutdown();
         try {
-            jakarta.mail.Message message = new jakarta.mail.internet.MimeMessage(session);
-            message.setFrom(new jakarta.mail.internet.InternetAddress(fromEmail, fromName));
-            message.setRecipients(jakarta.mail.Message.RecipientType.TO, jakarta.mail.internet.InternetAddress.parse(toEmail));
-            message.setSubject(subject);
-
-            // Create a multi-part message for HTML and Text
-            jakarta.mail.internet.MimeMultipart multipart = new jakarta.mail.internet.MimeMultipart("alternative");
-
-            // Text part
-            jakarta.mail.internet.MimeBodyPart textPart = new jakarta.mail.internet.MimeBodyPart();
-            textPart.setText(textContent, "utf-8");
-            multipart.addBodyPart(textPart);
-
-            // HTML part
-            jakarta.mail.internet.MimeBodyPart htmlPart = new jakarta.mail.internet.MimeBodyPart();
-            htmlPart.setContent(htmlContent, "text/html; charset=utf-8");
-            multipart.addBodyPart(htmlPart);
-
-            message.setContent(multipart);
-
-            jakarta.mail.Transport.send(message);
-
-            LOGGER.info("Email sent successfully via SMTP to: " + toEmail);
-            return true;
-        } catch (Exception e) {
-            LOGGER.log(Level.SEVERE, "Error sending SMTP email to: " + toEmail, e);
-            return false;
+            if (!delivery.awaitTermination(10, TimeUnit.SECONDS)) {
+                // Undelivered emails stay in the outbox and are retried once their lease expires
+                LOGGER.warning("Email queue not drained on shutdown: " + delivery.getQueue().size() + " left in outbox");
+                delivery.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        jakarta.mail.Transport transport;
+        while ((transport = idleTransports.poll()) != null) {
+            closeTransport(transport);
         }
     }
 
+    /**
+     * Delivery metrics: outbox backlog, queue depth, open connections and
+     * send latency (from dequeue to accepted by the server, retries included).
+     */
+    public DeliveryStats stats() {
+        long count = sent.sum();
+        return new DeliveryStats(
+                outbox.countPending(),
+                delivery == null ? 0 : delivery.getQueue().size(),
+                queueCapacity,
+                openTransports.get(),
+                count,
+                failed.sum(),
+                rejected.sum(),
+                count == 0 ? 0 : sendNanos.sum() / count / 1_000_000.0,
+                maxSendNanos.get() / 1_000_000.0);
+    }
+
+    public static record DeliveryStats(long outboxPending, int queueDepth, int queueCapacity, int openConnections, long sent,
+            long failed, long rejected, double avgSendMillis, double maxSendMillis) {}
+
     /**
      * Build HTML email for email verification (link-based)
      */
@@ -284,6 +519,52 @@ public class EmailService {
             "</div></body></html>";
     }
 
+    /**
+     * Build HTML email for an alert digest
+     */
+    private String buildAlertDigestEmailHtml(int total, java.util.List<String> lines) {
+        StringBuilder items = new StringBuilder();
+        for (String line : lines) {
+            items.append("<li style=\"margin-bottom: 6px;\">").append(escapeHtml(line)).append("</li>");
+        }
+        if (total > lines.size()) {
+            items.append("<li style=\"color: #666;\">and ").append(total - lines.size()).append(" more</li>");
+        }
+        String dashboardUrl = buildAppLink("/dashboard", "tab", "alerts");
+        return "<!DOCTYPE html>" +
+            "<html><head><meta charset=\"UTF-8\"><meta name=\"viewport\" content=\"width=device-width, initial-scale=1.0\"></head>" +
+            "<body style=\"font-family: Arial, sans-serif; line-height: 1.6; color: #333; max-width: 600px; margin: 0 auto; padding: 20px;\">" +
+            "<div style=\"background: #667eea; padding: 30px; text-align: center; border-radius: 10px 10px 0 0;\">" +
+            "<h1 style=\"color: white; margin: 0;\">MachinaEar Alerts</h1></div>" +
+            "<div style=\"background: #f9f9f9; padding: 30px; border-radius: 0 0 10px 10px;\">" +
+            "<h2 style=\"color: #333;\">" + total + " alert(s) fired on your devices</h2>" +
+            "<ul style=\"padding-left: 20px;\">" + items + "</ul>" +
+            "<div style=\"text-align: center; margin: 30px 0;\">" +
+            "<a href=\"" + dashboardUrl + "\" style=\"background: #667eea; color: white; padding: 14px 30px; text-decoration: none; border-radius: 5px; display: inline-block; font-weight: bold;\">Open Dashboard</a></div>" +
+            "</div></body></html>";
+    }
+
+    /**
+     * Build plain text email for an alert digest
+     */
+    private String buildAlertDigestEmailText(int total, java.util.List<String> lines) {
+        StringBuilder items = new StringBuilder();
+        for (String line : lines) {
+            items.append("- ").append(line).append("\n");
+        }
+        if (total > lines.size()) {
+            items.append("- and ").append(total - lines.size()).append(" more\n");
+        }
+        return ALERT_DIGEST_TEXT_TEMPLATE
+                .replace("{{count}}", String.valueOf(total))
+                .replace("{{alerts}}", items.toString())
+                .replace("{{url}}", buildAppLink("/dashboard", "tab", "alerts"));
+    }
+
+    private static String escapeHtml(String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
     /**
      * Build plain text email for password reset
      */
@@ -0,0 +1,146 @@
+package MachinaEar.iam.controllers.managers;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import MachinaEar.iam.controllers.repositories.OutboxRepository;
+import MachinaEar.iam.entities.OutboxEmail;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import jakarta.enterprise.concurrent.ManagedScheduledExecutorService;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+
+/**
+ * Drains the email outbox. Due emails are claimed in batches under a lease
+ * naming this instance, handed to the EmailService delivery workers and
+ * marked sent, rescheduled with exponential backoff or, after MAX_ATTEMPTS,
+ * failed. An instance that dies mid-batch leaves its emails leased; they are
+ * claimed again once the lease expires.
+ *
+ * Only as many emails are claimed as the workers can start within half a
+ * lease, and a worker renews the lease when it picks an email up. An email
+ * whose lease was lost while queued, because the estimate was off, is
+ * skipped by its worker instead of being sent twice.
+ */
+@ApplicationScoped
+public class OutboxDispatcher {
+
+    private static final Logger LOGGER = Logger.getLogger(OutboxDispatcher.class.getName());
+
+    private static final long POLL_SECONDS = 5;
+    private static final int BATCH_SIZE = 50;
+    private static final Duration LEASE = Duration.ofMinutes(5);
+    private static final Duration BASE_BACKOFF = Duration.ofSeconds(30);
+    private static final Duration MAX_BACKOFF = Duration.ofHours(1);
+    private static final int MAX_ATTEMPTS = Integer.parseInt(
+            System.getenv().getOrDefault("OUTBOX_MAX_ATTEMPTS", "8"));
+
+    @Resource
+    ManagedScheduledExecutorService scheduler;
+
+    @Inject
+    OutboxRepository outbox;
+
+    @Inject
+    EmailService emailService;
+
+    private final String owner = UUID.randomUUID().toString();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private ScheduledFuture<?> task;
+
+    public void start(@Observes @Initialized(ApplicationScoped.class) Object init) {
+        task = scheduler.scheduleWithFixedDelay(this::drain, POLL_SECONDS, POLL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+
+    /**
+     * Drains right away instead of waiting for the next poll, so freshly
+     * written emails go out without the poll delay.
+     */
+    public void wake() {
+        if (scheduler != null && !draining.get()) {
+            scheduler.execute(this::drain);
+        }
+    }
+
+    void drain() {
+        if (!emailService.isEnabled() || !draining.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            int limit;
+            while ((limit = Math.min(BATCH_SIZE, emailService.deliveryCapacity(LEASE.dividedBy(2)))) > 0) {
+                Instant now = Instant.now();
+                List<OutboxEmail> batch = outbox.claim(owner, now, now.plus(LEASE), limit);
+                for (OutboxEmail email : batch) {
+                    if (!emailService.deliverAsync(email, () -> begin(email), error -> complete(email, error))) {
+                        outbox.release(email.getId(), owner);
+                    }
+                }
+                if (batch.size() < limit) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, "Email outbox drain failed", e);
+        } finally {
+            draining.set(false);
+        }
+    }
+
+    // Called by the worker right before sending
+    private boolean begin(OutboxEmail email) {
+        try {
+            if (outbox.renewLease(email.getId(), owner, Instant.now().plus(LEASE))) {
+                return true;
+            }
+            LOGGER.warning("Lease on email " + email.getId() + " was lost while queued, not sending it");
+        } catch (Exception e) {
+            // The lease expires and the email is retried
+            LOGGER.log(Level.SEVERE, "Failed to renew lease of email " + email.getId(), e);
+        }
+        return false;
+    }
+
+    private void complete(OutboxEmail email, Exception error) {
+        try {
+            if (error == null) {
+                if (!outbox.markSent(email.getId(), owner)) {
+                    LOGGER.warning("Email " + email.getId() + " was sent after its lease was lost");
+                }
+            } else if (email.getAttempts() >= MAX_ATTEMPTS) {
+                LOGGER.severe("Giving up on email to " + email.getToEmail() + " after "
+                        + email.getAttempts() + " attempts: " + error.getMessage());
+                outbox.markFailed(email.getId(), owner, String.valueOf(error.getMessage()));
+            } else {
+                outbox.markRetry(email.getId(), owner, Instant.now().plus(backoff(email.getAttempts())),
+                        String.valueOf(error.getMessage()));
+            }
+        } catch (Exception e) {
+            // The lease expires and the email is retried
+            LOGGER.log(Level.SEVERE, "Failed to record outcome of email " + email.getId(), e);
+        }
+    }
+
+    // 30s, 1m, 2m, ... capped at one hour
+    private static Duration backoff(int attempts) {
+        Duration delay = BASE_BACKOFF.multipliedBy(1L << Math.min(attempts - 1, 20));
+        return delay.compareTo(MAX_BACKOFF) > 0 ? MAX_BACKOFF : delay;
+    }
+}
@@ -206,7 +206,8 @@ public class PhoenixIAMManager {
             throw new SecurityException("Email not verified. Please check your inbox for the verification link.");
         }
 
-        if (!Argon2Utility.verify(user.getPasswordHash(), password))
+        Argon2Utility.Verification verification = Argon2Utility.verifyAndRehash(user.getPasswordHash(), password);
+        if (!verification.valid())
             throw new SecurityException("Bad credentials");
 
         // Check if 2FA is enabled
@@ -220,19 +221,9 @@ public class PhoenixIAMManager {
 
             // Try recovery code if TOTP failed
             if (!twoFactorValid && recoveryCode != null && !recoveryCode.trim().isEmpty()) {
-                List<String> recoveryCodes = user.getRecoveryCodes();
-                if (recoveryCodes != null) {
-                    for (int i = 0; i < recoveryCodes.size(); i++) {
-                        if (totpManager.verifyRecoveryCode(recoveryCodes.get(i), recoveryCode.trim())) {
-                            twoFactorValid = true;
-                            // Remove used recovery code
-                            recoveryCodes.remove(i);
-                            user.setRecoveryCodes(recoveryCodes);
-                            identities.update(user);
-                            break;
-                        }
-                    }
-                }
+                String used = totpManager.findRecoveryCode(user.getRecoveryCodes(), recoveryCode.trim());
+                // Consume atomically: of two concurrent logins with the same code only one succeeds
+                twoFactorValid = used != null && identities.pullRecoveryCode(user.getId(), used);
             }
 
             if (!twoFactorValid) {
@@ -244,6 +235,11 @@ public class PhoenixIAMManager {
             }
         }
 
+        // Upgrade a hash made with outdated cost parameters, unless it changed meanwhile
+        if (verification.upgradedHash() != null) {
+            identities.updatePasswordHash(user.getId(), user.getPasswordHash(), verification.upgradedHash());
+        }
+
         Set<Role> roles = user.getRoles();
         if (roles == null || roles.isEmpty())
             roles = new HashSet<>(grants.findRolesByIdentity(user.getId()));
@@ -350,9 +346,7 @@ public class PhoenixIAMManager {
         }
 
         // Hash recovery codes before storing
-        List<String> hashedCodes = recoveryCodes.stream()
-                .map(totpManager::hashRecoveryCode)
-                .collect(Collectors.toList());
+        List<String> hashedCodes = totpManager.hashRecoveryCodes(recoveryCodes);
 
         // Save 2FA settings
         user.setTwoFactorEnabled(true);
@@ -399,9 +393,7 @@ public class PhoenixIAMManager {
 
         // Generate new codes
         List<String> recoveryCodes = totpManager.generateRecoveryCodes(10);
-        List<String> hashedCodes = recoveryCodes.stream()
-                .map(totpManager::hashRecoveryCode)
-                .collect(Collectors.toList());
+        List<String> hashedCodes = totpManager.hashRecoveryCodes(recoveryCodes);
 
         user.setRecoveryCodes(hashedCodes);
         identities.update(user);
@@ -0,0 +1,59 @@
+package MachinaEar.iam.controllers.repositories;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.ReplaceOptions;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import MachinaEar.iam.entities.Argon2Settings;
+
+import static com.mongodb.client.model.Filters.*;
+
+/**
+ * Repository for the Argon2 cost shared by all nodes
+ */
+@ApplicationScoped
+public class Argon2SettingsRepository {
+
+    @Inject
+    MongoDatabase db;
+
+    private MongoCollection<Argon2Settings> collection() {
+        return db.getCollection("argon2_settings", Argon2Settings.class);
+    }
+
+    @PostConstruct
+    public void init() {
+        collection().createIndex(Indexes.ascending("scope"), new IndexOptions().unique(true));
+    }
+
+    public Argon2Settings find() {
+        return collection().find(eq("scope", Argon2Settings.GLOBAL)).first();
+    }
+
+    /**
+     * Store the settings unless another node already stored its own
+     * @return true if these settings were stored
+     */
+    public boolean insertIfAbsent(Argon2Settings settings) {
+        try {
+            collection().insertOne(settings);
+            return true;
+        } catch (MongoWriteException e) {
+            if (e.getError().getCategory() == ErrorCategory.DUPLICATE_KEY) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    public void replace(Argon2Settings settings) {
+        collection().replaceOne(eq("scope", Argon2Settings.GLOBAL), settings, new ReplaceOptions().upsert(true));
+    }
+}
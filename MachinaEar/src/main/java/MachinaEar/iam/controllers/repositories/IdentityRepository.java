@@ -9,6 +9,7 @@ import org.bson.types.ObjectId;
 
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Updates;
 
 import static com.mongodb.client.model.Filters.eq;
 import static com.mongodb.client.model.Filters.and;
@@ -60,6 +61,24 @@ public class IdentityRepository {
 
     public void update(Identity i) { col.replaceOne(eq("_id", i.getId()), i); }
 
+    /**
+     * Replace the password hash only if it is still 'expectedHash',
+     * so a concurrent password reset is never overwritten
+     */
+    public boolean updatePasswordHash(ObjectId id, String expectedHash, String newHash) {
+        return col.updateOne(
+            and(eq("_id", id), eq("passwordHash", expectedHash)),
+            Updates.set("passwordHash", newHash)
+        ).getModifiedCount() > 0;
+    }
+
+    /**
+     * Remove one stored recovery code; false if it was already consumed
+     */
+    public boolean pullRecoveryCode(ObjectId id, String entry) {
+        return col.updateOne(eq("_id", id), Updates.pull("recoveryCodes", entry)).getModifiedCount() > 0;
+    }
+
     public boolean emailExists(String email) { return col.countDocuments(eq("email", email)) > 0; }
 
     /**
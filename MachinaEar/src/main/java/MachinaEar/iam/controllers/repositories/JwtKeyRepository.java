@@ -0,0 +1,66 @@
+package MachinaEar.iam.controllers.repositories;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Sorts;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import MachinaEar.iam.entities.JwtKey;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.mongodb.client.model.Filters.*;
+
+/**
+ * Repository for the JWT signing keys shared by all nodes
+ */
+@ApplicationScoped
+public class JwtKeyRepository {
+
+    @Inject
+    MongoDatabase db;
+
+    private MongoCollection<JwtKey> collection() {
+        return db.getCollection("jwt_keys", JwtKey.class);
+    }
+
+    @PostConstruct
+    public void init() {
+        collection().createIndex(Indexes.ascending("signingFrom"), new IndexOptions().unique(true));
+        collection().createIndex(Indexes.ascending("expiresAt"), new IndexOptions().expireAfter(0L, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Keys still valid for verification, oldest first
+     */
+    public List<JwtKey> findUnexpired(Instant now) {
+        return collection().find(gt("expiresAt", now))
+            .sort(Sorts.ascending("signingFrom"))
+            .into(new ArrayList<>());
+    }
+
+    /**
+     * Store a new key unless another node already stored the one starting at the same time
+     * @return true if this key was stored
+     */
+    public boolean insertIfAbsent(JwtKey key) {
+        try {
+            collection().insertOne(key);
+            return true;
+        } catch (MongoWriteException e) {
+            if (e.getError().getCategory() == ErrorCategory.DUPLICATE_KEY) {
+                return false;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package MachinaEar.iam.controllers.repositories;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import MachinaEar.iam.entities.OutboxEmail;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import static com.mongodb.client.model.Filters.*;
+import static com.mongodb.client.model.Updates.*;
+
+/**
+ * Repository for the email outbox
+ * Emails are claimed with a time-limited lease so several dispatchers never send the same one
+ */
+@ApplicationScoped
+public class OutboxRepository {
+
+    @Inject
+    MongoDatabase db;
+
+    private MongoCollection<OutboxEmail> collection() {
+        return db.getCollection("email_outbox", OutboxEmail.class);
+    }
+
+    @PostConstruct
+    public void init() {
+        collection().createIndex(Indexes.ascending("status", "nextAttemptAt"));
+        // Delivered and abandoned emails are kept a week for troubleshooting; their links are expired by then
+        collection().createIndex(Indexes.ascending("sentAt"), new IndexOptions().expireAfter(7L, TimeUnit.DAYS));
+        collection().createIndex(Indexes.ascending("failedAt"), new IndexOptions().expireAfter(7L, TimeUnit.DAYS));
+    }
+
+    public void enqueue(OutboxEmail email) {
+        collection().insertOne(email);
+    }
+
+    /**
+     * Claim up to 'limit' due emails for the given owner until 'leaseUntil',
+     * in three round trips whatever the batch size: pick the candidates,
+     * lease those still unclaimed, read back the ones this call won
+     */
+    public List<OutboxEmail> claim(String owner, Instant now, Instant leaseUntil, int limit) {
+        Bson due = and(
+            eq("status", OutboxEmail.Status.PENDING.name()),
+            lte("nextAttemptAt", now),
+            or(eq("leaseUntil", null), lt("leaseUntil", now))
+        );
+        List<ObjectId> ids = new ArrayList<>();
+        collection().find(due)
+            .sort(Sorts.ascending("nextAttemptAt"))
+            .limit(limit)
+            .projection(Projections.include("_id"))
+            .forEach(e -> ids.add(e.getId()));
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        // Re-checking 'due' skips candidates another dispatcher leased in between
+        collection().updateMany(and(in("_id", ids), due),
+            combine(set("leaseOwner", owner), set("leaseUntil", leaseUntil), inc("attempts", 1)));
+        return collection().find(and(in("_id", ids), eq("leaseOwner", owner), eq("leaseUntil", leaseUntil)))
+            .sort(Sorts.ascending("nextAttemptAt"))
+            .into(new ArrayList<>());
+    }
+
+    /**
+     * Extend the owner's lease on an email, e.g. when a worker starts sending it
+     * @return false if the lease was lost to another dispatcher or the email is no longer pending
+     */
+    public boolean renewLease(ObjectId id, String owner, Instant leaseUntil) {
+        return collection().updateOne(
+            and(eq("_id", id), eq("leaseOwner", owner), eq("status", OutboxEmail.Status.PENDING.name())),
+            set("leaseUntil", leaseUntil)
+        ).getMatchedCount() > 0;
+    }
+
+    /**
+     * @return false if the owner no longer held the lease
+     */
+    public boolean markSent(ObjectId id, String owner) {
+        return collection().updateOne(
+            and(eq("_id", id), eq("leaseOwner", owner)),
+            combine(set("status", OutboxEmail.Status.SENT.name()), set("sentAt", Instant.now()),
+                unset("leaseOwner"), unset("leaseUntil"), unset("lastError"))
+        ).getMatchedCount() > 0;
+    }
+
+    public void markRetry(ObjectId id, String owner, Instant nextAttemptAt, String error) {
+        collection().updateOne(
+            and(eq("_id", id), eq("leaseOwner", owner)),
+            combine(set("nextAttemptAt", nextAttemptAt), set("lastError", error),
+                unset("leaseOwner"), unset("leaseUntil"))
+        );
+    }
+
+    public void markFailed(ObjectId id, String owner, String error) {
+        collection().updateOne(
+            and(eq("_id", id), eq("leaseOwner", owner)),
+            combine(set("status", OutboxEmail.Status.FAILED.name()), set("failedAt", Instant.now()),
+                set("lastError", error), unset("leaseOwner"), unset("leaseUntil"))
+        );
+    }
+
+    /**
+     * Give back a claimed email without counting the attempt, e.g. when the local queue is full
+     */
+    public void release(ObjectId id, String owner) {
+        collection().updateOne(
+            and(eq("_id", id), eq("leaseOwner", owner)),
+            combine(unset("leaseOwner"), unset("leaseUntil"), inc("attempts", -1))
+        );
+    }
+
+    public long countPending() {
+        return collection().countDocuments(eq("status", OutboxEmail.Status.PENDING.name()));
+    }
+}
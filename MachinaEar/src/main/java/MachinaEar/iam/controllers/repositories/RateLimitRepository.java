@@ -0,0 +1,81 @@
+package MachinaEar.iam.controllers.repositories;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import MachinaEar.iam.entities.RateLimitCounter;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.mongodb.client.model.Filters.*;
+import static com.mongodb.client.model.Updates.*;
+
+/**
+ * Repository for the cluster-wide rate limit counters
+ */
+@ApplicationScoped
+public class RateLimitRepository {
+
+    @Inject
+    MongoDatabase db;
+
+    private MongoCollection<RateLimitCounter> collection() {
+        return db.getCollection("rate_limits", RateLimitCounter.class);
+    }
+
+    @PostConstruct
+    public void init() {
+        collection().createIndex(Indexes.ascending("key", "windowStart"), new IndexOptions().unique(true));
+        collection().createIndex(Indexes.ascending("expiresAt"), new IndexOptions().expireAfter(0L, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Add the given counts to each key's counter for the window, in one round trip
+     */
+    public void increment(Map<String, Long> counts, Instant windowStart, Instant expiresAt) {
+        List<WriteModel<RateLimitCounter>> updates = new ArrayList<>(counts.size());
+        UpdateOptions upsert = new UpdateOptions().upsert(true);
+        counts.forEach((key, count) -> updates.add(new UpdateOneModel<>(
+            and(eq("key", key), eq("windowStart", windowStart)),
+            combine(inc("count", count), setOnInsert("expiresAt", expiresAt)),
+            upsert)));
+        try {
+            collection().bulkWrite(updates, new BulkWriteOptions().ordered(false));
+        } catch (MongoBulkWriteException e) {
+            // Two nodes upserting the same new counter: one loses on the unique index, and its retry matches
+            List<WriteModel<RateLimitCounter>> retry = new ArrayList<>();
+            for (BulkWriteError error : e.getWriteErrors()) {
+                if (ErrorCategory.fromErrorCode(error.getCode()) != ErrorCategory.DUPLICATE_KEY) {
+                    throw e;
+                }
+                retry.add(updates.get(error.getIndex()));
+            }
+            collection().bulkWrite(retry, new BulkWriteOptions().ordered(false));
+        }
+    }
+
+    /**
+     * Counters of the given keys for windows starting at or after 'from'
+     */
+    public List<RateLimitCounter> find(Collection<String> keys, Instant from) {
+        return collection().find(and(in("key", keys), gte("windowStart", from)))
+            .into(new ArrayList<>());
+    }
+}
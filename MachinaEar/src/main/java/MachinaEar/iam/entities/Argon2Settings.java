@@ -0,0 +1,37 @@
+package MachinaEar.iam.entities;
+
+/**
+ * Argon2 cost shared by all nodes, stored once calibrated so every node
+ * hashes with the same parameters.
+ */
+public class Argon2Settings extends RootEntity {
+
+    public static final String GLOBAL = "global";
+
+    private String scope = GLOBAL;   // Unique: one document
+    private int iterations;
+    private int memoryKib;
+    private int parallelism;
+    private long targetMillis;       // Calibration target and load it was measured at
+    private int concurrency;
+
+    public Argon2Settings() {}
+
+    public String getScope() { return scope; }
+    public void setScope(String scope) { this.scope = scope; }
+
+    public int getIterations() { return iterations; }
+    public void setIterations(int iterations) { this.iterations = iterations; }
+
+    public int getMemoryKib() { return memoryKib; }
+    public void setMemoryKib(int memoryKib) { this.memoryKib = memoryKib; }
+
+    public int getParallelism() { return parallelism; }
+    public void setParallelism(int parallelism) { this.parallelism = parallelism; }
+
+    public long getTargetMillis() { return targetMillis; }
+    public void setTargetMillis(long targetMillis) { this.targetMillis = targetMillis; }
+
+    public int getConcurrency() { return concurrency; }
+    public void setConcurrency(int concurrency) { this.concurrency = concurrency; }
+}
@@ -0,0 +1,38 @@
+package MachinaEar.iam.entities;
+
+import java.time.Instant;
+
+/**
+ * A JWT signing key shared by all nodes. A key is published in the JWKS as
+ * soon as it is stored, signs tokens from signingFrom to signingUntil, and
+ * keeps verifying them until expiresAt, when Mongo deletes it.
+ */
+public class JwtKey extends RootEntity {
+
+    private String keyId;
+    private String algorithm;
+    private String jwk;            // Private JWK, as a compact JWE when an encryption key is set, else JSON
+    private Instant signingFrom;   // Unique: nodes racing to create the same key insert only one
+    private Instant signingUntil;
+    private Instant expiresAt;
+
+    public JwtKey() {}
+
+    public String getKeyId() { return keyId; }
+    public void setKeyId(String keyId) { this.keyId = keyId; }
+
+    public String getAlgorithm() { return algorithm; }
+    public void setAlgorithm(String algorithm) { this.algorithm = algorithm; }
+
+    public String getJwk() { return jwk; }
+    public void setJwk(String jwk) { this.jwk = jwk; }
+
+    public Instant getSigningFrom() { return signingFrom; }
+    public void setSigningFrom(Instant signingFrom) { this.signingFrom = signingFrom; }
+
+    public Instant getSigningUntil() { return signingUntil; }
+    public void setSigningUntil(Instant signingUntil) { this.signingUntil = signingUntil; }
+
+    public Instant getExpiresAt() { return expiresAt; }
+    public void setExpiresAt(Instant expiresAt) { this.expiresAt = expiresAt; }
+}
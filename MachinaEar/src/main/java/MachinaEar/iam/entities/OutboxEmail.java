@@ -0,0 +1,74 @@
+package MachinaEar.iam.entities;
+
+import java.time.Instant;
+
+/**
+ * Email waiting in the outbox. Written in the request that triggers it and
+ * delivered later by the outbox dispatcher, which leases it while sending.
+ */
+public class OutboxEmail extends RootEntity {
+
+    public enum Status {
+        PENDING,
+        SENT,
+        FAILED
+    }
+
+    private String toEmail;
+    private String subject;
+    private String htmlContent;
+    private String textContent;
+    private Status status = Status.PENDING;
+    private int attempts;
+    private Instant nextAttemptAt = Instant.now();
+    private String leaseOwner;       // Dispatcher instance currently sending it
+    private Instant leaseUntil;      // Lease expiry; an expired lease can be claimed again
+    private String lastError;
+    private Instant sentAt;
+    private Instant failedAt;
+
+    public OutboxEmail() {}
+
+    public OutboxEmail(String toEmail, String subject, String htmlContent, String textContent) {
+        this.toEmail = toEmail;
+        this.subject = subject;
+        this.htmlContent = htmlContent;
+        this.textContent = textContent;
+    }
+
+    public String getToEmail() { return toEmail; }
+    public void setToEmail(String toEmail) { this.toEmail = toEmail; }
+
+    public String getSubject() { return subject; }
+    public void setSubject(String subject) { this.subject = subject; }
+
+    public String getHtmlContent() { return htmlContent; }
+    public void setHtmlContent(String htmlContent) { this.htmlContent = htmlContent; }
+
+    public String getTextContent() { return textContent; }
+    public void setTextContent(String textContent) { this.textContent = textContent; }
+
+    public Status getStatus() { return status; }
+    public void setStatus(Status status) { this.status = status; }
+
+    public int getAttempts() { return attempts; }
+    public void setAttempts(int attempts) { this.attempts = attempts; }
+
+    public Instant getNextAttemptAt() { return nextAttemptAt; }
+    public void setNextAttemptAt(Instant nextAttemptAt) { this.nextAttemptAt = nextAttemptAt; }
+
+    public String getLeaseOwner() { return leaseOwner; }
+    public void setLeaseOwner(String leaseOwner) { this.leaseOwner = leaseOwner; }
+
+    public Instant getLeaseUntil() { return leaseUntil; }
+    public void setLeaseUntil(Instant leaseUntil) { this.leaseUntil = leaseUntil; }
+
+    public String getLastError() { return lastError; }
+    public void setLastError(String lastError) { this.lastError = lastError; }
+
+    public Instant getSentAt() { return sentAt; }
+    public void setSentAt(Instant sentAt) { this.sentAt = sentAt; }
+
+    public Instant getFailedAt() { return failedAt; }
+    public void setFailedAt(Instant failedAt) { this.failedAt = failedAt; }
+}
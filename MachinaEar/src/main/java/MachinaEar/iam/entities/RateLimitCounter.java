@@ -0,0 +1,29 @@
+package MachinaEar.iam.entities;
+
+import java.time.Instant;
+
+/**
+ * Requests admitted for one rate limit key during one fixed window, summed
+ * over all nodes. Mongo deletes the counter once the window after it ends.
+ */
+public class RateLimitCounter extends RootEntity {
+
+    private String key;            // e.g. "ip:203.0.113.7"
+    private Instant windowStart;   // Unique with key
+    private long count;
+    private Instant expiresAt;
+
+    public RateLimitCounter() {}
+
+    public String getKey() { return key; }
+    public void setKey(String key) { this.key = key; }
+
+    public Instant getWindowStart() { return windowStart; }
+    public void setWindowStart(Instant windowStart) { this.windowStart = windowStart; }
+
+    public long getCount() { return count; }
+    public void setCount(long count) { this.count = count; }
+
+    public Instant getExpiresAt() { return expiresAt; }
+    public void setExpiresAt(Instant expiresAt) { this.expiresAt = expiresAt; }
+}
@@ -0,0 +1,114 @@
+package MachinaEar.iam.security;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import MachinaEar.iam.controllers.repositories.Argon2SettingsRepository;
+import MachinaEar.iam.entities.Argon2Settings;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import jakarta.enterprise.concurrent.ManagedScheduledExecutorService;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+
+/**
+ * Keeps every node on the same Argon2 cost. The parameters stored in Mongo
+ * are adopted at startup and rechecked every REFRESH_MINUTES; stored hashes
+ * made with other parameters are upgraded on the next successful login.
+ *
+ * When ARGON2_TARGET_MS is set and nothing is stored yet, the first node to
+ * start measures its host and stores the result: the iteration count is
+ * chosen so that a hash takes about that long while ARGON2_TARGET_CONCURRENCY
+ * hashes run at once (by default the executor's memory-budgeted slot count).
+ * Later nodes adopt it instead of measuring, since timing noise would give
+ * each node a slightly different count and rehash users back and forth.
+ * ARGON2_RECALIBRATE=true measures again and replaces the stored cost.
+ */
+@ApplicationScoped
+public class Argon2Calibrator {
+
+    private static final Logger LOGGER = Logger.getLogger(Argon2Calibrator.class.getName());
+
+    private static final String TARGET_MS = System.getenv("ARGON2_TARGET_MS");
+    private static final String TARGET_CONCURRENCY = System.getenv("ARGON2_TARGET_CONCURRENCY");
+    private static final boolean RECALIBRATE = Boolean.parseBoolean(System.getenv("ARGON2_RECALIBRATE"));
+    private static final long REFRESH_MINUTES = 5;
+
+    @Resource
+    ManagedScheduledExecutorService scheduler;
+
+    @Inject
+    Argon2SettingsRepository repository;
+
+    private ScheduledFuture<?> task;
+
+    public void start(@Observes @Initialized(ApplicationScoped.class) Object init) {
+        scheduler.execute(this::setup);
+        task = scheduler.scheduleWithFixedDelay(this::refresh, REFRESH_MINUTES, REFRESH_MINUTES, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+
+    void setup() {
+        try {
+            Argon2Settings stored = repository.find();
+            boolean calibrate = TARGET_MS != null && !TARGET_MS.isBlank() && (stored == null || RECALIBRATE);
+            if (calibrate) {
+                Argon2Settings measured = calibrate(Long.parseLong(TARGET_MS.trim()));
+                if (RECALIBRATE) {
+                    repository.replace(measured);
+                    stored = measured;
+                } else if (repository.insertIfAbsent(measured)) {
+                    stored = measured;
+                } else {
+                    // Another node calibrated first
+                    stored = repository.find();
+                }
+            }
+            adopt(stored);
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, "Argon2 setup failed, keeping " + Argon2Utility.params(), e);
+        }
+    }
+
+    void refresh() {
+        try {
+            adopt(repository.find());
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Argon2 settings refresh failed", e);
+        }
+    }
+
+    private void adopt(Argon2Settings stored) {
+        if (stored == null) {
+            return;
+        }
+        Argon2Utility.Argon2Params next = new Argon2Utility.Argon2Params(
+                stored.getIterations(), stored.getMemoryKib(), stored.getParallelism());
+        if (!next.equals(Argon2Utility.params())) {
+            Argon2Utility.configure(next);
+        }
+    }
+
+    private static Argon2Settings calibrate(long target) {
+        int concurrency = TARGET_CONCURRENCY == null || TARGET_CONCURRENCY.isBlank()
+                ? Argon2Utility.slots() : Integer.parseInt(TARGET_CONCURRENCY.trim());
+        Argon2Utility.Argon2Params p = Argon2Utility.calibrate(target, concurrency);
+        Argon2Settings settings = new Argon2Settings();
+        settings.setIterations(p.iterations());
+        settings.setMemoryKib(p.memoryKib());
+        settings.setParallelism(p.parallelism());
+        settings.setTargetMillis(target);
+        settings.setConcurrency(concurrency);
+        return settings;
+    }
+}
@@ -0,0 +1,153 @@
+package MachinaEar.iam.security;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Runs Argon2 hashes on a dedicated pool sized from a native memory budget:
+ * ARGON2_MEMORY_BUDGET_MB divided by the memory cost of one hash gives the
+ * number of hashes allowed in flight. Callers beyond that wait in a bounded
+ * queue; a full queue, or a wait longer than ARGON2_MAX_WAIT_MS, is shed
+ * right away with {@link Argon2OverloadedException} rather than stalling the
+ * request threads every other endpoint needs.
+ */
+final class Argon2Executor {
+
+    private static final Logger LOGGER = Logger.getLogger(Argon2Executor.class.getName());
+
+    private static final long MEMORY_BUDGET_KIB = Long.parseLong(
+            System.getenv().getOrDefault("ARGON2_MEMORY_BUDGET_MB", "256")) * 1024;
+    private static final int QUEUE_CAPACITY = Integer.parseInt(
+            System.getenv().getOrDefault("ARGON2_QUEUE_SIZE", "64"));
+    private static final long MAX_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(
+            System.getenv().getOrDefault("ARGON2_MAX_WAIT_MS", "2000")));
+
+    private final int memoryKibPerHash;
+    private final int slots;
+    private final ThreadPoolExecutor pool;
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder hashNanos = new LongAdder();
+    private final LongAccumulator maxHashNanos = new LongAccumulator(Math::max, 0);
+
+    Argon2Executor(int memoryKibPerHash) {
+        this.memoryKibPerHash = memoryKibPerHash;
+        this.slots = (int) Math.max(1, MEMORY_BUDGET_KIB / memoryKibPerHash);
+        AtomicInteger count = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(slots, slots, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY), r -> {
+                    Thread t = new Thread(r, "argon2-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        LOGGER.info("Argon2 executor: " + slots + " concurrent hashes ("
+                + memoryKibPerHash / 1024 + " MB each), queue " + QUEUE_CAPACITY);
+    }
+
+    /**
+     * Runs the hash on the pool and waits for it.
+     */
+    <T> T run(Callable<T> hash) {
+        return runAll(List.of(hash)).get(0);
+    }
+
+    /**
+     * Runs the hashes side by side on the pool and waits for all of them.
+     * The batch is admitted whole or not at all.
+     */
+    <T> List<T> runAll(List<Callable<T>> hashes) {
+        long queuedAt = System.nanoTime();
+        List<Future<T>> futures = new ArrayList<>(hashes.size());
+        try {
+            for (Callable<T> hash : hashes) {
+                futures.add(pool.submit(() -> timed(hash, queuedAt)));
+            }
+        } catch (RejectedExecutionException e) {
+            futures.forEach(f -> f.cancel(false));
+            rejected.increment();
+            throw new Argon2OverloadedException(retryAfterSeconds());
+        }
+
+        List<T> results = new ArrayList<>(futures.size());
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (ExecutionException e) {
+            futures.forEach(f -> f.cancel(false));
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new IllegalStateException("Password hashing failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            futures.forEach(f -> f.cancel(false));
+            throw new IllegalStateException("Interrupted while waiting for password hashing", e);
+        }
+    }
+
+    private <T> T timed(Callable<T> hash, long queuedAt) throws Exception {
+        long start = System.nanoTime();
+        long waited = start - queuedAt;
+        waitNanos.add(waited);
+        maxWaitNanos.accumulate(waited);
+        if (waited > MAX_WAIT_NANOS) {
+            expired.increment();
+            throw new Argon2OverloadedException(retryAfterSeconds());
+        }
+        T result = hash.call();
+        long elapsed = System.nanoTime() - start;
+        completed.increment();
+        hashNanos.add(elapsed);
+        maxHashNanos.accumulate(elapsed);
+        return result;
+    }
+
+    int memoryKibPerHash() {
+        return memoryKibPerHash;
+    }
+
+    int slots() {
+        return slots;
+    }
+
+    // Time to drain the current queue at the observed hash rate
+    private long retryAfterSeconds() {
+        long count = completed.sum();
+        double hashMillis = count == 0 ? 100 : hashNanos.sum() / count / 1_000_000.0;
+        double drainMillis = (pool.getQueue().size() / (double) slots + 1) * hashMillis;
+        return Math.max(1, (long) Math.ceil(drainMillis / 1000));
+    }
+
+    Argon2Utility.Argon2Stats stats() {
+        long count = completed.sum();
+        long started = count + expired.sum();
+        return new Argon2Utility.Argon2Stats(
+                slots,
+                pool.getActiveCount(),
+                pool.getQueue().size(),
+                QUEUE_CAPACITY,
+                count,
+                rejected.sum(),
+                expired.sum(),
+                started == 0 ? 0 : waitNanos.sum() / started / 1_000_000.0,
+                maxWaitNanos.get() / 1_000_000.0,
+                count == 0 ? 0 : hashNanos.sum() / count / 1_000_000.0,
+                maxHashNanos.get() / 1_000_000.0);
+    }
+}
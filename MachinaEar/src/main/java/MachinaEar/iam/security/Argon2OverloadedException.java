@@ -0,0 +1,21 @@
+package MachinaEar.iam.security;
+
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+/**
+ * Thrown when a password hash cannot be admitted to the Argon2 executor.
+ * Maps to 503 with a Retry-After hint so clients back off instead of
+ * piling more hashes onto a saturated server.
+ */
+public class Argon2OverloadedException extends WebApplicationException {
+
+    public Argon2OverloadedException(long retryAfterSeconds) {
+        super("Password hashing capacity exhausted", Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .header("Retry-After", String.valueOf(retryAfterSeconds))
+                .type(MediaType.APPLICATION_JSON)
+                .entity("{\"error\":\"Server busy. Please try again later.\"}")
+                .build());
+    }
+}
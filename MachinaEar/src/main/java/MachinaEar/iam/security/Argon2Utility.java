@@ -1,26 +1,214 @@
 package MachinaEar.iam.security;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
 import de.mkammerer.argon2.Argon2;
 import de.mkammerer.argon2.Argon2Factory;
 
 public final class Argon2Utility {
     private Argon2Utility() {}
 
+    private static final Logger LOGGER = Logger.getLogger(Argon2Utility.class.getName());
+
+    private static final int MAX_ITERATIONS = 16;
+
+    // Argon2i par défaut; the instance is stateless and shared by all threads
+    private static final Argon2 ARGON2 = Argon2Factory.create();
+
+    // itérations, mémoire (32MB), parallélisme unless overridden
+    private static volatile Argon2Params params = new Argon2Params(
+            Integer.parseInt(System.getenv().getOrDefault("ARGON2_ITERATIONS", "3")),
+            Integer.parseInt(System.getenv().getOrDefault("ARGON2_MEMORY_KIB", String.valueOf(1 << 15))),
+            Integer.parseInt(System.getenv().getOrDefault("ARGON2_PARALLELISM", "2")));
+
+    private static final Argon2Executor EXECUTOR = new Argon2Executor(params.memoryKib());
+
+    /**
+     * @throws Argon2OverloadedException if the hashing pool is saturated
+     */
     public static String hash(char[] password) {
-        Argon2 argon2 = Argon2Factory.create(); // Argon2id par défaut
+        Argon2Params p = params;
+        try {
+            return EXECUTOR.run(() -> ARGON2.hash(p.iterations(), p.memoryKib(), p.parallelism(), password));
+        } finally {
+            ARGON2.wipeArray(password);
+        }
+    }
+
+    /**
+     * Hashes several secrets in parallel on the pool, in order.
+     * @throws Argon2OverloadedException if the hashing pool is saturated
+     */
+    public static List<String> hashAll(List<char[]> passwords) {
+        Argon2Params p = params;
         try {
-            return argon2.hash(3, 1 << 15, 2, password); // itérations, mémoire (32MB), parallélisme
+            return EXECUTOR.runAll(passwords.stream()
+                    .<Callable<String>>map(pw -> () -> ARGON2.hash(p.iterations(), p.memoryKib(), p.parallelism(), pw))
+                    .toList());
         } finally {
-            argon2.wipeArray(password);
+            passwords.forEach(ARGON2::wipeArray);
         }
     }
 
+    /**
+     * @throws Argon2OverloadedException if the hashing pool is saturated
+     */
     public static boolean verify(String hash, char[] password) {
-        Argon2 argon2 = Argon2Factory.create();
         try {
-            return argon2.verify(hash, password);
+            return EXECUTOR.run(() -> ARGON2.verify(hash, password));
+        } finally {
+            ARGON2.wipeArray(password);
+        }
+    }
+
+    /**
+     * Verifies the password and, when it matches a hash made with other
+     * parameters than the current ones, rehashes it in the same pool slot
+     * while the plain password is still at hand.
+     * @return the verification outcome, with the upgraded hash if one was made
+     * @throws Argon2OverloadedException if the hashing pool is saturated
+     */
+    public static Verification verifyAndRehash(String hash, char[] password) {
+        Argon2Params p = params;
+        try {
+            return EXECUTOR.run(() -> {
+                if (!ARGON2.verify(hash, password)) {
+                    return new Verification(false, null);
+                }
+                String upgraded = !p.equals(Argon2Params.of(hash))
+                        ? ARGON2.hash(p.iterations(), p.memoryKib(), p.parallelism(), password)
+                        : null;
+                return new Verification(true, upgraded);
+            });
+        } finally {
+            ARGON2.wipeArray(password);
+        }
+    }
+
+    public static Argon2Params params() {
+        return params;
+    }
+
+    /**
+     * Switches the parameters used for new hashes. The memory cost cannot
+     * grow past the one the executor was sized for.
+     */
+    public static void configure(Argon2Params next) {
+        if (next.memoryKib() > EXECUTOR.memoryKibPerHash()) {
+            throw new IllegalArgumentException("Memory cost exceeds the executor budget");
+        }
+        params = next;
+        LOGGER.info("Argon2 parameters: " + next);
+    }
+
+    /**
+     * Measures this host: runs 'concurrency' hashes at once, as the executor
+     * does at full load, and picks the largest iteration count whose mean
+     * latency stays under 'targetMillis'. Memory and parallelism are kept.
+     * Uses its own threads, so it adds up to 'concurrency' hashes of memory
+     * on top of live traffic while it runs.
+     */
+    public static Argon2Params calibrate(long targetMillis, int concurrency) {
+        Argon2Params base = params;
+        ExecutorService threads = Executors.newFixedThreadPool(concurrency);
+        try {
+            // Latency is close to linear in the iteration count: fit it on two points
+            double one = measure(threads, concurrency, base.withIterations(1));
+            double two = measure(threads, concurrency, base.withIterations(2));
+            double perIteration = Math.max(two - one, 0.1);
+            int iterations = (int) Math.max(1, Math.min(MAX_ITERATIONS, 1 + (targetMillis - one) / perIteration));
+            double latency = measure(threads, concurrency, base.withIterations(iterations));
+            while (iterations > 1 && latency > targetMillis) {
+                iterations--;
+                latency = measure(threads, concurrency, base.withIterations(iterations));
+            }
+            if (latency > targetMillis) {
+                LOGGER.warning(String.format("Argon2 target %d ms not reachable at concurrency %d: %.0f ms with 1 iteration",
+                        targetMillis, concurrency, latency));
+            }
+            LOGGER.info(String.format("Argon2 calibrated to %d iterations: %.0f ms at concurrency %d (target %d ms)",
+                    iterations, latency, concurrency, targetMillis));
+            return base.withIterations(iterations);
         } finally {
-            argon2.wipeArray(password);
+            threads.shutdownNow();
         }
     }
+
+    // Mean latency of 'concurrency' simultaneous hashes
+    private static double measure(ExecutorService threads, int concurrency, Argon2Params p) {
+        List<Future<Long>> runs = new ArrayList<>();
+        for (int i = 0; i < concurrency; i++) {
+            runs.add(threads.submit(() -> {
+                long start = System.nanoTime();
+                ARGON2.hash(p.iterations(), p.memoryKib(), p.parallelism(), "calibration".toCharArray());
+                return System.nanoTime() - start;
+            }));
+        }
+        long total = 0;
+        for (Future<Long> run : runs) {
+            try {
+                total += run.get();
+            } catch (Exception e) {
+                throw new IllegalStateException("Argon2 calibration failed", e);
+            }
+        }
+        return total / (double) concurrency / 1_000_000.0;
+    }
+
+    static int slots() {
+        return EXECUTOR.slots();
+    }
+
+    public static Argon2Stats stats() {
+        return EXECUTOR.stats();
+    }
+
+    public static record Argon2Params(int iterations, int memoryKib, int parallelism) {
+
+        Argon2Params withIterations(int n) {
+            return new Argon2Params(n, memoryKib, parallelism);
+        }
+
+        /**
+         * Parameters encoded in a hash ("$argon2i$v=19$m=32768,t=3,p=2$..."), or null if unreadable.
+         * Unlike Argon2.needsRehash, comparing them also catches hashes costlier than the current ones.
+         */
+        static Argon2Params of(String hash) {
+            int m = -1, t = -1, p = -1;
+            for (String segment : hash.split("\\$")) {
+                if (!segment.startsWith("m=")) {
+                    continue;
+                }
+                for (String kv : segment.split(",")) {
+                    int value = Integer.parseInt(kv.substring(2));
+                    switch (kv.charAt(0)) {
+                        case 'm' -> m = value;
+                        case 't' -> t = value;
+                        case 'p' -> p = value;
+                        default -> { }
+                    }
+                }
+            }
+            return m < 0 || t < 0 || p < 0 ? null : new Argon2Params(t, m, p);
+        }
+    }
+
+    /**
+     * @param upgradedHash new hash with the current parameters, or null if the stored one is current
+     */
+    public static record Verification(boolean valid, String upgradedHash) {}
+
+    /**
+     * Hashing executor metrics. Rejected hashes found the queue full; expired ones
+     * waited longer than the maximum wait and were shed when dequeued.
+     */
+    public static record Argon2Stats(int slots, int active, int queueDepth, int queueCapacity, long completed,
+            long rejected, long expired, double avgWaitMillis, double maxWaitMillis, double avgHashMillis,
+            double maxHashMillis) {}
 }
@@ -0,0 +1,62 @@
+package MachinaEar.iam.security;
+
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import com.nimbusds.jwt.JWTClaimsSet;
+
+/**
+ * Who made the request, as established once by {@link AuthorizationFilter}
+ * and shared with later filters through the request property
+ * {@link #PROPERTY}. Built once per token and cached with it, so the role
+ * and scope sets are never rebuilt per request.
+ */
+public final class AuthContext {
+
+    public static final String PROPERTY = AuthContext.class.getName();
+
+    private final String subject;
+    private final Set<String> roles;
+    private final Set<String> scopes;
+    private final JWTClaimsSet claims;
+
+    AuthContext(JWTClaimsSet claims) throws ParseException {
+        this.claims = claims;
+        this.subject = claims.getSubject();
+        List<String> roleClaim = claims.getStringListClaim("roles");
+        this.roles = roleClaim == null ? Set.of() : Set.copyOf(roleClaim);
+        String scopeClaim = claims.getStringClaim("scope");
+        this.scopes = scopeClaim == null || scopeClaim.isBlank()
+                ? Set.of() : Set.copyOf(Arrays.asList(scopeClaim.trim().split(" +")));
+    }
+
+    public String getSubject() { return subject; }
+    public Set<String> getRoles() { return roles; }
+    public Set<String> getScopes() { return scopes; }
+    public JWTClaimsSet getClaims() { return claims; }
+
+    /**
+     * True if any of the given values is a role of the caller (OR logic)
+     */
+    boolean hasAnyRole(Set<String> required) {
+        return anyOf(required, roles);
+    }
+
+    /**
+     * True if any of the given values is a scope of the token (OR logic)
+     */
+    boolean hasAnyScope(Set<String> required) {
+        return anyOf(required, scopes);
+    }
+
+    private static boolean anyOf(Set<String> required, Set<String> granted) {
+        for (String r : required) {
+            if (granted.contains(r)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
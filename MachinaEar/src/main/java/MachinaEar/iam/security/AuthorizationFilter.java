@@ -2,33 +2,27 @@ package MachinaEar.iam.security;
 
 import java.io.IOException;
 import java.security.Principal;
-import java.util.Arrays;
-import java.util.HashSet;
 import java.util.Set;
 
-import jakarta.annotation.Priority;
-import jakarta.inject.Inject;
-import jakarta.servlet.http.Cookie;
-import jakarta.servlet.http.HttpServletRequest;
-import jakarta.ws.rs.Priorities;
 import jakarta.ws.rs.container.ContainerRequestContext;
 import jakarta.ws.rs.container.ContainerRequestFilter;
-import jakarta.ws.rs.container.ResourceInfo;
-import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.Cookie;
 import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.Response;
-import jakarta.ws.rs.ext.Provider;
 
-import com.nimbusds.jwt.JWTClaimsSet;
-
-@Provider
-@Secured
-@Priority(Priorities.AUTHORIZATION)
+/**
+ * Authenticates the bearer token and checks the roles required by one
+ * resource method. Registered per method by {@link SecurityPolicyFeature}.
+ */
 public class AuthorizationFilter implements ContainerRequestFilter {
 
-    @Inject JwtManager jwt;
-    @Context ResourceInfo resourceInfo;
-    @Context HttpServletRequest request;
+    private final ClaimsCache claimsCache;
+    private final Set<String> requiredRoles; // any one is enough; empty = authenticated only
+
+    AuthorizationFilter(ClaimsCache claimsCache, Set<String> requiredRoles) {
+        this.claimsCache = claimsCache;
+        this.requiredRoles = requiredRoles;
+    }
 
     @Override
     public void filter(ContainerRequestContext ctx) throws IOException {
@@ -41,12 +35,10 @@ public class AuthorizationFilter implements ContainerRequestFilter {
         }
 
         // If not in header, try to get from httpOnly cookie
-        if (token == null && request != null && request.getCookies() != null) {
-            for (Cookie cookie : request.getCookies()) {
-                if ("access_token".equals(cookie.getName())) {
-                    token = cookie.getValue();
-                    break;
-                }
+        if (token == null) {
+            Cookie cookie = ctx.getCookies().get("access_token");
+            if (cookie != null) {
+                token = cookie.getValue();
             }
         }
 
@@ -56,30 +48,27 @@ public class AuthorizationFilter implements ContainerRequestFilter {
             return;
         }
 
+        AuthContext user;
         try {
-            JWTClaimsSet claims = jwt.validate(token);
-            final String subject = claims.getSubject();
-            final Set<String> roles = new HashSet<>(claims.getStringListClaim("roles"));
-
-            Secured ann = resourceInfo.getResourceMethod().getAnnotation(Secured.class);
-            if (ann == null) ann = resourceInfo.getResourceClass().getAnnotation(Secured.class);
-            Set<String> required = (ann == null) ? Set.of() : new HashSet<>(Arrays.asList(ann.value()));
-            if (!required.isEmpty() && required.stream().noneMatch(roles::contains)) {
-                abort(ctx, Response.Status.FORBIDDEN, "Insufficient role");
-                return;
-            }
-
-            var base = ctx.getSecurityContext();
-            ctx.setSecurityContext(new jakarta.ws.rs.core.SecurityContext() {
-                @Override public Principal getUserPrincipal() { return () -> subject; }
-                @Override public boolean isUserInRole(String r) { return roles.contains(r); }
-                @Override public boolean isSecure() { return base != null && base.isSecure(); }
-                @Override public String getAuthenticationScheme() { return "Bearer"; }
-            });
-
+            user = claimsCache.authenticate(token);
         } catch (Exception e) {
             abort(ctx, Response.Status.UNAUTHORIZED, "Invalid token");
+            return;
+        }
+
+        if (!requiredRoles.isEmpty() && !user.hasAnyRole(requiredRoles)) {
+            abort(ctx, Response.Status.FORBIDDEN, "Insufficient role");
+            return;
         }
+
+        ctx.setProperty(AuthContext.PROPERTY, user);
+        var base = ctx.getSecurityContext();
+        ctx.setSecurityContext(new jakarta.ws.rs.core.SecurityContext() {
+            @Override public Principal getUserPrincipal() { return user::getSubject; }
+            @Override public boolean isUserInRole(String r) { return user.getRoles().contains(r); }
+            @Override public boolean isSecure() { return base != null && base.isSecure(); }
+            @Override public String getAuthenticationScheme() { return "Bearer"; }
+        });
     }
 
     private static void abort(ContainerRequestContext ctx, Response.Status status, String msg) {
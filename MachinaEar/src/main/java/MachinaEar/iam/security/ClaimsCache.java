@@ -0,0 +1,102 @@
+package MachinaEar.iam.security;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import com.nimbusds.jwt.JWTClaimsSet;
+
+/**
+ * Authentication contexts of recently validated access tokens, keyed by the
+ * SHA-256 of the token so the token itself is not kept. A token is parsed,
+ * its signature verified and its role and scope sets built once per node;
+ * later requests carrying it cost a digest and a map lookup. Entries live
+ * until the token expires (at most MAX_TTL_SECONDS) and the cache holds at
+ * most JWT_CACHE_SIZE of them: when full, expired entries are purged first,
+ * then arbitrary ones.
+ */
+@ApplicationScoped
+public class ClaimsCache {
+
+    private static final int MAX_SIZE = Integer.parseInt(
+            System.getenv().getOrDefault("JWT_CACHE_SIZE", "10000"));
+    private static final long MAX_TTL_SECONDS = 3600;
+
+    @Inject
+    JwtManager jwt;
+
+    private final ConcurrentHashMap<ByteBuffer, Entry> entries = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Validates the token like {@link JwtManager#validate(String)} and
+     * rejects it once expired, served from the cache when the token was
+     * validated before.
+     */
+    public AuthContext authenticate(String token) throws Exception {
+        ByteBuffer key = digest(token);
+        long now = System.currentTimeMillis();
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expiresAt > now) {
+            hits.increment();
+            return entry.context;
+        }
+        misses.increment();
+        JWTClaimsSet claims = jwt.validate(token);
+        long expiresAt = now + MAX_TTL_SECONDS * 1000;
+        Date exp = claims.getExpirationTime();
+        if (exp != null) {
+            // Same rule as the hit path, which stops serving an entry once the token expired
+            if (exp.getTime() <= now) {
+                throw new SecurityException("Token expired");
+            }
+            expiresAt = Math.min(expiresAt, exp.getTime());
+        }
+        AuthContext context = new AuthContext(claims);
+        if (entries.size() >= MAX_SIZE) {
+            evict(now);
+        }
+        entries.put(key, new Entry(context, expiresAt));
+        return context;
+    }
+
+    private void evict(long now) {
+        int before = entries.size();
+        entries.values().removeIf(e -> e.expiresAt <= now);
+        // Still full: drop a tenth, whatever the iteration order yields
+        Iterator<ByteBuffer> it = entries.keySet().iterator();
+        for (int n = entries.size() - MAX_SIZE * 9 / 10; n > 0 && it.hasNext(); n--) {
+            it.next();
+            it.remove();
+        }
+        evictions.add(Math.max(0, before - entries.size()));
+    }
+
+    private static ByteBuffer digest(String token) {
+        try {
+            return ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.US_ASCII)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public CacheStats stats() {
+        long h = hits.sum();
+        long m = misses.sum();
+        return new CacheStats(entries.size(), MAX_SIZE, h, m, evictions.sum(), h + m == 0 ? 0 : h / (double) (h + m));
+    }
+
+    public static record CacheStats(int size, int maxSize, long hits, long misses, long evictions, double hitRatio) {}
+
+    private record Entry(AuthContext context, long expiresAt) {}
+}
@@ -31,9 +31,11 @@ public class CorsFilter implements ContainerResponseFilter {
         }
         
         responseContext.getHeaders().add("Access-Control-Allow-Headers",
-                "origin, content-type, accept, authorization");
+                "origin, content-type, accept, authorization, if-none-match");
         responseContext.getHeaders().add("Access-Control-Allow-Methods",
                 "GET, POST, PUT, DELETE, OPTIONS, HEAD");
+        responseContext.getHeaders().add("Access-Control-Expose-Headers",
+                "X-Next-Cursor, ETag");
 
         // Handle preflight requests
         if ("OPTIONS".equalsIgnoreCase(requestContext.getMethod())) {
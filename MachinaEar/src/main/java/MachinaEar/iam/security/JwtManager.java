@@ -4,41 +4,28 @@ import java.time.Instant;
 import java.util.Date;
 import java.util.List;
 import java.util.Set;
-import java.util.UUID;
 
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
 
 import MachinaEar.iam.entities.Identity;
 import MachinaEar.iam.controllers.Role;
 
 import com.nimbusds.jose.*;
-import com.nimbusds.jose.crypto.RSASSASigner;
-import com.nimbusds.jose.crypto.RSASSAVerifier;
-import com.nimbusds.jose.jwk.*;
-import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
-import com.nimbusds.jose.util.JSONObjectUtils;
 import com.nimbusds.jwt.JWTClaimsSet;
 import com.nimbusds.jwt.SignedJWT;
 
+/**
+ * Issues and validates JWTs with the keys of {@link SigningKeyStore}. The
+ * signing algorithm comes from JWT_ALGORITHM (RS256, ES256 or EdDSA). ES256
+ * is the default: it signs several times faster than RS256, and its slower
+ * verification is paid once per token per node thanks to {@link ClaimsCache}.
+ */
 @ApplicationScoped
 public class JwtManager {
 
-    private final RSAKey rsaJwk;
-    private final JWKSet jwkSet;
-
-    public JwtManager() {
-        try {
-            RSAKey k = new RSAKeyGenerator(2048)
-                    .keyUse(KeyUse.SIGNATURE)
-                    .keyID(UUID.randomUUID().toString())
-                    .algorithm(JWSAlgorithm.RS256)
-                    .generate();
-            this.rsaJwk = k; // contient privée + publique
-            this.jwkSet = new JWKSet(k.toPublicJWK());
-        } catch (Exception e) {
-            throw new IllegalStateException("Unable to init RSA keys", e);
-        }
-    }
+    @Inject
+    SigningKeyStore keys;
 
     public String generateAccessToken(Identity identity, Set<Role> roles, long minutes) {
         Instant now = Instant.now();
@@ -91,11 +78,12 @@ public class JwtManager {
 
     private String sign(JWTClaimsSet claims) {
         try {
-            JWSHeader header = new JWSHeader.Builder(JWSAlgorithm.RS256)
-                    .keyID(rsaJwk.getKeyID())
+            SigningKey key = keys.signingKey();
+            JWSHeader header = new JWSHeader.Builder(key.getAlgorithm())
+                    .keyID(key.getKeyId())
                     .type(JOSEObjectType.JWT).build();
             SignedJWT jwt = new SignedJWT(header, claims);
-            jwt.sign(new RSASSASigner(rsaJwk.toPrivateKey()));
+            jwt.sign(key.getSigner());
             return jwt.serialize();
         } catch (Exception e) {
             throw new RuntimeException(e);
@@ -104,12 +92,17 @@ public class JwtManager {
 
     public JWTClaimsSet validate(String token) throws Exception {
         SignedJWT jwt = SignedJWT.parse(token);
-        boolean ok = jwt.verify(new RSASSAVerifier(rsaJwk.toRSAPublicKey()));
+        SigningKey key = keys.verificationKey(jwt.getHeader().getKeyID());
+        if (key == null) throw new JOSEException("Unknown signing key");
+        if (!key.getAlgorithm().equals(jwt.getHeader().getAlgorithm())) {
+            throw new JOSEException("Unexpected algorithm " + jwt.getHeader().getAlgorithm());
+        }
+        boolean ok = jwt.verify(key.getVerifier());
         if (!ok) throw new JOSEException("Invalid signature");
         return jwt.getJWTClaimsSet();
     }
 
-    public String publicJwkSetJson() {
-        return JSONObjectUtils.toJSONString(jwkSet.toJSONObject());
+    public SigningKeyStore.Jwks publicJwks() {
+        return keys.jwks();
     }
 }
@@ -11,32 +11,39 @@ import MachinaEar.iam.controllers.repositories.AuditLogRepository;
 import MachinaEar.iam.entities.AuditLog;
 
 import java.io.IOException;
-import java.time.Instant;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.regex.Pattern;
 
 /**
  * Rate limiting filter to prevent brute force attacks
- * Tracks failed authentication attempts per IP and per email
+ * Counts requests per IP across all nodes (see RateLimiter)
  *
  * Configuration:
- * - Max 5 failed attempts per email in 15 minutes
- * - Max 20 failed attempts per IP in 15 minutes
+ * - Max RATE_LIMIT_PER_IP requests per IP (default 60) in RATE_LIMIT_WINDOW_MINUTES (default 15)
+ * - IPv6 clients are counted per /64, the block a single host usually controls
+ * - X-Forwarded-For is only believed from RATE_LIMIT_TRUSTED_PROXIES (CIDRs,
+ *   default loopback and private networks); the client is the right-most
+ *   hop that is not a trusted proxy, since anything left of it is client input
  * - Endpoints protected: /auth/login, /auth/register, /auth/token
  */
 @WebFilter(urlPatterns = {"/auth/login", "/auth/register", "/auth/token"})
 @Priority(1) // Execute early in the filter chain
 public class RateLimitFilter implements Filter {
 
-    // Configuration
-    @SuppressWarnings("unused")
-    private static final int MAX_ATTEMPTS_PER_EMAIL = 5;
-    private static final int MAX_ATTEMPTS_PER_IP = 20;
-    private static final int WINDOW_MINUTES = 15;
+    private static final int MAX_REQUESTS_PER_IP = Integer.parseInt(
+            System.getenv().getOrDefault("RATE_LIMIT_PER_IP", "60"));
+    private static final Pattern IP_LITERAL = Pattern.compile("[0-9]{1,3}(\\.[0-9]{1,3}){3}|[0-9a-fA-F:.]*:[0-9a-fA-F:.]*");
+    private static final List<Cidr> TRUSTED_PROXIES = Cidr.parseAll(System.getenv().getOrDefault(
+            "RATE_LIMIT_TRUSTED_PROXIES", "127.0.0.0/8,::1/128,10.0.0.0/8,172.16.0.0/12,192.168.0.0/16"));
 
-    // In-memory cache for quick rate limit checks (expires after WINDOW_MINUTES)
-    private static final Map<String, RateLimitEntry> emailLimits = new ConcurrentHashMap<>();
-    private static final Map<String, RateLimitEntry> ipLimits = new ConcurrentHashMap<>();
+    @Inject
+    RateLimiter rateLimiter;
 
     @Inject
     AuditLogRepository auditRepo;
@@ -51,7 +58,7 @@ public class RateLimitFilter implements Filter {
         String ipAddress = getClientIp(httpRequest);
 
         // Check IP-based rate limit
-        if (isRateLimited(ipAddress, ipLimits, MAX_ATTEMPTS_PER_IP)) {
+        if (!rateLimiter.tryAcquire("ip:" + rateKey(ipAddress), MAX_REQUESTS_PER_IP)) {
             logRateLimitExceeded(ipAddress, null);
             httpResponse.setStatus(429); // Too Many Requests
             httpResponse.setContentType("application/json");
@@ -66,61 +73,54 @@ public class RateLimitFilter implements Filter {
     }
 
     /**
-     * Check if rate limit is exceeded for a given key
+     * Get client IP address, considering X-Forwarded-For header appended by trusted proxies
      */
-    private boolean isRateLimited(String key, Map<String, RateLimitEntry> limitsMap, int maxAttempts) {
-        RateLimitEntry entry = limitsMap.get(key);
-        Instant now = Instant.now();
-        Instant windowStart = now.minusSeconds(WINDOW_MINUTES * 60L);
-
-        if (entry == null) {
-            return false; // No history, allow
+    private String getClientIp(HttpServletRequest request) {
+        String client = request.getRemoteAddr();
+        String xForwardedFor = request.getHeader("X-Forwarded-For");
+        if (xForwardedFor == null || xForwardedFor.isEmpty() || !isTrustedProxy(parse(client))) {
+            return client;
         }
-
-        // Clean up expired entries
-        if (entry.timestamp.isBefore(windowStart)) {
-            limitsMap.remove(key);
-            return false;
+        // Walk back from the hop closest to us while hops are our own proxies
+        String[] hops = xForwardedFor.split(",");
+        for (int i = hops.length - 1; i >= 0; i--) {
+            String hop = hops[i].trim();
+            InetAddress address = parse(hop);
+            if (address == null) {
+                break; // not an address: stop at the last hop we could check
+            }
+            client = hop;
+            if (!isTrustedProxy(address)) {
+                break;
+            }
         }
-
-        return entry.attempts >= maxAttempts;
+        return client;
     }
 
-    /**
-     * Record a failed attempt (called by endpoints after authentication failure)
-     */
-    public static void recordFailedAttempt(String ipAddress, String email) {
-        Instant now = Instant.now();
-
-        // Record IP-based attempt
-        ipLimits.compute(ipAddress, (k, v) -> {
-            if (v == null || v.timestamp.isBefore(now.minusSeconds(WINDOW_MINUTES * 60L))) {
-                return new RateLimitEntry(now, 1);
-            }
-            return new RateLimitEntry(v.timestamp, v.attempts + 1);
-        });
-
-        // Record email-based attempt
-        if (email != null) {
-            emailLimits.compute(email, (k, v) -> {
-                if (v == null || v.timestamp.isBefore(now.minusSeconds(WINDOW_MINUTES * 60L))) {
-                    return new RateLimitEntry(now, 1);
-                }
-                return new RateLimitEntry(v.timestamp, v.attempts + 1);
-            });
+    // Rate limit key of a client address: IPv6 addresses are grouped by /64
+    private static String rateKey(String ip) {
+        InetAddress address = parse(ip);
+        if (address instanceof Inet6Address) {
+            byte[] prefix = Arrays.copyOf(address.getAddress(), 8);
+            return HexFormat.of().formatHex(prefix) + "::/64";
         }
+        return ip;
     }
 
-    /**
-     * Get client IP address, considering X-Forwarded-For header
-     */
-    private String getClientIp(HttpServletRequest request) {
-        String xForwardedFor = request.getHeader("X-Forwarded-For");
-        if (xForwardedFor != null && !xForwardedFor.isEmpty()) {
-            // X-Forwarded-For can contain multiple IPs, first one is the client
-            return xForwardedFor.split(",")[0].trim();
+    private static boolean isTrustedProxy(InetAddress address) {
+        return address != null && TRUSTED_PROXIES.stream().anyMatch(c -> c.contains(address));
+    }
+
+    // Only IP literals are parsed, so a header value never triggers a DNS lookup
+    private static InetAddress parse(String ip) {
+        if (ip == null || !IP_LITERAL.matcher(ip).matches()) {
+            return null;
+        }
+        try {
+            return InetAddress.getByName(ip);
+        } catch (UnknownHostException e) {
+            return null;
         }
-        return request.getRemoteAddr();
     }
 
     /**
@@ -133,32 +133,54 @@ public class RateLimitFilter implements Filter {
             log.setIpAddress(ipAddress);
             log.setUserEmail(email);
             log.setSuccess(false);
-            log.setDetails("Rate limit exceeded: too many failed attempts");
+            log.setDetails("Rate limit exceeded: too many requests");
             auditRepo.log(log);
         }
     }
 
     /**
-     * Internal class to track rate limit entries
+     * An address block such as 10.0.0.0/8
      */
-    private static class RateLimitEntry {
-        final Instant timestamp;
-        final int attempts;
+    private record Cidr(byte[] network, int bits) {
+
+        static List<Cidr> parseAll(String list) {
+            List<Cidr> out = new ArrayList<>();
+            for (String entry : list.split(",")) {
+                entry = entry.trim();
+                if (entry.isEmpty()) {
+                    continue;
+                }
+                int slash = entry.indexOf('/');
+                InetAddress address = parse(slash < 0 ? entry : entry.substring(0, slash));
+                if (address == null) {
+                    throw new IllegalArgumentException("Invalid trusted proxy: " + entry);
+                }
+                byte[] network = address.getAddress();
+                out.add(new Cidr(network, slash < 0 ? network.length * 8 : Integer.parseInt(entry.substring(slash + 1))));
+            }
+            return out;
+        }
 
-        RateLimitEntry(Instant timestamp, int attempts) {
-            this.timestamp = timestamp;
-            this.attempts = attempts;
+        boolean contains(InetAddress address) {
+            byte[] bytes = address.getAddress();
+            if (bytes.length != network.length) {
+                return false;
+            }
+            for (int i = 0; i < bits; i++) {
+                int mask = 0x80 >>> (i % 8);
+                if ((bytes[i / 8] & mask) != (network[i / 8] & mask)) {
+                    return false;
+                }
+            }
+            return true;
         }
     }
 
     @Override
     public void init(FilterConfig filterConfig) throws ServletException {
-        // Cleanup task could be added here to periodically clear old entries
     }
 
     @Override
     public void destroy() {
-        emailLimits.clear();
-        ipLimits.clear();
     }
 }
@@ -0,0 +1,238 @@
+package MachinaEar.iam.security;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import MachinaEar.iam.controllers.repositories.RateLimitRepository;
+import MachinaEar.iam.entities.RateLimitCounter;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import jakarta.enterprise.concurrent.ManagedScheduledExecutorService;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+
+/**
+ * Cluster-wide rate limits without a database round trip per request.
+ *
+ * Each node admits requests from a local token bucket per key, taken with a
+ * compare-and-set. Every RATE_LIMIT_SYNC_MS the tokens consumed since the
+ * last sync are added to shared per-window counters in one bulk write, and
+ * each bucket is refilled with what the cluster has left: the limit minus a
+ * sliding window estimate (current window plus the elapsed share of the
+ * previous one). Only buckets used since the last sync, or with less than
+ * a quarter of their limit left, are refilled; the others are refilled once
+ * used again. A key first seen on a node, or idle on it, can therefore
+ * overshoot its limit by what other nodes admitted until the next sync. If
+ * Mongo is unreachable, buckets are no longer refilled and counts are
+ * flushed once it is back.
+ *
+ * At most RATE_LIMIT_MAX_KEYS keys are tracked, which bounds the memory, the
+ * sync query and the counters stored per window. Each sync evicts the least
+ * recently used keys to keep a tenth of that free; an evicted key's counts
+ * stay in Mongo and are read back once it is used again. Keys arriving while
+ * the table is full share one overflow bucket of RATE_LIMIT_OVERFLOW_LIMIT
+ * until the next sync, so a flood of distinct keys cannot lock everyone
+ * else out.
+ */
+@ApplicationScoped
+public class RateLimiter {
+
+    private static final Logger LOGGER = Logger.getLogger(RateLimiter.class.getName());
+
+    private static final Duration WINDOW = Duration.ofMinutes(Long.parseLong(
+            System.getenv().getOrDefault("RATE_LIMIT_WINDOW_MINUTES", "15")));
+    private static final int MAX_KEYS = Integer.parseInt(
+            System.getenv().getOrDefault("RATE_LIMIT_MAX_KEYS", "50000"));
+    private static final String OVERFLOW_KEY = "overflow";
+    private static final int OVERFLOW_LIMIT = Integer.parseInt(
+            System.getenv().getOrDefault("RATE_LIMIT_OVERFLOW_LIMIT", "20000"));
+    private static final long SYNC_MILLIS = Long.parseLong(
+            System.getenv().getOrDefault("RATE_LIMIT_SYNC_MS", "1000"));
+
+    @Resource
+    ManagedScheduledExecutorService scheduler;
+
+    @Inject
+    RateLimitRepository repository;
+
+    private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder overflowed = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    private final LongAdder syncFailures = new LongAdder();
+    private volatile long lastSync = System.currentTimeMillis();
+    private ScheduledFuture<?> task;
+
+    public void start(@Observes @Initialized(ApplicationScoped.class) Object init) {
+        task = scheduler.scheduleWithFixedDelay(this::sync, SYNC_MILLIS, SYNC_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (task != null) {
+            task.cancel(false);
+        }
+        sync();
+    }
+
+    /**
+     * Takes one request from the key's budget of 'limit' requests per window
+     * @return false if the budget is used up across the cluster
+     */
+    public boolean tryAcquire(String key, int limit) {
+        Bucket bucket = buckets.get(key);
+        if (bucket == null) {
+            if (buckets.size() >= MAX_KEYS) {
+                overflowed.increment();
+                bucket = buckets.computeIfAbsent(OVERFLOW_KEY, k -> new Bucket(OVERFLOW_LIMIT));
+            } else {
+                bucket = buckets.computeIfAbsent(key, k -> new Bucket(limit));
+            }
+        }
+        if (bucket.tryAcquire()) {
+            allowed.increment();
+            return true;
+        }
+        rejected.increment();
+        return false;
+    }
+
+    void sync() {
+        long now = System.currentTimeMillis();
+        long window = WINDOW.toMillis();
+        long current = now / window * window;
+        long since = lastSync;
+
+        Map<String, Long> consumed = new HashMap<>();
+        buckets.forEach((key, bucket) -> {
+            long n = bucket.pending.getAndSet(0);
+            if (n > 0) {
+                consumed.put(key, n);
+            }
+        });
+        try {
+            if (!consumed.isEmpty()) {
+                repository.increment(consumed, Instant.ofEpochMilli(current), Instant.ofEpochMilli(current + 2 * window));
+            }
+        } catch (Exception e) {
+            // Flush again on the next sync
+            consumed.forEach((key, n) -> {
+                Bucket bucket = buckets.get(key);
+                if (bucket != null) {
+                    bucket.pending.addAndGet(n);
+                }
+            });
+            syncFailures.increment();
+            LOGGER.log(Level.WARNING, "Rate limit sync failed", e);
+            return;
+        }
+
+        // Keys idle for a whole window have nothing left to count
+        buckets.values().removeIf(b -> b.lastUsed < now - window && b.pending.get() == 0);
+        evictLeastRecentlyUsed();
+
+        // Untouched buckets with tokens to spare are refilled once used again
+        Set<String> refill = new HashSet<>();
+        buckets.forEach((key, bucket) -> {
+            if (bucket.lastUsed >= since || bucket.tokens.get() < bucket.limit / 4) {
+                refill.add(key);
+            }
+        });
+        if (refill.isEmpty()) {
+            lastSync = now;
+            return;
+        }
+
+        try {
+            List<RateLimitCounter> counters = repository.find(refill, Instant.ofEpochMilli(current - window));
+            Map<String, long[]> counts = new HashMap<>();
+            for (RateLimitCounter c : counters) {
+                long[] cp = counts.computeIfAbsent(c.getKey(), k -> new long[2]);
+                cp[c.getWindowStart().toEpochMilli() >= current ? 0 : 1] += c.getCount();
+            }
+            double previousWeight = 1 - (now - current) / (double) window;
+            refill.forEach(key -> {
+                Bucket bucket = buckets.get(key);
+                if (bucket == null) {
+                    return;
+                }
+                long[] cp = counts.getOrDefault(key, new long[2]);
+                long used = (long) Math.ceil(cp[0] + cp[1] * previousWeight);
+                // Requests admitted since the flush above are not in the counters yet
+                bucket.tokens.set(Math.max(0, bucket.limit - used - bucket.pending.get()));
+            });
+            lastSync = now;
+        } catch (Exception e) {
+            syncFailures.increment();
+            LOGGER.log(Level.WARNING, "Rate limit sync failed", e);
+        }
+    }
+
+    // Frees a tenth of MAX_KEYS by dropping the keys used longest ago that have nothing left to flush
+    private void evictLeastRecentlyUsed() {
+        int excess = buckets.size() - (MAX_KEYS - MAX_KEYS / 10);
+        if (excess <= 0) {
+            return;
+        }
+        List<Map.Entry<String, Long>> idle = new ArrayList<>();
+        buckets.forEach((key, bucket) -> {
+            if (!key.equals(OVERFLOW_KEY) && bucket.pending.get() == 0) {
+                idle.add(Map.entry(key, bucket.lastUsed));
+            }
+        });
+        idle.sort(Map.Entry.comparingByValue());
+        for (Map.Entry<String, Long> e : idle.subList(0, Math.min(excess, idle.size()))) {
+            buckets.remove(e.getKey());
+        }
+        evicted.add(Math.min(excess, idle.size()));
+    }
+
+    public RateLimitStats stats() {
+        return new RateLimitStats(buckets.size(), MAX_KEYS, allowed.sum(), rejected.sum(), overflowed.sum(),
+                evicted.sum(), syncFailures.sum());
+    }
+
+    public static record RateLimitStats(int keys, int maxKeys, long allowed, long rejected, long overflowed,
+            long evicted, long syncFailures) {}
+
+    private static final class Bucket {
+        final int limit;
+        final AtomicLong tokens;                       // Left for this node until the next sync
+        final AtomicLong pending = new AtomicLong();   // Consumed, not yet flushed
+        volatile long lastUsed = System.currentTimeMillis();
+
+        Bucket(int limit) {
+            this.limit = limit;
+            this.tokens = new AtomicLong(limit);
+        }
+
+        boolean tryAcquire() {
+            lastUsed = System.currentTimeMillis();
+            long t;
+            do {
+                t = tokens.get();
+                if (t <= 0) {
+                    return false;
+                }
+            } while (!tokens.compareAndSet(t, t - 1));
+            pending.incrementAndGet();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package MachinaEar.iam.security;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Set;
+
+import jakarta.inject.Inject;
+import jakarta.ws.rs.Priorities;
+import jakarta.ws.rs.container.DynamicFeature;
+import jakarta.ws.rs.container.ResourceInfo;
+import jakarta.ws.rs.core.FeatureContext;
+import jakarta.ws.rs.ext.Provider;
+
+/**
+ * Compiles the @Secured / @RequiresScope annotations of each resource method
+ * once, at deployment, into filter instances holding the required role and
+ * scope sets. A method annotation overrides the class one. Requests then pay
+ * no reflection and no set allocation to be authorized.
+ */
+@Provider
+public class SecurityPolicyFeature implements DynamicFeature {
+
+    @Inject ClaimsCache claimsCache;
+
+    @Override
+    public void configure(ResourceInfo resourceInfo, FeatureContext context) {
+        Method method = resourceInfo.getResourceMethod();
+        Class<?> type = resourceInfo.getResourceClass();
+
+        Secured secured = method.getAnnotation(Secured.class);
+        if (secured == null) secured = type.getAnnotation(Secured.class);
+        if (secured != null) {
+            context.register(new AuthorizationFilter(claimsCache, Set.copyOf(Arrays.asList(secured.value()))),
+                    Priorities.AUTHORIZATION);
+        }
+
+        RequiresScope scope = method.getAnnotation(RequiresScope.class);
+        if (scope == null) scope = type.getAnnotation(RequiresScope.class);
+        if (scope != null) {
+            context.register(new ScopeValidationFilter(Set.copyOf(Arrays.asList(scope.value()))),
+                    Priorities.AUTHORIZATION + 10);
+        }
+    }
+}
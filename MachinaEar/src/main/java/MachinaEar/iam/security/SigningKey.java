@@ -0,0 +1,200 @@
+package MachinaEar.iam.security;
+
+import java.math.BigInteger;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.interfaces.EdECPrivateKey;
+import java.security.interfaces.EdECPublicKey;
+import java.security.spec.EdECPoint;
+import java.security.spec.EdECPrivateKeySpec;
+import java.security.spec.EdECPublicKeySpec;
+import java.security.spec.NamedParameterSpec;
+import java.util.Set;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.ECDSASigner;
+import com.nimbusds.jose.crypto.ECDSAVerifier;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.crypto.RSASSAVerifier;
+import com.nimbusds.jose.jca.JCAContext;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.OctetKeyPair;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jose.util.Base64URL;
+
+/**
+ * A JWT signing key with its signer and verifier built once. Nimbus signers
+ * and verifiers are thread-safe, so one instance serves every token instead
+ * of converting the JWK and allocating a new one per call.
+ *
+ * Supported algorithms: RS256, ES256 (P-256) and EdDSA (Ed25519). Nimbus
+ * only implements Ed25519 on top of Google Tink, so EdDSA uses the JDK's own
+ * Ed25519 provider instead.
+ */
+public final class SigningKey {
+
+    public static final Set<JWSAlgorithm> SUPPORTED = Set.of(JWSAlgorithm.RS256, JWSAlgorithm.ES256, JWSAlgorithm.EdDSA);
+
+    private final JWK jwk;           // private + public
+    private final JWSAlgorithm algorithm;
+    private final JWSSigner signer;
+    private final JWSVerifier verifier;
+
+    private SigningKey(JWK jwk, JWSAlgorithm algorithm, JWSSigner signer, JWSVerifier verifier) {
+        this.jwk = jwk;
+        this.algorithm = algorithm;
+        this.signer = signer;
+        this.verifier = verifier;
+    }
+
+    /**
+     * Generates a new key pair for the algorithm.
+     */
+    public static SigningKey generate(JWSAlgorithm algorithm, String keyId) throws JOSEException {
+        if (JWSAlgorithm.RS256.equals(algorithm)) {
+            return of(new RSAKeyGenerator(2048).keyUse(KeyUse.SIGNATURE).keyID(keyId).algorithm(algorithm).generate());
+        }
+        if (JWSAlgorithm.ES256.equals(algorithm)) {
+            return of(new ECKeyGenerator(Curve.P_256).keyUse(KeyUse.SIGNATURE).keyID(keyId).algorithm(algorithm).generate());
+        }
+        if (JWSAlgorithm.EdDSA.equals(algorithm)) {
+            try {
+                KeyPair pair = KeyPairGenerator.getInstance("Ed25519").generateKeyPair();
+                byte[] d = ((EdECPrivateKey) pair.getPrivate()).getBytes()
+                        .orElseThrow(() -> new JOSEException("Ed25519 private key not extractable"));
+                return of(new OctetKeyPair.Builder(Curve.Ed25519, Base64URL.encode(encode((EdECPublicKey) pair.getPublic())))
+                        .d(Base64URL.encode(d)).keyUse(KeyUse.SIGNATURE).keyID(keyId).algorithm(algorithm).build());
+            } catch (JOSEException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new JOSEException("Unable to generate Ed25519 key", e);
+            }
+        }
+        throw new JOSEException("Unsupported JWS algorithm: " + algorithm);
+    }
+
+    /**
+     * Wraps an existing private JWK. Its "alg" decides the algorithm.
+     */
+    public static SigningKey of(JWK jwk) throws JOSEException {
+        JWSAlgorithm algorithm = jwk.getAlgorithm() == null ? null : JWSAlgorithm.parse(jwk.getAlgorithm().getName());
+        if (jwk instanceof RSAKey rsa && JWSAlgorithm.RS256.equals(algorithm)) {
+            return new SigningKey(jwk, algorithm, new RSASSASigner(rsa), new RSASSAVerifier(rsa.toPublicJWK()));
+        }
+        if (jwk instanceof ECKey ec && JWSAlgorithm.ES256.equals(algorithm)) {
+            return new SigningKey(jwk, algorithm, new ECDSASigner(ec), new ECDSAVerifier(ec.toPublicJWK()));
+        }
+        if (jwk instanceof OctetKeyPair okp && JWSAlgorithm.EdDSA.equals(algorithm) && Curve.Ed25519.equals(okp.getCurve())) {
+            try {
+                KeyFactory factory = KeyFactory.getInstance("Ed25519");
+                PrivateKey privateKey = okp.isPrivate() ? factory.generatePrivate(
+                        new EdECPrivateKeySpec(NamedParameterSpec.ED25519, okp.getDecodedD())) : null;
+                PublicKey publicKey = factory.generatePublic(
+                        new EdECPublicKeySpec(NamedParameterSpec.ED25519, decode(okp.getDecodedX())));
+                return new SigningKey(jwk, algorithm, new Ed25519(privateKey, null), new Ed25519(null, publicKey));
+            } catch (Exception e) {
+                throw new JOSEException("Invalid Ed25519 key", e);
+            }
+        }
+        throw new JOSEException("Unsupported key for algorithm " + algorithm + ": " + jwk.getKeyType());
+    }
+
+    public String getKeyId() { return jwk.getKeyID(); }
+    public JWSAlgorithm getAlgorithm() { return algorithm; }
+    public JWK getJwk() { return jwk; }
+    public JWK getPublicJwk() { return jwk.toPublicJWK(); }
+    public JWSSigner getSigner() { return signer; }
+    public JWSVerifier getVerifier() { return verifier; }
+
+    // RFC 8032 encoding: y little-endian, sign of x in the top bit
+    static byte[] encode(EdECPublicKey key) {
+        EdECPoint point = key.getPoint();
+        byte[] be = point.getY().toByteArray();
+        byte[] out = new byte[32];
+        for (int i = 0; i < Math.min(32, be.length); i++) {
+            out[i] = be[be.length - 1 - i];
+        }
+        if (point.isXOdd()) {
+            out[31] |= (byte) 0x80;
+        }
+        return out;
+    }
+
+    static EdECPoint decode(byte[] raw) {
+        byte[] be = new byte[raw.length];
+        for (int i = 0; i < raw.length; i++) {
+            be[i] = raw[raw.length - 1 - i];
+        }
+        boolean xOdd = (be[0] & 0x80) != 0;
+        be[0] &= 0x7f;
+        return new EdECPoint(xOdd, new BigInteger(1, be));
+    }
+
+    /**
+     * EdDSA over Ed25519 with the JDK provider. Signature objects are not
+     * thread-safe, so one is created per call; the keys are parsed once.
+     */
+    private static final class Ed25519 implements JWSSigner, JWSVerifier {
+
+        private final PrivateKey privateKey;
+        private final PublicKey publicKey;
+        private final JCAContext jcaContext = new JCAContext();
+
+        Ed25519(PrivateKey privateKey, PublicKey publicKey) {
+            this.privateKey = privateKey;
+            this.publicKey = publicKey;
+        }
+
+        @Override
+        public Base64URL sign(JWSHeader header, byte[] signingInput) throws JOSEException {
+            try {
+                Signature signature = Signature.getInstance("Ed25519");
+                signature.initSign(privateKey);
+                signature.update(signingInput);
+                return Base64URL.encode(signature.sign());
+            } catch (Exception e) {
+                throw new JOSEException("Ed25519 signing failed", e);
+            }
+        }
+
+        @Override
+        public boolean verify(JWSHeader header, byte[] signingInput, Base64URL signature) throws JOSEException {
+            if (!JWSAlgorithm.EdDSA.equals(header.getAlgorithm())) {
+                return false;
+            }
+            try {
+                Signature verifier = Signature.getInstance("Ed25519");
+                verifier.initVerify(publicKey);
+                verifier.update(signingInput);
+                return verifier.verify(signature.decode());
+            } catch (java.security.SignatureException e) {
+                return false;
+            } catch (Exception e) {
+                throw new JOSEException("Ed25519 verification failed", e);
+            }
+        }
+
+        @Override
+        public Set<JWSAlgorithm> supportedJWSAlgorithms() {
+            return Set.of(JWSAlgorithm.EdDSA);
+        }
+
+        @Override
+        public JCAContext getJCAContext() {
+            return jcaContext;
+        }
+    }
+}
@@ -0,0 +1,379 @@
+package MachinaEar.iam.security;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import com.nimbusds.jose.EncryptionMethod;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWEAlgorithm;
+import com.nimbusds.jose.JWEHeader;
+import com.nimbusds.jose.JWEObject;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.Payload;
+import com.nimbusds.jose.crypto.DirectDecrypter;
+import com.nimbusds.jose.crypto.DirectEncrypter;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.util.JSONObjectUtils;
+
+import MachinaEar.iam.controllers.repositories.JwtKeyRepository;
+import MachinaEar.iam.entities.JwtKey;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import jakarta.enterprise.concurrent.ManagedScheduledExecutorService;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.Initialized;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+
+/**
+ * JWT signing keys shared by all nodes, so any node verifies tokens issued by
+ * another and tokens survive a redeploy.
+ *
+ * Keys live in Mongo and rotate every JWT_KEY_ROTATION_DAYS. The next key is
+ * stored PUBLISH_AHEAD before the current one stops signing, so it is in
+ * every JWKS before the first token signed with it. A retired key keeps
+ * verifying for JWT_KEY_RETENTION_DAYS, longer than any token it signed.
+ * Each node reloads the keys every REFRESH_SECONDS. Nodes racing to create
+ * the same key insert only one, because keys are unique on their start time.
+ * Only keys of JWT_ALGORITHM sign: after it changes, a key of the new
+ * algorithm is published PUBLISH_AHEAD before it signs, and the latest old
+ * key keeps signing until then. A key signs at once only when no stored key
+ * can sign at all (first start, or every key unreadable), so no published
+ * JWKS could have verified its tokens anyway. A node that sees an unknown key
+ * id reloads the keys, at most once every MISS_REFRESH, before rejecting it.
+ *
+ * Private keys are stored as a JWE (dir, A256GCM) under JWT_KEY_ENCRYPTION_KEY,
+ * a base64 256-bit key, with the key id in its authenticated header. Once it
+ * is set, keys stored in plaintext before are replaced, the same way as after
+ * an algorithm change.
+ * Without it, keys are stored in plaintext and a warning is logged.
+ *
+ * With JWT_KEYS_FILE set, the keys are instead read once from that JWK set
+ * (private keys). The one named by JWT_SIGNING_KEY_ID, or else the first,
+ * signs, and nothing rotates.
+ */
+@ApplicationScoped
+public class SigningKeyStore {
+
+    private static final Logger LOGGER = Logger.getLogger(SigningKeyStore.class.getName());
+
+    private static final JWSAlgorithm ALGORITHM = JWSAlgorithm.parse(
+            System.getenv().getOrDefault("JWT_ALGORITHM", "ES256"));
+    private static final Duration ROTATION = Duration.ofDays(Long.parseLong(
+            System.getenv().getOrDefault("JWT_KEY_ROTATION_DAYS", "30")));
+    // Refresh tokens live 7 days
+    private static final Duration RETENTION = Duration.ofDays(Long.parseLong(
+            System.getenv().getOrDefault("JWT_KEY_RETENTION_DAYS", "8")));
+    private static final Duration PUBLISH_AHEAD = Duration.ofDays(1);
+    private static final long REFRESH_SECONDS = 60;
+    private static final Duration MISS_REFRESH = Duration.ofSeconds(5);
+    private static final String KEYS_FILE = System.getenv("JWT_KEYS_FILE");
+    private static final String SIGNING_KEY_ID = System.getenv("JWT_SIGNING_KEY_ID");
+    private static final SecretKeySpec ENCRYPTION_KEY = encryptionKey();
+
+    @Resource
+    ManagedScheduledExecutorService scheduler;
+
+    @Inject
+    JwtKeyRepository repository;
+
+    private volatile Keys keys;
+    private final AtomicLong lastMissRefresh = new AtomicLong();
+    private ScheduledFuture<?> task;
+
+    @PostConstruct
+    public void init() {
+        if (!SigningKey.SUPPORTED.contains(ALGORITHM)) {
+            throw new IllegalStateException("Unsupported JWT_ALGORITHM " + ALGORITHM + ", expected one of " + SigningKey.SUPPORTED);
+        }
+        if (KEYS_FILE != null && !KEYS_FILE.isBlank()) {
+            keys = loadFile(Path.of(KEYS_FILE));
+        } else {
+            refresh();
+            if (keys == null) {
+                throw new IllegalStateException("Unable to load JWT signing keys");
+            }
+        }
+    }
+
+    public void start(@Observes @Initialized(ApplicationScoped.class) Object init) {
+        if (KEYS_FILE == null || KEYS_FILE.isBlank()) {
+            task = scheduler.scheduleWithFixedDelay(this::refresh, REFRESH_SECONDS, REFRESH_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+
+    /**
+     * The key new tokens are signed with
+     */
+    public SigningKey signingKey() {
+        return keys.signing();
+    }
+
+    /**
+     * The key that signed a token, or null if unknown or expired. An unknown
+     * key may have just been created by another node, so the keys are reloaded
+     * first, at most once every MISS_REFRESH.
+     */
+    public SigningKey verificationKey(String keyId) {
+        if (keyId == null) {
+            return null;
+        }
+        SigningKey key = keys.byId().get(keyId);
+        if (key == null && (KEYS_FILE == null || KEYS_FILE.isBlank()) && missRefreshDue()) {
+            refresh();
+            key = keys.byId().get(keyId);
+        }
+        return key;
+    }
+
+    // One caller per MISS_REFRESH wins, so a flood of forged key ids cannot hammer Mongo
+    private boolean missRefreshDue() {
+        long now = System.currentTimeMillis();
+        long last = lastMissRefresh.get();
+        return now - last >= MISS_REFRESH.toMillis() && lastMissRefresh.compareAndSet(last, now);
+    }
+
+    /**
+     * Public keys of every key that signs or verifies tokens, including the
+     * next key before it starts signing
+     */
+    public JWKSet publicKeys() {
+        return keys.published();
+    }
+
+    /**
+     * The JWKS document, serialized once per key set change
+     */
+    public Jwks jwks() {
+        return keys.jwks();
+    }
+
+    synchronized void refresh() {
+        try {
+            Instant now = Instant.now();
+            List<JwtKey> stored = repository.findUnexpired(now);
+            if (rotate(stored, now)) {
+                stored = repository.findUnexpired(now);
+            }
+            Keys current = keys;
+            Keys next = Keys.of(stored, now);
+            // Keep the serialized JWKS and its ETag unless the keys changed
+            if (current == null || !current.sameAs(next)) {
+                keys = next;
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, "JWT key refresh failed", e);
+        }
+    }
+
+    // Stores the first key, a replacement when no key may sign, or the next one when the current stops
+    // signing within PUBLISH_AHEAD
+    private boolean rotate(List<JwtKey> stored, Instant now) throws JOSEException {
+        if (stored.isEmpty()) {
+            // Start on the hour so that nodes booting together create the same key
+            Instant hour = Instant.ofEpochSecond(now.getEpochSecond() / 3600 * 3600);
+            return insert(hour);
+        }
+        List<JwtKey> usable = stored.stream().filter(SigningKeyStore::canSign).toList();
+        if (usable.isEmpty()) {
+            Instant minute = Instant.ofEpochSecond(now.getEpochSecond() / 60 * 60);
+            if (stored.stream().noneMatch(k -> !k.getSigningFrom().isAfter(now) && isReadable(k))) {
+                LOGGER.warning("No stored JWT key is readable, rotating now");
+                return insert(minute);
+            }
+            // JWT_ALGORITHM or the encryption key changed: the latest old key signs until the new one
+            // has been in every cached JWKS
+            LOGGER.info("No stored JWT key may sign with " + ALGORITHM + ", rotating in " + PUBLISH_AHEAD);
+            return insert(minute.plus(PUBLISH_AHEAD));
+        }
+        JwtKey last = usable.get(usable.size() - 1);
+        if (last.getSigningUntil().minus(PUBLISH_AHEAD).isAfter(now)) {
+            return false;
+        }
+        return insert(last.getSigningUntil());
+    }
+
+    // Keys of another algorithm, or left in plaintext once keys are encrypted, only verify
+    private static boolean canSign(JwtKey key) {
+        return ALGORITHM.getName().equals(key.getAlgorithm()) && (ENCRYPTION_KEY == null || isWrapped(key.getJwk()));
+    }
+
+    private boolean insert(Instant signingFrom) throws JOSEException {
+        SigningKey key = SigningKey.generate(ALGORITHM, UUID.randomUUID().toString());
+        JwtKey stored = new JwtKey();
+        stored.setKeyId(key.getKeyId());
+        stored.setAlgorithm(ALGORITHM.getName());
+        stored.setJwk(wrap(key.getKeyId(), key.getJwk().toJSONString()));
+        stored.setSigningFrom(signingFrom);
+        stored.setSigningUntil(signingFrom.plus(ROTATION));
+        stored.setExpiresAt(signingFrom.plus(ROTATION).plus(RETENTION));
+        boolean created = repository.insertIfAbsent(stored);
+        if (created) {
+            LOGGER.info("Created JWT signing key " + key.getKeyId() + " (" + ALGORITHM + "), signing from " + signingFrom);
+        }
+        return true;
+    }
+
+    private static String wrap(String keyId, String jwk) throws JOSEException {
+        if (ENCRYPTION_KEY == null) {
+            return jwk;
+        }
+        JWEObject jwe = new JWEObject(new JWEHeader.Builder(JWEAlgorithm.DIR, EncryptionMethod.A256GCM)
+                .keyID(keyId).build(), new Payload(jwk));
+        jwe.encrypt(new DirectEncrypter(ENCRYPTION_KEY));
+        return jwe.serialize();
+    }
+
+    private static String unwrap(String keyId, String stored) throws Exception {
+        if (!isWrapped(stored)) {
+            return stored;
+        }
+        if (ENCRYPTION_KEY == null) {
+            throw new JOSEException("JWT_KEY_ENCRYPTION_KEY is needed to read key " + keyId);
+        }
+        JWEObject jwe = JWEObject.parse(stored);
+        // The header is authenticated, so a key copied onto another record is rejected
+        if (!keyId.equals(jwe.getHeader().getKeyID())) {
+            throw new JOSEException("Encrypted key does not belong to " + keyId);
+        }
+        jwe.decrypt(new DirectDecrypter(ENCRYPTION_KEY));
+        return jwe.getPayload().toString();
+    }
+
+    private static boolean isReadable(JwtKey key) {
+        try {
+            JWK.parse(unwrap(key.getKeyId(), key.getJwk()));
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    // A plain JWK is a JSON object; an encrypted one is a compact JWE
+    private static boolean isWrapped(String stored) {
+        return !stored.trim().startsWith("{");
+    }
+
+    private static SecretKeySpec encryptionKey() {
+        String encoded = System.getenv("JWT_KEY_ENCRYPTION_KEY");
+        if (encoded == null || encoded.isBlank()) {
+            LOGGER.warning("JWT_KEY_ENCRYPTION_KEY is not set: JWT private keys are stored in plaintext");
+            return null;
+        }
+        byte[] key = Base64.getDecoder().decode(encoded.trim());
+        if (key.length != 32) {
+            throw new IllegalStateException("JWT_KEY_ENCRYPTION_KEY must be 32 bytes, base64-encoded");
+        }
+        return new SecretKeySpec(key, "AES");
+    }
+
+    private static Keys loadFile(Path path) {
+        try {
+            List<SigningKey> loaded = new ArrayList<>();
+            for (JWK jwk : JWKSet.parse(Files.readString(path)).getKeys()) {
+                loaded.add(SigningKey.of(jwk));
+            }
+            if (loaded.isEmpty()) {
+                throw new IllegalStateException("No keys in " + path);
+            }
+            SigningKey signing = loaded.stream()
+                    .filter(k -> SIGNING_KEY_ID == null || SIGNING_KEY_ID.equals(k.getKeyId()))
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalStateException("Signing key " + SIGNING_KEY_ID + " not in " + path));
+            LOGGER.info("Loaded " + loaded.size() + " JWT keys from " + path + ", signing with " + signing.getKeyId());
+            return Keys.of(signing, loaded);
+        } catch (IllegalStateException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to load JWT keys from " + path, e);
+        }
+    }
+
+    /**
+     * Serialized JWKS with its strong ETag (quoted SHA-256 of the bytes)
+     */
+    public record Jwks(byte[] json, String etag) {
+
+        static Jwks of(JWKSet published) {
+            byte[] json = JSONObjectUtils.toJSONString(published.toJSONObject()).getBytes(StandardCharsets.UTF_8);
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(json);
+                return new Jwks(json, "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(digest) + "\"");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private record Keys(SigningKey signing, Map<String, SigningKey> byId, JWKSet published, Jwks jwks) {
+
+        boolean sameAs(Keys other) {
+            return signing.getKeyId().equals(other.signing.getKeyId()) && byId.keySet().equals(other.byId.keySet());
+        }
+
+        static Keys of(List<JwtKey> stored, Instant now) throws JOSEException {
+            List<SigningKey> all = new ArrayList<>();
+            SigningKey signing = null;
+            SigningKey started = null;
+            for (JwtKey s : stored) {
+                SigningKey key;
+                try {
+                    key = SigningKey.of(JWK.parse(unwrap(s.getKeyId(), s.getJwk())));
+                } catch (Exception e) {
+                    LOGGER.warning("Skipping unreadable JWT key " + s.getKeyId() + ": " + e.getMessage());
+                    continue;
+                }
+                all.add(key);
+                // Sorted by start: the latest started key that may sign does, or else the
+                // latest started one until its replacement starts
+                if (!s.getSigningFrom().isAfter(now)) {
+                    started = key;
+                    if (canSign(s)) {
+                        signing = key;
+                    }
+                }
+            }
+            if (signing == null) {
+                signing = started;
+            }
+            if (signing == null) {
+                throw new JOSEException("No active JWT signing key");
+            }
+            return of(signing, all);
+        }
+
+        static Keys of(SigningKey signing, List<SigningKey> all) {
+            Map<String, SigningKey> byId = new HashMap<>();
+            all.forEach(k -> byId.put(k.getKeyId(), k));
+            JWKSet published = new JWKSet(all.stream().map(SigningKey::getPublicJwk).toList());
+            return new Keys(signing, Map.copyOf(byId), published, Jwks.of(published));
+        }
+    }
+}
@@ -5,10 +5,17 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.List;
+import java.util.logging.Logger;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
 
 import com.google.zxing.BarcodeFormat;
 import com.google.zxing.WriterException;
@@ -27,6 +34,17 @@ import jakarta.enterprise.context.ApplicationScoped;
 @ApplicationScoped
 public class TotpManager {
 
+    private static final Logger LOGGER = Logger.getLogger(TotpManager.class.getName());
+
+    // HMAC key for recovery code lookup prefixes. Without it, prefixes are a
+    // plain SHA-256 of the code.
+    private static final byte[] RECOVERY_CODE_KEY = recoveryCodeKey();
+
+    // Prefixes are 16 bits: enough to tell ten codes apart, while a database
+    // dump only narrows a ~52-bit code down to ~36 bits still behind Argon2,
+    // whether or not the prefix is keyed.
+    private static final int PREFIX_BYTES = 2;
+
     private final GoogleAuthenticator gAuth;
     private final SecureRandom secureRandom;
 
@@ -128,25 +146,87 @@ public class TotpManager {
     }
 
     /**
-     * Hashes a recovery code for storage. Uses Argon2 to securely hash recovery
-     * codes.
+     * Hashes recovery codes for storage, in parallel. Each entry is stored as
+     * "lookupPrefix:argon2Hash" so a submitted code is only verified against
+     * the entries whose prefix matches. The prefix is keyed with
+     * RECOVERY_CODE_HMAC_SECRET when it is set.
      *
-     * @param code the recovery code to hash
-     * @return hashed recovery code
+     * @param codes the recovery codes to hash
+     * @return stored entries, in the same order
      */
-    public String hashRecoveryCode(String code) {
-        return Argon2Utility.hash(code.toCharArray());
+    public List<String> hashRecoveryCodes(List<String> codes) {
+        List<String> hashes = Argon2Utility.hashAll(codes.stream().map(String::toCharArray).toList());
+        List<String> entries = new ArrayList<>(codes.size());
+        for (int i = 0; i < codes.size(); i++) {
+            entries.add(prefix(lookupDigest(codes.get(i))) + ":" + hashes.get(i));
+        }
+        return entries;
     }
 
     /**
-     * Verifies a recovery code against its hash.
+     * Finds the stored entry matching a recovery code. Costs one Argon2
+     * verify per entry whose lookup prefix matches the code (usually one
+     * for a valid code and none for a wrong one), plus one per entry stored
+     * without a prefix. Entries hashed before RECOVERY_CODE_HMAC_SECRET was
+     * set still match on their unkeyed prefix.
      *
-     * @param hash the stored hash
-     * @param code the recovery code to verify
-     * @return true if the code matches
+     * @param entries the stored recovery code entries
+     * @param code the submitted recovery code
+     * @return the matching entry, or null if none matches
      */
-    public boolean verifyRecoveryCode(String hash, String code) {
-        return Argon2Utility.verify(hash, code.toCharArray());
+    public String findRecoveryCode(List<String> entries, String code) {
+        if (entries == null) {
+            return null;
+        }
+        String keyed = prefix(lookupDigest(code));
+        String unkeyed = RECOVERY_CODE_KEY == null ? keyed : prefix(sha256(code));
+        for (String entry : entries) {
+            // Argon2 hashes never contain ':'
+            int sep = entry.indexOf(':');
+            if (sep >= 0 && !entry.startsWith(keyed + ":") && !entry.startsWith(unkeyed + ":")) {
+                continue;
+            }
+            String hash = sep < 0 ? entry : entry.substring(sep + 1);
+            if (Argon2Utility.verify(hash, code.toCharArray())) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private static String prefix(byte[] digest) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest, PREFIX_BYTES));
+    }
+
+    // Keyed digest of a recovery code, or a plain SHA-256 without a key
+    private static byte[] lookupDigest(String code) {
+        if (RECOVERY_CODE_KEY == null) {
+            return sha256(code);
+        }
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(RECOVERY_CODE_KEY, "HmacSHA256"));
+            return mac.doFinal(code.getBytes(StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to compute HMAC", e);
+        }
+    }
+
+    private static byte[] sha256(String code) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(code.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 not available", e);
+        }
+    }
+
+    private static byte[] recoveryCodeKey() {
+        String secret = System.getenv("RECOVERY_CODE_HMAC_SECRET");
+        if (secret == null || secret.isBlank()) {
+            LOGGER.warning("RECOVERY_CODE_HMAC_SECRET is not set: recovery code lookup prefixes are unkeyed");
+            return null;
+        }
+        return secret.getBytes(StandardCharsets.UTF_8);
     }
 
     /**
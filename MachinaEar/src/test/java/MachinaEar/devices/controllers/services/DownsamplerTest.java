@@ -0,0 +1,131 @@
+package MachinaEar.devices.controllers.services;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class DownsamplerTest {
+
+    private static final long FROM = 1_700_000_000_000L;
+
+    private static Downsampler.Series run(Downsampler.Mode mode, long[] ts, double[] values, long to, int points) {
+        Downsampler downsampler = new Downsampler(mode, FROM, to, points);
+        for (int i = 0; i < ts.length; i++) {
+            downsampler.accept(ts[i], values[i]);
+        }
+        return downsampler.finish();
+    }
+
+    private static void assertSubsetInOrder(long[] ts, double[] values, Downsampler.Series out) {
+        Map<Long, Double> input = new HashMap<>();
+        for (int i = 0; i < ts.length; i++) {
+            input.put(ts[i], values[i]);
+        }
+        for (int i = 0; i < out.timestamps().length; i++) {
+            assertEquals(input.get(out.timestamps()[i]), out.values()[i], "kept sample must come from the input");
+            if (i > 0) {
+                assertTrue(out.timestamps()[i] > out.timestamps()[i - 1], "kept samples must be in time order");
+            }
+        }
+    }
+
+    @Test
+    void lttbKeepsFirstLastAndAtMostTheRequestedPoints() {
+        Random random = new Random(3);
+        int n = 10_000;
+        long[] ts = new long[n];
+        double[] values = new double[n];
+        for (int i = 0; i < n; i++) {
+            ts[i] = FROM + i * 1000L;
+            values[i] = Math.sin(i / 100.0) + random.nextGaussian() * 0.1;
+        }
+
+        Downsampler.Series out = run(Downsampler.Mode.LTTB, ts, values, FROM + n * 1000L, 200);
+
+        assertTrue(out.timestamps().length <= 200, "got " + out.timestamps().length);
+        assertTrue(out.timestamps().length >= 190, "got " + out.timestamps().length);
+        assertEquals(ts[0], out.timestamps()[0]);
+        assertEquals(ts[n - 1], out.timestamps()[out.timestamps().length - 1]);
+        assertSubsetInOrder(ts, values, out);
+    }
+
+    @Test
+    void lttbKeepsASpike() {
+        int n = 5000;
+        long[] ts = new long[n];
+        double[] values = new double[n];
+        for (int i = 0; i < n; i++) {
+            ts[i] = FROM + i * 1000L;
+            values[i] = i == 2345 ? 50 : 1;
+        }
+
+        Downsampler.Series out = run(Downsampler.Mode.LTTB, ts, values, FROM + n * 1000L, 50);
+
+        boolean kept = false;
+        for (int i = 0; i < out.timestamps().length; i++) {
+            kept |= out.timestamps()[i] == ts[2345] && out.values()[i] == 50;
+        }
+        assertTrue(kept);
+    }
+
+    @Test
+    void sparseSeriesIsKeptWhole() {
+        long[] ts = new long[10];
+        double[] values = new double[10];
+        for (int i = 0; i < 10; i++) {
+            ts[i] = FROM + i * 100_000L;
+            values[i] = i * i;
+        }
+
+        for (Downsampler.Mode mode : Downsampler.Mode.values()) {
+            Downsampler.Series out = run(mode, ts, values, FROM + 1_000_000L, 100);
+            assertArrayEquals(ts, out.timestamps(), mode.name());
+            assertArrayEquals(values, out.values(), mode.name());
+        }
+    }
+
+    @Test
+    void minMaxKeepsTheExtremesOfEveryBucket() {
+        Random random = new Random(5);
+        int n = 6000;
+        long[] ts = new long[n];
+        double[] values = new double[n];
+        for (int i = 0; i < n; i++) {
+            ts[i] = FROM + i * 1000L;
+            values[i] = random.nextDouble();
+        }
+        long to = FROM + n * 1000L;
+        int points = 60;
+
+        Downsampler.Series out = run(Downsampler.Mode.MINMAX, ts, values, to, points);
+
+        assertTrue(out.timestamps().length <= points);
+        assertSubsetInOrder(ts, values, out);
+        // 30 buckets of 200 samples each
+        for (int b = 0; b < 30; b++) {
+            double min = Double.MAX_VALUE;
+            double max = -Double.MAX_VALUE;
+            for (int i = b * 200; i < (b + 1) * 200; i++) {
+                min = Math.min(min, values[i]);
+                max = Math.max(max, values[i]);
+            }
+            assertEquals(min, Math.min(out.values()[2 * b], out.values()[2 * b + 1]), "bucket " + b);
+            assertEquals(max, Math.max(out.values()[2 * b], out.values()[2 * b + 1]), "bucket " + b);
+        }
+    }
+
+    @Test
+    void emptyInputGivesAnEmptySeries() {
+        for (Downsampler.Mode mode : Downsampler.Mode.values()) {
+            Downsampler.Series out = new Downsampler(mode, FROM, FROM + 1000, 10).finish();
+            assertEquals(0, out.timestamps().length, mode.name());
+            assertEquals(0, out.values().length, mode.name());
+        }
+    }
+}
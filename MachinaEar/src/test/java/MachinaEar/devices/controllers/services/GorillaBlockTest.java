@@ -0,0 +1,109 @@
+package MachinaEar.devices.controllers.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class GorillaBlockTest {
+
+    private record Sample(long timestamp, long bits) {
+        static Sample of(long timestamp, double value) {
+            return new Sample(timestamp, Double.doubleToRawLongBits(value));
+        }
+    }
+
+    private static List<Sample> decode(GorillaBlock block, long from) {
+        List<Sample> out = new ArrayList<>();
+        block.decode(from, (t, v) -> out.add(Sample.of(t, v)));
+        return out;
+    }
+
+    @Test
+    void decodesWhatWasAppended() {
+        Random random = new Random(42);
+        GorillaBlock block = new GorillaBlock(4096);
+        List<Sample> expected = new ArrayList<>();
+        long t = 1_700_000_000_000L;
+        double v = 0.5;
+        while (block.hasRoom()) {
+            // Regular ticks, jitter, repeats, long gaps and same-millisecond samples
+            t += switch (random.nextInt(5)) {
+                case 0 -> 1000;
+                case 1 -> 1000 + random.nextInt(50) - 25;
+                case 2 -> 0;
+                case 3 -> random.nextInt(86_400_000);
+                default -> 1;
+            };
+            v = switch (random.nextInt(6)) {
+                case 0 -> v;
+                case 1 -> random.nextDouble();
+                case 2 -> -random.nextDouble() * 1e9;
+                case 3 -> random.nextBoolean() ? Double.NaN : -0.0;
+                case 4 -> Double.longBitsToDouble(random.nextLong());
+                default -> Math.round(random.nextDouble() * 100) / 100.0;
+            };
+            block.append(t, v);
+            expected.add(Sample.of(t, v));
+        }
+
+        assertEquals(expected.size(), block.count());
+        assertEquals(expected.get(0).timestamp(), block.firstTimestamp());
+        assertEquals(t, block.lastTimestamp());
+        assertEquals(expected, decode(block, Long.MIN_VALUE));
+    }
+
+    @Test
+    void worstCaseSamplesFitWhileThereIsRoom() {
+        Random random = new Random(7);
+        GorillaBlock block = new GorillaBlock(8);
+        List<Sample> expected = new ArrayList<>();
+        long t = 0;
+        while (block.hasRoom()) {
+            // Huge alternating deltas and random bit patterns take the longest encodings
+            t += expected.size() % 2 == 0 ? 1L << 40 : 1;
+            double v = Double.longBitsToDouble(random.nextLong());
+            block.append(t, v);
+            expected.add(Sample.of(t, v));
+        }
+
+        assertTrue(expected.size() >= 2);
+        assertEquals(expected, decode(block, Long.MIN_VALUE));
+    }
+
+    @Test
+    void decodeSkipsSamplesBeforeFrom() {
+        GorillaBlock block = new GorillaBlock(64);
+        for (long t = 0; t < 100; t++) {
+            block.append(t * 10, t);
+        }
+
+        List<Sample> tail = decode(block, 955);
+        assertEquals(4, tail.size());
+        assertEquals(Sample.of(960, 96), tail.get(0));
+        assertTrue(decode(block, 991).isEmpty());
+        assertEquals(100, decode(block, 0).size());
+    }
+
+    @Test
+    void resetBlockIsReusable() {
+        GorillaBlock block = new GorillaBlock(64);
+        for (long t = 0; t < 50; t++) {
+            block.append(t * 1000, Math.sin(t));
+        }
+        block.reset();
+
+        assertEquals(0, block.count());
+        assertTrue(decode(block, Long.MIN_VALUE).isEmpty());
+
+        block.append(5000, 1.5);
+        block.append(6000, 2.5);
+        block.append(8000, 2.5);
+        assertEquals(List.of(Sample.of(5000, 1.5), Sample.of(6000, 2.5), Sample.of(8000, 2.5)),
+                decode(block, Long.MIN_VALUE));
+    }
+}
@@ -0,0 +1,90 @@
+package MachinaEar.devices.controllers.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class IndexedMaxHeapTest {
+
+    @Test
+    void topReturnsHighestPrioritiesFirst() {
+        IndexedMaxHeap<String, String> heap = new IndexedMaxHeap<>();
+        heap.upsert("a", 0.2, "A");
+        heap.upsert("b", 0.9, "B");
+        heap.upsert("c", 0.5, "C");
+        heap.upsert("d", 0.7, "D");
+
+        assertEquals(List.of("B", "D"), heap.top(2));
+        assertEquals(List.of("B", "D", "C", "A"), heap.top(10));
+        assertTrue(heap.top(0).isEmpty());
+    }
+
+    @Test
+    void upsertMovesAnExistingKeyBothWays() {
+        IndexedMaxHeap<String, String> heap = new IndexedMaxHeap<>();
+        heap.upsert("a", 0.2, "A");
+        heap.upsert("b", 0.9, "B");
+        heap.upsert("c", 0.5, "C");
+
+        heap.upsert("a", 1.0, "A2");
+        assertEquals(List.of("A2", "B", "C"), heap.top(3));
+
+        heap.upsert("a", 0.1, "A3");
+        assertEquals(List.of("B", "C", "A3"), heap.top(3));
+        assertEquals(3, heap.size());
+    }
+
+    @Test
+    void removeKeepsTheHeapOrdered() {
+        IndexedMaxHeap<String, String> heap = new IndexedMaxHeap<>();
+        heap.upsert("a", 0.2, "A");
+        heap.upsert("b", 0.9, "B");
+        heap.upsert("c", 0.5, "C");
+
+        heap.remove("b");
+        heap.remove("missing");
+
+        assertFalse(heap.contains("b"));
+        assertEquals(2, heap.size());
+        assertEquals(List.of("C", "A"), heap.top(5));
+    }
+
+    @Test
+    void matchesASortedReferenceUnderRandomOperations() {
+        Random random = new Random(11);
+        IndexedMaxHeap<Integer, Integer> heap = new IndexedMaxHeap<>();
+        Map<Integer, Double> reference = new HashMap<>();
+        for (int step = 0; step < 20_000; step++) {
+            int key = random.nextInt(500);
+            if (random.nextInt(4) == 0) {
+                heap.remove(key);
+                reference.remove(key);
+            } else {
+                double priority = random.nextDouble();
+                heap.upsert(key, priority, key);
+                reference.put(key, priority);
+            }
+            if (step % 250 == 0) {
+                int k = random.nextInt(40);
+                List<Integer> expected = reference.entrySet().stream()
+                        .sorted(Map.Entry.<Integer, Double>comparingByValue(Comparator.reverseOrder()))
+                        .limit(k)
+                        .map(Map.Entry::getKey)
+                        .toList();
+                assertEquals(expected, heap.top(k), "step " + step);
+                assertEquals(reference.size(), heap.size());
+            }
+        }
+        for (Integer key : reference.keySet()) {
+            assertTrue(heap.contains(key));
+        }
+    }
+}
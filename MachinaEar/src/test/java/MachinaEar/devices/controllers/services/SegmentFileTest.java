@@ -0,0 +1,125 @@
+package MachinaEar.devices.controllers.services;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SegmentFileTest {
+
+    private static final long DAY = 1_700_006_400_000L;
+    // Spans three blocks of 4096 rows
+    private static final int ROWS = 10_000;
+
+    @TempDir
+    Path dir;
+
+    private long[] timestamps;
+    private double[][] columns;
+    private SegmentFile segment;
+
+    private record Sample(long timestamp, double value) {}
+
+    @BeforeEach
+    void writeSegment() throws IOException {
+        Random random = new Random(9);
+        timestamps = new long[ROWS];
+        columns = new double[2][ROWS];
+        long t = DAY;
+        for (int i = 0; i < ROWS; i++) {
+            // Several rows may share a millisecond
+            t += random.nextInt(4) == 0 ? 0 : 1 + random.nextInt(8000);
+            timestamps[i] = t;
+            columns[0][i] = random.nextInt(10) == 0 ? Double.NaN : random.nextDouble();
+            columns[1][i] = 20 + random.nextGaussian();
+        }
+        Path path = dir.resolve("scores").resolve("segment.seg");
+        SegmentFile.write(path, List.of("score", "temperature"), timestamps, columns, ROWS);
+        segment = SegmentFile.open(path);
+    }
+
+    private List<Sample> scan(String field, long from, long to) throws IOException {
+        List<Sample> out = new ArrayList<>();
+        segment.scan(field, from, to, (t, v) -> out.add(new Sample(t, v)));
+        return out;
+    }
+
+    private List<Sample> expected(int column, long from, long to) {
+        List<Sample> out = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            if (timestamps[i] >= from && timestamps[i] < to && !Double.isNaN(columns[column][i])) {
+                out.add(new Sample(timestamps[i], columns[column][i]));
+            }
+        }
+        return out;
+    }
+
+    @Test
+    void scansEveryFieldBack() throws IOException {
+        assertEquals(List.of("score", "temperature"), segment.fields());
+        assertEquals(expected(0, Long.MIN_VALUE, Long.MAX_VALUE), scan("score", Long.MIN_VALUE, Long.MAX_VALUE));
+        assertEquals(expected(1, Long.MIN_VALUE, Long.MAX_VALUE),
+                scan("temperature", Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+
+    @Test
+    void missingValuesAreNotEmitted() throws IOException {
+        List<Sample> scores = scan("score", Long.MIN_VALUE, Long.MAX_VALUE);
+        assertTrue(scores.size() < ROWS);
+        assertTrue(scores.stream().noneMatch(s -> Double.isNaN(s.value())));
+    }
+
+    @Test
+    void rangeIsHalfOpenAcrossBlockBoundaries() throws IOException {
+        // Bounds on exact row timestamps, one of them right at a block boundary
+        long[][] ranges = {
+            {timestamps[0], timestamps[1]},
+            {timestamps[4000], timestamps[4200]},
+            {timestamps[4096], timestamps[8192]},
+            {timestamps[9000] + 1, timestamps[ROWS - 1]},
+            {timestamps[ROWS - 1], timestamps[ROWS - 1] + 1},
+        };
+        for (long[] r : ranges) {
+            assertEquals(expected(1, r[0], r[1]), scan("temperature", r[0], r[1]), r[0] + ".." + r[1]);
+        }
+    }
+
+    @Test
+    void emptyRangesAndUnknownFieldsYieldNothing() throws IOException {
+        assertTrue(scan("score", DAY - 1000, DAY).isEmpty());
+        assertTrue(scan("score", timestamps[ROWS - 1] + 1, Long.MAX_VALUE).isEmpty());
+        assertTrue(scan("cpuUsage", Long.MIN_VALUE, Long.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    void readsEveryRowBackForARewrite() throws IOException {
+        assertEquals(ROWS, segment.rowCount());
+        long[] ts = new long[ROWS];
+        double[][] values = new double[3][ROWS];
+        segment.readAll(List.of("temperature", "cpuUsage", "score"), ts, values);
+
+        assertArrayEquals(timestamps, ts);
+        assertArrayEquals(columns[1], values[0]);
+        assertTrue(Arrays.stream(values[1]).allMatch(Double::isNaN));
+        assertArrayEquals(columns[0], values[2]);
+    }
+
+    @Test
+    void rejectsAFileThatIsNotASegment() throws IOException {
+        Path other = dir.resolve("other.seg");
+        Files.write(other, new byte[64]);
+        assertThrows(IOException.class, () -> SegmentFile.open(other));
+    }
+}
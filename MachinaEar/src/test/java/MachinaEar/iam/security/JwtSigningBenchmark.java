@@ -0,0 +1,87 @@
+package MachinaEar.iam.security;
+
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+
+import com.nimbusds.jose.JOSEObjectType;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+
+/**
+ * Sign and verify throughput of the supported JWT algorithms on one core,
+ * with the tokens JwtManager issues. Not a unit test, so surefire skips it;
+ * run it by hand:
+ *
+ *   mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ *   java -cp target/classes:target/test-classes:$(cat target/cp.txt) \
+ *       MachinaEar.iam.security.JwtSigningBenchmark [tokens per round] [rounds]
+ *
+ * Each algorithm gets warm-up rounds first; the best measured round is
+ * reported, since slower ones only add JIT and GC noise.
+ */
+public final class JwtSigningBenchmark {
+
+    private static final List<JWSAlgorithm> ALGORITHMS = List.of(
+            JWSAlgorithm.RS256, JWSAlgorithm.ES256, JWSAlgorithm.EdDSA);
+    private static final int WARMUP_ROUNDS = 3;
+
+    private JwtSigningBenchmark() {}
+
+    public static void main(String[] args) throws Exception {
+        int tokens = args.length > 0 ? Integer.parseInt(args[0]) : 6000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        System.out.printf("%d tokens per round, %d rounds, Java %s%n", tokens, rounds, Runtime.version());
+        System.out.printf("%-6s %12s %12s %8s%n", "alg", "sign/s", "verify/s", "bytes");
+        for (JWSAlgorithm algorithm : ALGORITHMS) {
+            run(algorithm, tokens, rounds);
+        }
+    }
+
+    private static void run(JWSAlgorithm algorithm, int tokens, int rounds) throws Exception {
+        SigningKey key = SigningKey.generate(algorithm, "bench-" + algorithm.getName());
+        String[] issued = new String[tokens];
+        double bestSign = 0;
+        double bestVerify = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + rounds; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < tokens; i++) {
+                issued[i] = sign(key, i);
+            }
+            double sign = tokens / ((System.nanoTime() - start) / 1e9);
+
+            start = System.nanoTime();
+            for (String token : issued) {
+                if (!SignedJWT.parse(token).verify(key.getVerifier())) {
+                    throw new IllegalStateException(algorithm + " failed to verify its own token");
+                }
+            }
+            double verify = tokens / ((System.nanoTime() - start) / 1e9);
+
+            if (round >= WARMUP_ROUNDS) {
+                bestSign = Math.max(bestSign, sign);
+                bestVerify = Math.max(bestVerify, verify);
+            }
+        }
+        System.out.printf("%-6s %12.0f %12.0f %8d%n", algorithm.getName(), bestSign, bestVerify, issued[0].length());
+    }
+
+    // Same header and claims as an access token from JwtManager
+    private static String sign(SigningKey key, int n) throws Exception {
+        Instant now = Instant.now();
+        JWTClaimsSet claims = new JWTClaimsSet.Builder()
+                .subject("user" + n + "@example.com")
+                .issueTime(Date.from(now))
+                .expirationTime(Date.from(now.plusSeconds(900)))
+                .claim("roles", new String[] {"USER"})
+                .claim("username", "user" + n)
+                .build();
+        SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(key.getAlgorithm())
+                .keyID(key.getKeyId())
+                .type(JOSEObjectType.JWT).build(), claims);
+        jwt.sign(key.getSigner());
+        return jwt.serialize();
+    }
+}
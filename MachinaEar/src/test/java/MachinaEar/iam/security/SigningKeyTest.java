@@ -0,0 +1,110 @@
+package MachinaEar.iam.security;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.security.KeyFactory;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.interfaces.EdECPublicKey;
+import java.security.spec.EdECPoint;
+import java.security.spec.EdECPublicKeySpec;
+import java.security.spec.NamedParameterSpec;
+import java.util.HexFormat;
+
+import org.junit.jupiter.api.Test;
+
+import com.nimbusds.jose.JOSEObjectType;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.util.Base64URL;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+
+class SigningKeyTest {
+
+    // RFC 8032, section 7.1, TEST 1 (empty message)
+    private static final byte[] RFC_PUBLIC_KEY = HexFormat.of().parseHex(
+            "d75a980182b10ab7d54bfed3c964073a0ee172f3daa62325af021a68f707511a");
+    private static final byte[] RFC_SIGNATURE = HexFormat.of().parseHex(
+            "e5564300c360ac729086e2cc806e828a84877f1eb8e5d974d873e065224901555"
+            + "fb8821590a33bacc61e39701cf9b46bd25bf5f0595bbe24655141438e7a100b");
+
+    @Test
+    void ed25519PointSurvivesEncodeAndDecode() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("Ed25519");
+        boolean sawOdd = false;
+        boolean sawEven = false;
+        for (int i = 0; i < 500; i++) {
+            EdECPublicKey key = (EdECPublicKey) generator.generateKeyPair().getPublic();
+            byte[] raw = SigningKey.encode(key);
+            EdECPoint decoded = SigningKey.decode(raw);
+
+            assertEquals(32, raw.length);
+            assertEquals(key.getPoint().getY(), decoded.getY());
+            assertEquals(key.getPoint().isXOdd(), decoded.isXOdd());
+            sawOdd |= decoded.isXOdd();
+            sawEven |= !decoded.isXOdd();
+        }
+        assertTrue(sawOdd && sawEven, "both signs of x should have been exercised");
+    }
+
+    @Test
+    void decodesAndReencodesRfc8032Key() throws Exception {
+        EdECPoint point = SigningKey.decode(RFC_PUBLIC_KEY);
+        PublicKey key = KeyFactory.getInstance("Ed25519")
+                .generatePublic(new EdECPublicKeySpec(NamedParameterSpec.ED25519, point));
+
+        Signature verifier = Signature.getInstance("Ed25519");
+        verifier.initVerify(key);
+        assertTrue(verifier.verify(RFC_SIGNATURE));
+        assertArrayEquals(RFC_PUBLIC_KEY, SigningKey.encode((EdECPublicKey) key));
+    }
+
+    @Test
+    void everyAlgorithmVerifiesAfterAStoreRoundTrip() throws Exception {
+        for (JWSAlgorithm algorithm : SigningKey.SUPPORTED) {
+            SigningKey key = SigningKey.generate(algorithm, "kid-" + algorithm.getName());
+            // Through JSON and back, as the keys are stored
+            SigningKey restored = SigningKey.of(JWK.parse(key.getJwk().toJSONString()));
+
+            SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(algorithm).keyID(key.getKeyId())
+                    .type(JOSEObjectType.JWT).build(), new JWTClaimsSet.Builder().subject("user").build());
+            jwt.sign(restored.getSigner());
+
+            SignedJWT parsed = SignedJWT.parse(jwt.serialize());
+            assertTrue(parsed.verify(key.getVerifier()), algorithm.getName());
+            assertTrue(parsed.verify(restored.getVerifier()), algorithm.getName());
+            assertEquals(algorithm, restored.getAlgorithm());
+        }
+    }
+
+    @Test
+    void ed25519VerifiesWithThePublishedKeyOnly() throws Exception {
+        SigningKey key = SigningKey.generate(JWSAlgorithm.EdDSA, "kid");
+        // The public JWK carries only x, decoded by SigningKey.decode
+        SigningKey published = SigningKey.of(JWK.parse(key.getPublicJwk().toJSONString()));
+        SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.EdDSA).keyID("kid").build(),
+                new JWTClaimsSet.Builder().subject("user").build());
+        jwt.sign(key.getSigner());
+
+        assertTrue(SignedJWT.parse(jwt.serialize()).verify(published.getVerifier()));
+    }
+
+    @Test
+    void ed25519RejectsATamperedToken() throws Exception {
+        SigningKey key = SigningKey.generate(JWSAlgorithm.EdDSA, "kid");
+        SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.EdDSA).keyID("kid").build(),
+                new JWTClaimsSet.Builder().subject("user").build());
+        jwt.sign(key.getSigner());
+        String[] parts = jwt.serialize().split("\\.");
+        String other = Base64URL.encode(new JWTClaimsSet.Builder().subject("admin").build().toString()).toString();
+
+        SignedJWT tampered = SignedJWT.parse(parts[0] + "." + other + "." + parts[2]);
+        assertFalse(tampered.verify(key.getVerifier()));
+    }
+}